@@ -2,6 +2,8 @@ package com.quantumretail;
 
 
 import com.quantumretail.resourcemon.EWMAMonitor;
+import com.quantumretail.resourcemon.ResourceKey;
+import com.quantumretail.resourcemon.ResourceVector;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -19,7 +21,10 @@ public class EWMA {
     protected static final double logOf2 = Math.log(2.0); // 0.69315... no need to keep calculating it.
     private static final String ALPHA_KEY = EWMAMonitor.class.getSimpleName() + ".alpha";
 
+    // the history is shared between the Map and ResourceVector versions of calculate(): values for resources that have
+    // a ResourceKey are kept in previousVector, and anything else in previousValues.
     Map<String, Double> previousValues = new ConcurrentHashMap<String, Double>();
+    private final ResourceVector previousVector = new ResourceVector();
 
     final long halfLifeNanos;
     long previousTimestampNanos;
@@ -57,7 +62,7 @@ public class EWMA {
     }
 
 
-    public Map<String, Double> calculate(Map<String, Double> values) {
+    public synchronized Map<String, Double> calculate(Map<String, Double> values) {
         Map<String, Double> ewma = new HashMap<String, Double>();
 
         long timestampNanos = clock.nanoTime();
@@ -67,17 +72,18 @@ public class EWMA {
         for (Map.Entry<String, Double> entry : values.entrySet()) {
             if (entry.getValue() != null) {
                 updated = true;
-                Double prevValue = previousValues.get(entry.getKey());
-                if (prevValue == null) {
+                ResourceKey key = ResourceKey.lookup(entry.getKey());
+                double prevValue = previous(entry.getKey(), key);
+                if (Double.isNaN(prevValue)) {
                     ewma.put(entry.getKey(), entry.getValue());
-                    previousValues.put(entry.getKey(), entry.getValue());
+                    remember(entry.getKey(), key, entry.getValue());
                 } else {
                     double v = calc(alpha, prevValue, entry.getValue());
                     if (Double.isNaN(v)) {
                         ewma.put(entry.getKey(), prevValue);
                     } else {
                         ewma.put(entry.getKey(), v);
-                        previousValues.put(entry.getKey(), v);
+                        remember(entry.getKey(), key, v);
                     }
                 }
             }
@@ -89,6 +95,65 @@ public class EWMA {
         return ewma;
     }
 
+    /**
+     * The ResourceVector version of {@link #calculate(java.util.Map)}: replaces each value in values with its moving
+     * average, in place. Both versions add to the same history, so it doesn't matter which one a caller uses.
+     *
+     * @return the alpha we used, or NaN if values was empty.
+     */
+    public synchronized double calculate(ResourceVector values) {
+        if (values.isEmpty()) {
+            return Double.NaN;
+        }
+        long timestampNanos = clock.nanoTime();
+        double alpha = alpha(halfLifeNanos, (timestampNanos - previousTimestampNanos));
+        for (int i = 0; i < ResourceKey.count(); i++) {
+            ResourceKey key = ResourceKey.forIndex(i);
+            double newValue = values.get(key);
+            if (Double.isNaN(newValue)) {
+                continue;
+            }
+            double prevValue = previous(key.name(), key);
+            if (Double.isNaN(prevValue)) {
+                remember(key.name(), key, newValue);
+                continue;
+            }
+            double v = calc(alpha, prevValue, newValue);
+            if (Double.isNaN(v)) {
+                values.set(key, prevValue);
+            } else {
+                values.set(key, v);
+                remember(key.name(), key, v);
+            }
+        }
+        previousTimestampNanos = clock.nanoTime();
+        return alpha;
+    }
+
+    /**
+     * @return the last average for this resource, or NaN if we don't have one yet.
+     */
+    private double previous(String name, ResourceKey key) {
+        if (key != null) {
+            double v = previousVector.get(key);
+            if (!Double.isNaN(v)) {
+                return v;
+            }
+            // if the key was registered after we'd seen the resource by name, its history is still in the map.
+        }
+        Double v = previousValues.get(name);
+        return v == null ? Double.NaN : v;
+    }
+
+    private void remember(String name, ResourceKey key, double value) {
+        if (key != null) {
+            previousVector.set(key, value);
+            previousValues.remove(name);
+        } else {
+            previousValues.put(name, value);
+        }
+    }
+
     protected double calc(double alpha, double prevValue, double newValue) {
         return (alpha * newValue) + (1 - alpha) * prevValue;
     }
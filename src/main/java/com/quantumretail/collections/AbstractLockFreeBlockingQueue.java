@@ -0,0 +1,226 @@
+package com.quantumretail.collections;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Skeleton for BlockingQueues built on top of non-blocking offer/poll/peek primitives. Subclasses implement those
+ * primitives without locking; we add the blocking operations on top.
+ * <p/>
+ *
+ * Nobody takes a lock unless they actually have to wait: consumers that find the queue empty (or producers that find
+ * it full) register as waiters and block on a condition, and producers (consumers) only take the lock to signal them
+ * if there are any. So as long as nobody is waiting, offer() and poll() are exactly as lock-free as the subclass's
+ * primitives.
+ */
+public abstract class AbstractLockFreeBlockingQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition notEmpty = waitLock.newCondition();
+    private final Condition notFull = waitLock.newCondition();
+    private final AtomicInteger waitingTakers = new AtomicInteger();
+    private final AtomicInteger waitingPutters = new AtomicInteger();
+
+    /**
+     * Add item without blocking.
+     *
+     * @return false if the queue is full.
+     */
+    protected abstract boolean doOffer(T item);
+
+    /**
+     * Remove and return the head of the queue without blocking, or return null if the queue is empty.
+     */
+    protected abstract T doPoll();
+
+    /**
+     * Return the head of the queue without removing it, or null if the queue is empty.
+     */
+    protected abstract T doPeek();
+
+    @Override
+    public boolean offer(T t) {
+        if (t == null) {
+            throw new NullPointerException();
+        }
+        if (doOffer(t)) {
+            signalNotEmpty();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public T poll() {
+        T item = doPoll();
+        if (item != null) {
+            signalNotFull();
+        }
+        return item;
+    }
+
+    @Override
+    public T peek() {
+        return doPeek();
+    }
+
+    /**
+     * Subclasses must call this after removing an item by any means other than {@link #poll()}, in case there's a
+     * producer waiting for room.
+     */
+    protected void signalNotFull() {
+        // waitingPutters is incremented before a producer re-checks for room, so if it's 0 here, any producer that
+        // starts waiting from now on will see the room we just made.
+        if (waitingPutters.get() > 0) {
+            waitLock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Subclasses must call this after adding an item by any means other than {@link #offer(Object)}.
+     */
+    protected void signalNotEmpty() {
+        if (waitingTakers.get() > 0) {
+            waitLock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        waitingTakers.incrementAndGet();
+        waitLock.lockInterruptibly();
+        try {
+            while ((item = poll()) == null) {
+                notEmpty.await();
+            }
+            if (waitingTakers.get() > 1 && !isEmpty()) {
+                // there's more where that came from; pass the signal along.
+                notEmpty.signal();
+            }
+            return item;
+        } finally {
+            waitLock.unlock();
+            waitingTakers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        long nanos = unit.toNanos(timeout);
+        waitingTakers.incrementAndGet();
+        waitLock.lockInterruptibly();
+        try {
+            while ((item = poll()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            if (waitingTakers.get() > 1 && !isEmpty()) {
+                notEmpty.signal();
+            }
+            return item;
+        } finally {
+            waitLock.unlock();
+            waitingTakers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void put(T t) throws InterruptedException {
+        if (offer(t)) {
+            return;
+        }
+        waitingPutters.incrementAndGet();
+        waitLock.lockInterruptibly();
+        try {
+            while (!offer(t)) {
+                notFull.await();
+            }
+            if (waitingPutters.get() > 1 && remainingCapacity() > 0) {
+                notFull.signal();
+            }
+        } finally {
+            waitLock.unlock();
+            waitingPutters.decrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean offer(T t, long timeout, TimeUnit unit) throws InterruptedException {
+        if (offer(t)) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        waitingPutters.incrementAndGet();
+        waitLock.lockInterruptibly();
+        try {
+            while (!offer(t)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            if (waitingPutters.get() > 1 && remainingCapacity() > 0) {
+                notFull.signal();
+            }
+            return true;
+        } finally {
+            waitLock.unlock();
+            waitingPutters.decrementAndGet();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        T item;
+        while (n < maxElements && (item = poll()) != null) {
+            c.add(item);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Unbounded by default.
+     */
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,406 @@
+package com.quantumretail.collections;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Skeleton for BlockingQueues that guard their state with a single lock, the way ArrayBlockingQueue does. Subclasses
+ * only have to provide the non-blocking primitives; we take care of locking, blocking, timeouts and the rest of the
+ * BlockingQueue interface. Since everything happens under one lock, conditional removal is trivial, so we implement
+ * {@link ConditionallyRemovableQueue} (both pollIf and claimIfPresent) for free.
+ * <p/>
+ *
+ * All of the abstract methods are called with {@link #lock} held. {@link #head()} may discard items (for example,
+ * because they have expired) before deciding what the head is, and we wake producers waiting for room if it does;
+ * {@link #dequeue()} is only called right after head() returned something other than null, and must remove and return
+ * that same item.
+ * <p/>
+ *
+ * Iterators work on a snapshot taken when the iterator is created.
+ */
+public abstract class AbstractLockingBlockingQueue<T> extends AbstractQueue<T> implements ConditionallyRemovableQueue<T> {
+
+    protected final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final boolean wakeAllProducers;
+
+    protected AbstractLockingBlockingQueue() {
+        this(false);
+    }
+
+    protected AbstractLockingBlockingQueue(boolean fair) {
+        this(fair, false);
+    }
+
+    /**
+     * @param wakeAllProducers if true, every removal wakes all producers waiting for room, rather than just one. Queues
+     *                         whose items take up different amounts of room need this: a removal might make room for
+     *                         someone else's item but not for the producer we happened to wake.
+     */
+    protected AbstractLockingBlockingQueue(boolean fair, boolean wakeAllProducers) {
+        lock = new ReentrantLock(fair);
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        this.wakeAllProducers = wakeAllProducers;
+    }
+
+    /**
+     * Add item to the queue, if there's room for it.
+     *
+     * @return false if there wasn't room.
+     */
+    protected abstract boolean enqueue(T item);
+
+    /**
+     * @return the item at the head of the queue, or null if the queue is empty.
+     */
+    protected abstract T head();
+
+    /**
+     * Remove and return the item at the head of the queue. Only called right after {@link #head()} returned non-null.
+     */
+    protected abstract T dequeue();
+
+    /**
+     * @return how many items are in the queue.
+     */
+    protected abstract int count();
+
+    /**
+     * Remove a single instance of o from the queue, wherever it is.
+     *
+     * @param claim false for {@link #remove(Object)}: o is being cancelled, and the first item equal to it goes. True
+     *              for {@link #claimIfPresent(Object)}: only o itself matches (see {@link #matches}), and a consumer
+     *              is taking it out of turn, so do whatever {@link #dequeue()} would do for it.
+     * @return true if we found (and removed) it.
+     */
+    protected abstract boolean removeItem(Object o, boolean claim);
+
+    /**
+     * @return true if item is what removeItem(o, claim) is looking for.
+     */
+    protected static boolean matches(Object o, Object item, boolean claim) {
+        return claim ? o == item : o.equals(item);
+    }
+
+    /**
+     * @return the contents of the queue, in the order they would be returned. This should be a copy (or at least, it
+     * won't be used once we let go of the lock).
+     */
+    protected abstract List<T> snapshot();
+
+    /**
+     * @return how many more items we could accept without blocking. Unbounded queues needn't override this.
+     */
+    protected int remaining() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean offer(T t) {
+        checkNotNull(t);
+        lock.lock();
+        try {
+            if (!enqueue(t)) {
+                return false;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(T t) throws InterruptedException {
+        checkNotNull(t);
+        lock.lockInterruptibly();
+        try {
+            boolean waited = false;
+            while (!enqueue(t)) {
+                waited = true;
+                notFull.await();
+            }
+            notEmpty.signal();
+            if (waited) {
+                // we may have been woken by a removal that made room for more than just us.
+                notFull.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(T t, long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(t);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            boolean waited = false;
+            while (!enqueue(t)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                waited = true;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            notEmpty.signal();
+            if (waited) {
+                notFull.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll() {
+        lock.lock();
+        try {
+            return removeHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            T item;
+            while ((item = removeHead()) == null) {
+                notEmpty.await();
+            }
+            if (count() > 0) {
+                notEmpty.signal();
+            }
+            return item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            T item;
+            while ((item = removeHead()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            if (count() > 0) {
+                notEmpty.signal();
+            }
+            return item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T pollIf(T expectedHead) {
+        lock.lock();
+        try {
+            if (expectedHead == null || currentHead() != expectedHead) {
+                return null;
+            }
+            T item = dequeue();
+            signalNotFull();
+            return item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean claimIfPresent(T item) {
+        if (item == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (removeItem(item, true)) {
+                signalNotFull();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private T removeHead() {
+        if (currentHead() == null) {
+            return null;
+        }
+        T item = dequeue();
+        signalNotFull();
+        return item;
+    }
+
+    /**
+     * head(), but if it discarded anything on the way, there's room for producers that were waiting for it -- possibly
+     * for several of them, and nobody may be about to take anything. Must be called with the lock held.
+     */
+    private T currentHead() {
+        int before = count();
+        T head = head();
+        if (count() < before) {
+            notFull.signalAll();
+        }
+        return head;
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private void signalNotFull() {
+        if (wakeAllProducers) {
+            notFull.signalAll();
+        } else {
+            notFull.signal();
+        }
+    }
+
+    @Override
+    public T peek() {
+        lock.lock();
+        try {
+            return currentHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return remaining();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (removeItem(o, false)) {
+                signalNotFull();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            while (head() != null) {
+                dequeue();
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && currentHead() != null) {
+                c.add(dequeue());
+                n++;
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        List<T> items;
+        lock.lock();
+        try {
+            items = snapshot();
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<T> it = items.iterator();
+        return new Iterator<T>() {
+            T last = null;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public T next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                AbstractLockingBlockingQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    protected static void checkNotNull(Object o) {
+        if (o == null) {
+            throw new NullPointerException();
+        }
+    }
+}
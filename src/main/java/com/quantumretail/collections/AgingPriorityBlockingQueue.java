@@ -0,0 +1,217 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.EWMA;
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An unbounded priority queue in which waiting items age: the longer an item waits, the more urgent it becomes, so
+ * that under a steady stream of urgent work, less urgent items are still handed out eventually. Use it in place of a
+ * PriorityBlockingQueue as the delegate of a {@link ResourceConstrainingQueue} when background work needs a bounded
+ * worst-case wait.
+ * <p/>
+ *
+ * An item's effective priority improves by one level for every {@code agingInterval} it waits. So an item at priority
+ * 3 that has waited three aging intervals is as urgent as an item at priority 0 that has just arrived, and after that,
+ * it goes first. Nothing at priority p waits much more than p aging intervals behind newer, more urgent items.
+ * <p/>
+ *
+ * Because everything ages at the same rate, the order of any two waiting items never changes: comparing effective
+ * priorities is the same as comparing (time added + priority * agingInterval). So nothing needs re-sorting as time
+ * passes. We keep a FIFO bucket per priority level, and since the oldest item in a bucket is also its most urgent, the
+ * head of the queue is whichever bucket's head is most urgent. That's O(levels), which is small.
+ * <p/>
+ *
+ * Priorities come from a {@link PriorityExtractor}; 0 is the most urgent. Priorities below 0 or at or above the number
+ * of levels are clamped. Items at the same effective priority are handed out oldest first. Iterators see items in the
+ * order they would be handed out right now.
+ */
+public class AgingPriorityBlockingQueue<T> extends AbstractLockingBlockingQueue<T> implements MetricsAware {
+
+    private final PriorityExtractor<T> priorityExtractor;
+    private final long agingIntervalNanos;
+    private final EWMA.Clock clock;
+    private final List<Deque<Entry<T>>> levels;
+    private int count = 0;
+    // the level whose head head() last picked.
+    private int headLevel = -1;
+
+    private Histogram waitTimes = null;
+    private Meter aged = null;
+
+    /**
+     * @param levels        the number of priority levels; priorities go from 0 (most urgent) to levels - 1.
+     * @param agingInterval how long an item waits to improve by one level.
+     */
+    public AgingPriorityBlockingQueue(PriorityExtractor<T> priorityExtractor, int levels, long agingInterval, TimeUnit unit) {
+        this(priorityExtractor, levels, agingInterval, unit, new EWMA.SystemClock());
+    }
+
+    /**
+     * This version that takes an explicit Clock is for testing purposes only.
+     */
+    public AgingPriorityBlockingQueue(PriorityExtractor<T> priorityExtractor, int levels, long agingInterval, TimeUnit unit, EWMA.Clock clock) {
+        if (levels < 1) {
+            throw new IllegalArgumentException("Need at least one level, got " + levels);
+        }
+        if (agingInterval <= 0) {
+            throw new IllegalArgumentException("agingInterval must be > 0, got " + agingInterval);
+        }
+        this.priorityExtractor = priorityExtractor;
+        this.agingIntervalNanos = unit.toNanos(agingInterval);
+        this.clock = clock;
+        this.levels = new ArrayList<Deque<Entry<T>>>(levels);
+        for (int i = 0; i < levels; i++) {
+            this.levels.add(new ArrayDeque<Entry<T>>());
+        }
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        int level = Math.max(0, Math.min(levels.size() - 1, priorityExtractor.priorityOf(item)));
+        long now = clock.nanoTime();
+        levels.get(level).add(new Entry<T>(item, now, now + level * agingIntervalNanos));
+        count++;
+        return true;
+    }
+
+    @Override
+    protected T head() {
+        headLevel = -1;
+        long best = 0;
+        for (int i = 0; i < levels.size(); i++) {
+            Entry<T> e = levels.get(i).peek();
+            // compare by difference, in case nanoTime wraps.
+            if (e != null && (headLevel < 0 || e.key - best < 0)) {
+                headLevel = i;
+                best = e.key;
+            }
+        }
+        return headLevel < 0 ? null : levels.get(headLevel).peek().item;
+    }
+
+    @Override
+    protected T dequeue() {
+        Entry<T> e = levels.get(headLevel).poll();
+        count--;
+        if (waitTimes != null) {
+            waitTimes.update(TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - e.addedNanos));
+            for (int i = 0; i < headLevel; i++) {
+                if (!levels.get(i).isEmpty()) {
+                    // something more urgent was waiting, but this one had waited long enough to go first.
+                    aged.mark();
+                    break;
+                }
+            }
+        }
+        return e.item;
+    }
+
+    @Override
+    protected int count() {
+        return count;
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (Deque<Entry<T>> level : levels) {
+            for (Iterator<Entry<T>> it = level.iterator(); it.hasNext(); ) {
+                Entry<T> e = it.next();
+                if (matches(o, e.item, claim)) {
+                    it.remove();
+                    count--;
+                    if (claim && waitTimes != null) {
+                        waitTimes.update(TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - e.addedNanos));
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<Entry<T>> entries = new ArrayList<Entry<T>>(count);
+        for (Deque<Entry<T>> level : levels) {
+            entries.addAll(level);
+        }
+        Collections.sort(entries, new Comparator<Entry<T>>() {
+            @Override
+            public int compare(Entry<T> a, Entry<T> b) {
+                long d = a.key - b.key;
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        List<T> items = new ArrayList<T>(entries.size());
+        for (Entry<T> e : entries) {
+            items.add(e.item);
+        }
+        return items;
+    }
+
+    /**
+     * @return the number of items waiting at this (original) priority level.
+     */
+    public int size(int level) {
+        lock.lock();
+        try {
+            return levels.get(level).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how long the oldest item at this (original) priority level has been waiting, in the given unit, or 0 if
+     * there isn't one.
+     */
+    public long getOldestWait(int level, TimeUnit unit) {
+        lock.lock();
+        try {
+            Entry<T> e = levels.get(level).peek();
+            return e == null ? 0L : unit.convert(clock.nanoTime() - e.addedNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a histogram of how long items waited before being handed out, a meter of items handed out ahead of
+     * more urgent ones because they had aged, and for each level, a gauge of how long its oldest item has waited.
+     */
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        aged = metricsRegistry.newMeter(new MetricName(AgingPriorityBlockingQueue.class, name, "aged"), "item", TimeUnit.SECONDS);
+        waitTimes = metricsRegistry.newHistogram(new MetricName(AgingPriorityBlockingQueue.class, name, "wait-ms"), true);
+        for (int i = 0; i < levels.size(); i++) {
+            final int level = i;
+            metricsRegistry.newGauge(new MetricName(AgingPriorityBlockingQueue.class, name, "oldest-wait-ms priority " + level), new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return getOldestWait(level, TimeUnit.MILLISECONDS);
+                }
+            });
+        }
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final long addedNanos;
+        // when this item's effective priority reaches 0; the smallest goes first.
+        final long key;
+
+        Entry(T item, long addedNanos, long key) {
+            this.item = item;
+            this.addedNanos = addedNanos;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.quantumretail.collections;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocks on a condition until signalled: ResourceConstrainingQueue signals when an item is added, when a task tracked
+ * by a {@link com.quantumretail.rcq.predictor.NotifyingTaskTracker} completes, or when someone calls
+ * {@link ResourceConstrainingQueue#signalConsumers()}. Waiting consumers use no CPU at all, and wake up within
+ * microseconds of a signal.
+ * <p/>
+ *
+ * Measured load can drop without anybody telling us, though, so we never wait longer than maxWait before checking
+ * again anyway.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    final long maxWaitNanos;
+
+    final Lock lock = new ReentrantLock();
+    final Condition signalled = lock.newCondition();
+    // incremented on every signal, so that a consumer can tell whether it missed one between checking and waiting.
+    final AtomicLong signalCount = new AtomicLong();
+    final AtomicInteger waiters = new AtomicInteger();
+
+    public BlockingWaitStrategy(long maxWaitMS) {
+        this(maxWaitMS, TimeUnit.MILLISECONDS);
+    }
+
+    public BlockingWaitStrategy(long maxWait, TimeUnit unit) {
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    @Override
+    public long prepareToWait() {
+        return signalCount.get();
+    }
+
+    @Override
+    public void await(long token, int attempt, long maxWaitNanos) throws InterruptedException {
+        // we have to register as a waiter *before* checking signalCount; signal() checks them in the opposite order.
+        waiters.incrementAndGet();
+        lock.lock();
+        try {
+            long nanos = Math.min(this.maxWaitNanos, maxWaitNanos);
+            while (signalCount.get() == token && nanos > 0) {
+                nanos = signalled.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+            waiters.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void signal(boolean all) {
+        signalCount.incrementAndGet();
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                if (all) {
+                    signalled.signalAll();
+                } else {
+                    signalled.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.quantumretail.collections;
+
+/**
+ * Doesn't wait at all; the consumer re-checks immediately. This gives the lowest possible admission latency, at the
+ * cost of keeping a core fully busy per waiting consumer. Only use this if you have cores to spare (and ideally, if
+ * consumer threads are pinned to them). Note that this means the ConstraintStrategy will be called in a tight loop, so
+ * it had better be cheap.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public long prepareToWait() {
+        return 0;
+    }
+
+    @Override
+    public void await(long token, int attempt, long maxWaitNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public void signal(boolean all) {
+        // spinners don't need to be woken.
+    }
+}
@@ -0,0 +1,397 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An unbounded queue built from a linked list of fixed-size array chunks, for backlogs of millions of items. A
+ * LinkedBlockingQueue allocates a node per item (a couple of dozen bytes, plus the garbage when it's taken) and
+ * scatters its items across the heap; here, a queued item costs one array slot, and neighbouring items sit next to
+ * each other, which is what ResourceConstrainingQueue's peek-then-remove (and lookahead) loop walks over.
+ * <p/>
+ *
+ * Like LinkedBlockingQueue, there are two locks: producers hold the putLock to append to the tail chunk, and consumers
+ * hold the takeLock to read from the head chunk, so producers and consumers don't contend with each other. Each lock is
+ * only held for a few array accesses. Chunks that the consumers have finished with go into a small pool, and producers
+ * take new chunks from it before allocating, so a queue that stays at about the same length stops allocating at all.
+ * <p/>
+ *
+ * remove(Object) replaces the item with a marker, which consumers skip over when they get to it. Iterators are weakly
+ * consistent, as with the java.util.concurrent queues; each step takes the takeLock. size() is O(1), but may be
+ * momentarily off while concurrent operations are in progress.
+ */
+public class ChunkedBlockingQueue<T> extends AbstractLockFreeBlockingQueue<T> implements ConditionallyRemovableQueue<T>, MetricsAware {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+    public static final int DEFAULT_POOLED_CHUNKS = 16;
+
+    // stands in for an item that was removed from the middle of the queue.
+    private static final Object REMOVED = new Object();
+
+    private final int chunkSize;
+    // null if we don't keep any chunks around.
+    private final BlockingQueue<Chunk> pool;
+
+    private final ReentrantLock putLock = new ReentrantLock();
+    private final ReentrantLock takeLock = new ReentrantLock();
+
+    // guarded by putLock
+    private Chunk tail;
+    private int putIndex = 0;
+    // the number of items ever added. Only written under the putLock; writing it is what publishes an item (and any
+    // new chunk it went into) to consumers.
+    private volatile long putCount = 0;
+
+    // guarded by takeLock
+    private Chunk head;
+    private int takeIndex = 0;
+    // the number of slots consumers have moved past, removed items included.
+    private long takeCount = 0;
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger chunks = new AtomicInteger(1);
+    private final AtomicLong allocated = new AtomicLong(1);
+
+    public ChunkedBlockingQueue() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_POOLED_CHUNKS);
+    }
+
+    /**
+     * @param chunkSize       the number of items per chunk.
+     * @param maxPooledChunks how many empty chunks to keep around for reuse. With the default chunk size, each one is
+     *                        4-8KB of heap.
+     */
+    public ChunkedBlockingQueue(int chunkSize, int maxPooledChunks) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be > 0, got " + chunkSize);
+        }
+        if (maxPooledChunks < 0) {
+            throw new IllegalArgumentException("maxPooledChunks must be >= 0, got " + maxPooledChunks);
+        }
+        this.chunkSize = chunkSize;
+        this.pool = (maxPooledChunks == 0) ? null : new ArrayBlockingQueue<Chunk>(maxPooledChunks);
+        Chunk first = new Chunk(chunkSize);
+        this.head = first;
+        this.tail = first;
+    }
+
+    @Override
+    protected boolean doOffer(T item) {
+        putLock.lock();
+        try {
+            if (putIndex == chunkSize) {
+                Chunk c = newChunk();
+                tail.next = c;
+                tail = c;
+                putIndex = 0;
+            }
+            tail.items[putIndex++] = item;
+            // only ever written under the putLock, so this isn't a lost update.
+            putCount = putCount + 1;
+        } finally {
+            putLock.unlock();
+        }
+        count.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T doPoll() {
+        takeLock.lock();
+        try {
+            if (!skipRemoved()) {
+                return null;
+            }
+            return (T) takeHead();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T doPeek() {
+        takeLock.lock();
+        try {
+            return skipRemoved() ? (T) head.items[takeIndex] : null;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public T pollIf(T expectedHead) {
+        if (expectedHead == null) {
+            return null;
+        }
+        takeLock.lock();
+        try {
+            if (!skipRemoved() || head.items[takeIndex] != expectedHead) {
+                return null;
+            }
+            takeHead();
+        } finally {
+            takeLock.unlock();
+        }
+        signalNotFull();
+        return expectedHead;
+    }
+
+    /**
+     * Move past any removed items at the head of the queue, and on to the next chunk if we're at the end of this one.
+     * Must hold the takeLock.
+     *
+     * @return true if there's an item at head.items[takeIndex].
+     */
+    private boolean skipRemoved() {
+        while (takeCount < putCount) {
+            if (takeIndex == chunkSize) {
+                // there's an item after the end of this chunk, so the producers have moved on to the next one, and
+                // nobody else will look at this one again.
+                Chunk done = head;
+                head = done.next;
+                takeIndex = 0;
+                recycle(done);
+            }
+            if (head.items[takeIndex] != REMOVED) {
+                return true;
+            }
+            head.items[takeIndex] = null;
+            takeIndex++;
+            takeCount++;
+        }
+        return false;
+    }
+
+    /**
+     * Must hold the takeLock, and skipRemoved() must have returned true.
+     */
+    private Object takeHead() {
+        Object item = head.items[takeIndex];
+        head.items[takeIndex] = null;
+        takeIndex++;
+        takeCount++;
+        count.decrementAndGet();
+        return item;
+    }
+
+    private Chunk newChunk() {
+        Chunk c = (pool == null) ? null : pool.poll();
+        if (c == null) {
+            c = new Chunk(chunkSize);
+            allocated.incrementAndGet();
+        }
+        chunks.incrementAndGet();
+        return c;
+    }
+
+    private void recycle(Chunk c) {
+        // the items have all been nulled out as they were taken.
+        c.next = null;
+        chunks.decrementAndGet();
+        if (pool != null) {
+            pool.offer(c);
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o != null && removeMatching(o, false);
+    }
+
+    @Override
+    public boolean claimIfPresent(T item) {
+        if (item == null || !removeMatching(item, true)) {
+            return false;
+        }
+        signalNotFull();
+        return true;
+    }
+
+    private boolean removeMatching(Object o, boolean identity) {
+        takeLock.lock();
+        try {
+            long end = putCount;
+            Chunk c = head;
+            int index = takeIndex;
+            for (long pos = takeCount; pos < end; pos++, index++) {
+                if (index == chunkSize) {
+                    c = c.next;
+                    index = 0;
+                }
+                Object item = c.items[index];
+                if (item != REMOVED && (identity ? o == item : o.equals(item))) {
+                    c.items[index] = REMOVED;
+                    count.decrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, count.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return doPeek() == null;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * @return the number of chunks in the queue, not counting the pool.
+     */
+    public int getChunkCount() {
+        return chunks.get();
+    }
+
+    /**
+     * @return the number of chunks we've ever had to allocate, rather than reuse from the pool.
+     */
+    public long getAllocatedChunkCount() {
+        return allocated.get();
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        metricsRegistry.newGauge(new MetricName(ChunkedBlockingQueue.class, name, "chunks"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getChunkCount();
+            }
+        });
+        metricsRegistry.newGauge(new MetricName(ChunkedBlockingQueue.class, name, "allocated chunks"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return getAllocatedChunkCount();
+            }
+        });
+    }
+
+    private class Itr implements Iterator<T> {
+        // where the next item is
+        private Chunk chunk;
+        private int index;
+        private long pos;
+        private T nextItem;
+
+        // where the last item we returned was, for remove()
+        private Chunk lastChunk;
+        private int lastIndex;
+        private long lastPos;
+        private T lastItem;
+
+        Itr() {
+            takeLock.lock();
+            try {
+                chunk = head;
+                index = takeIndex;
+                pos = takeCount;
+                findNext();
+            } finally {
+                takeLock.unlock();
+            }
+        }
+
+        /**
+         * Find the first item at or after pos. Must hold the takeLock.
+         */
+        @SuppressWarnings("unchecked")
+        private void findNext() {
+            if (pos <= takeCount) {
+                // the consumers have caught up with us, and our chunk may have been recycled already: if we were at
+                // the end of it, its next is no longer the chunk after it. Either way, the head is where we are now.
+                chunk = head;
+                index = takeIndex;
+                pos = takeCount;
+            }
+            long end = putCount;
+            for (; pos < end; pos++, index++) {
+                if (index == chunkSize) {
+                    chunk = chunk.next;
+                    index = 0;
+                }
+                Object item = chunk.items[index];
+                if (item != REMOVED) {
+                    nextItem = (T) item;
+                    return;
+                }
+            }
+            nextItem = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextItem != null;
+        }
+
+        @Override
+        public T next() {
+            if (nextItem == null) {
+                throw new NoSuchElementException();
+            }
+            takeLock.lock();
+            try {
+                lastChunk = chunk;
+                lastIndex = index;
+                lastPos = pos;
+                lastItem = nextItem;
+                pos++;
+                index++;
+                findNext();
+                return lastItem;
+            } finally {
+                takeLock.unlock();
+            }
+        }
+
+        @Override
+        public void remove() {
+            if (lastItem == null) {
+                throw new IllegalStateException();
+            }
+            takeLock.lock();
+            try {
+                // if the consumers have moved past it, it's gone already.
+                if (lastPos >= takeCount && lastChunk.items[lastIndex] == lastItem) {
+                    lastChunk.items[lastIndex] = REMOVED;
+                    count.decrementAndGet();
+                }
+            } finally {
+                takeLock.unlock();
+            }
+            lastItem = null;
+            lastChunk = null;
+        }
+    }
+
+    private static final class Chunk {
+        final Object[] items;
+        // written by producers under the putLock, before the first item in the next chunk is published.
+        Chunk next;
+
+        Chunk(int size) {
+            this.items = new Object[size];
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.EWMA;
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A FIFO queue that keeps its own latency in check with Controlled Delay (CoDel) active queue management, as described
+ * in RFC 8289.
+ * <p/>
+ *
+ * A ResourceConstrainingQueue only controls how fast items leave; under sustained overload, the backlog -- and how
+ * long each item waits in it -- grows without limit. CoDel watches each item's sojourn time (how long it waited in
+ * the queue). A queue that is merely absorbing a burst drains back down, so at some point within any interval some
+ * item gets through quickly; a standing queue doesn't. So once the sojourn time has stayed above {@code target} for a
+ * whole {@code interval}, we start dropping items from the head, and keep dropping at a steadily increasing rate until
+ * the sojourn time comes back under the target.
+ * <p/>
+ *
+ * Used as the delegate of a {@link ResourceConstrainingQueue}, the time an item spends waiting for resources counts
+ * towards its sojourn time, as it should. Dropped items are passed to a {@link DroppedItemHandler} (with our lock held,
+ * so it should be quick). Sojourn times of the items we hand out are recorded in a histogram, once metrics are
+ * registered.
+ * <p/>
+ *
+ * The defaults, a 5ms target and a 100ms interval, come from the RFC, and suit network packets; for tasks, a target of
+ * a few percent of the longest acceptable wait and an interval of about one task's run time is a better start.
+ */
+public class CoDelBlockingQueue<T> extends AbstractLockingBlockingQueue<T> implements MetricsAware {
+    private static final Logger log = LoggerFactory.getLogger(CoDelBlockingQueue.class);
+
+    public static final long DEFAULT_TARGET_MS = 5;
+    public static final long DEFAULT_INTERVAL_MS = 100;
+
+    private final Deque<Entry<T>> items = new ArrayDeque<Entry<T>>();
+    private final int capacity;
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final DroppedItemHandler<T> droppedItemHandler;
+    private final EWMA.Clock clock;
+
+    // CoDel's state, as in the RFC.
+    private long firstAboveTime = 0;
+    private long dropNext = 0;
+    private int dropCount = 0;
+    private int lastDropCount = 0;
+    private volatile boolean dropping = false;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private Histogram sojournTimes = null;
+    private Meter drops = null;
+
+    public CoDelBlockingQueue(DroppedItemHandler<T> droppedItemHandler) {
+        this(Integer.MAX_VALUE, DEFAULT_TARGET_MS, DEFAULT_INTERVAL_MS, TimeUnit.MILLISECONDS, droppedItemHandler);
+    }
+
+    /**
+     * @param capacity           the most items we'll hold; Integer.MAX_VALUE for no limit.
+     * @param target             the sojourn time we're happy with.
+     * @param interval           how long the sojourn time has to stay above target before we start dropping.
+     * @param droppedItemHandler may be null.
+     */
+    public CoDelBlockingQueue(int capacity, long target, long interval, TimeUnit unit, DroppedItemHandler<T> droppedItemHandler) {
+        this(capacity, target, interval, unit, droppedItemHandler, new EWMA.SystemClock());
+    }
+
+    /**
+     * This version that takes an explicit Clock is for testing purposes only.
+     */
+    public CoDelBlockingQueue(int capacity, long target, long interval, TimeUnit unit, DroppedItemHandler<T> droppedItemHandler, EWMA.Clock clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        if (target <= 0 || interval <= 0) {
+            throw new IllegalArgumentException("target and interval must be > 0");
+        }
+        this.capacity = capacity;
+        this.targetNanos = unit.toNanos(target);
+        this.intervalNanos = unit.toNanos(interval);
+        this.droppedItemHandler = droppedItemHandler;
+        this.clock = clock;
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        if (items.size() >= capacity) {
+            return false;
+        }
+        items.add(new Entry<T>(item, clock.nanoTime()));
+        return true;
+    }
+
+    @Override
+    protected T head() {
+        long now = clock.nanoTime();
+        boolean okToDrop = okToDrop(now);
+        if (dropping) {
+            if (!okToDrop) {
+                // sojourn time is back under target.
+                dropping = false;
+            }
+            while (dropping && now - dropNext >= 0) {
+                drop();
+                dropCount++;
+                if (!okToDrop(now)) {
+                    dropping = false;
+                } else {
+                    dropNext = controlLaw(dropNext, dropCount);
+                }
+            }
+        } else if (okToDrop) {
+            drop();
+            okToDrop(now);
+            dropping = true;
+            // if we were dropping recently, pick up where we left off rather than starting over.
+            int delta = dropCount - lastDropCount;
+            dropCount = (delta > 1 && now - dropNext < 16 * intervalNanos) ? delta : 1;
+            dropNext = controlLaw(now, dropCount);
+            lastDropCount = dropCount;
+            if (log.isDebugEnabled()) {
+                log.debug("Sojourn time has been over " + targetNanos + "ns for " + intervalNanos + "ns; dropping");
+            }
+        }
+        Entry<T> e = items.peek();
+        return e == null ? null : e.item;
+    }
+
+    /**
+     * Looks at the head's sojourn time, and keeps track of how long it's been over target.
+     *
+     * @return true if it's been over target for at least an interval.
+     */
+    private boolean okToDrop(long now) {
+        Entry<T> e = items.peek();
+        if (e == null || now - e.enqueuedNanos < targetNanos) {
+            firstAboveTime = 0;
+            return false;
+        }
+        if (firstAboveTime == 0) {
+            // 0 means "not above", so nudge it if we happen to land on 0.
+            firstAboveTime = (now + intervalNanos == 0) ? 1 : now + intervalNanos;
+            return false;
+        }
+        return now - firstAboveTime >= 0;
+    }
+
+    private long controlLaw(long t, int count) {
+        return t + (long) (intervalNanos / Math.sqrt(count));
+    }
+
+    private void drop() {
+        Entry<T> e = items.poll();
+        dropped.incrementAndGet();
+        if (drops != null) {
+            drops.mark();
+        }
+        if (droppedItemHandler != null) {
+            try {
+                droppedItemHandler.itemDropped(e.item);
+            } catch (RuntimeException ex) {
+                log.error("Error handling dropped item " + e.item, ex);
+            }
+        }
+    }
+
+    @Override
+    protected T dequeue() {
+        return served(items.poll());
+    }
+
+    private T served(Entry<T> e) {
+        if (sojournTimes != null) {
+            sojournTimes.update(TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - e.enqueuedNanos));
+        }
+        return e.item;
+    }
+
+    @Override
+    protected int count() {
+        return items.size();
+    }
+
+    @Override
+    protected int remaining() {
+        return capacity == Integer.MAX_VALUE ? Integer.MAX_VALUE : capacity - items.size();
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (Iterator<Entry<T>> it = items.iterator(); it.hasNext(); ) {
+            Entry<T> e = it.next();
+            if (matches(o, e.item, claim)) {
+                it.remove();
+                if (claim) {
+                    served(e);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<T> l = new ArrayList<T>(items.size());
+        for (Entry<T> e : items) {
+            l.add(e.item);
+        }
+        return l;
+    }
+
+    /**
+     * @return how long the item at the head of the queue has been waiting, in the given unit, or 0 if we're empty.
+     */
+    public long getHeadSojourn(TimeUnit unit) {
+        lock.lock();
+        try {
+            Entry<T> e = items.peek();
+            return e == null ? 0L : unit.convert(clock.nanoTime() - e.enqueuedNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if we're currently dropping items.
+     */
+    public boolean isDropping() {
+        return dropping;
+    }
+
+    /**
+     * @return how many items we've dropped.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        sojournTimes = metricsRegistry.newHistogram(new MetricName(CoDelBlockingQueue.class, name, "sojourn-ms"), true);
+        drops = metricsRegistry.newMeter(new MetricName(CoDelBlockingQueue.class, name, "dropped"), "item", TimeUnit.SECONDS);
+        metricsRegistry.newGauge(new MetricName(CoDelBlockingQueue.class, name, "head-sojourn-ms"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return getHeadSojourn(TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final long enqueuedNanos;
+
+        Entry(T item, long enqueuedNanos) {
+            this.item = item;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.quantumretail.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded, array-backed BlockingQueue, much like ArrayBlockingQueue, but one that supports
+ * {@link #pollIf(Object)}. Using this as the delegate lets a strict ResourceConstrainingQueue skip its takeLock.
+ * <p/>
+ *
+ * This queue still has a lock of its own, but it only holds it for the removal itself, rather than for the whole
+ * peek-decide-remove sequence (including the ConstraintStrategy call) the way ResourceConstrainingQueue's takeLock does.
+ */
+public class ConditionalArrayBlockingQueue<T> extends AbstractLockingBlockingQueue<T> {
+
+    private final Object[] items;
+    private int takeIndex = 0;
+    private int putIndex = 0;
+    private int count = 0;
+
+    public ConditionalArrayBlockingQueue(int capacity) {
+        this(capacity, false);
+    }
+
+    public ConditionalArrayBlockingQueue(int capacity, boolean fair) {
+        super(fair);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.items = new Object[capacity];
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        if (count == items.length) {
+            return false;
+        }
+        items[putIndex] = item;
+        putIndex = inc(putIndex);
+        count++;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T head() {
+        return count == 0 ? null : (T) items[takeIndex];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T dequeue() {
+        T item = (T) items[takeIndex];
+        items[takeIndex] = null;
+        takeIndex = inc(takeIndex);
+        count--;
+        return item;
+    }
+
+    @Override
+    protected int count() {
+        return count;
+    }
+
+    @Override
+    protected int remaining() {
+        return items.length - count;
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (int n = 0, i = takeIndex; n < count; n++, i = inc(i)) {
+            if (matches(o, items[i], claim)) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove the item at index i, sliding everything behind it forward one slot.
+     */
+    private void removeAt(int i) {
+        if (i == takeIndex) {
+            dequeue();
+            return;
+        }
+        while (true) {
+            int next = inc(i);
+            if (next == putIndex) {
+                items[i] = null;
+                putIndex = i;
+                break;
+            }
+            items[i] = items[next];
+            i = next;
+        }
+        count--;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<T> snapshot() {
+        List<T> list = new ArrayList<T>(count);
+        for (int n = 0, i = takeIndex; n < count; n++, i = inc(i)) {
+            list.add((T) items[i]);
+        }
+        return list;
+    }
+
+    private int inc(int i) {
+        return (++i == items.length) ? 0 : i;
+    }
+}
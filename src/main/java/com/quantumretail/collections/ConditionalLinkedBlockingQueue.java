@@ -0,0 +1,250 @@
+package com.quantumretail.collections;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded, lock-free linked queue (a Michael-Scott queue, like ConcurrentLinkedQueue) that supports
+ * {@link #pollIf(Object)}. Using this as the delegate lets a strict ResourceConstrainingQueue skip its takeLock.
+ * <p/>
+ *
+ * An item is taken by CAS-ing its node's item to null, so "remove the head if it's still X" is a single CAS on the
+ * head node. Nodes whose item has been taken (from the head, or from the middle of the queue via
+ * {@link #remove(Object)}) stay linked until the head moves past them.
+ * <p/>
+ *
+ * Iterators are weakly consistent, as with the java.util.concurrent queues. size() is O(1), but may be momentarily
+ * off while concurrent operations are in progress.
+ */
+public class ConditionalLinkedBlockingQueue<T> extends AbstractLockFreeBlockingQueue<T> implements ConditionallyRemovableQueue<T> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConditionalLinkedBlockingQueue, Node> HEAD =
+            AtomicReferenceFieldUpdater.newUpdater(ConditionalLinkedBlockingQueue.class, Node.class, "head");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConditionalLinkedBlockingQueue, Node> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(ConditionalLinkedBlockingQueue.class, Node.class, "tail");
+
+    // head is always a "dummy" node whose item has already been taken; the first real item is in head.next.
+    private volatile Node<T> head;
+    private volatile Node<T> tail;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public ConditionalLinkedBlockingQueue() {
+        Node<T> dummy = new Node<T>(null);
+        head = dummy;
+        tail = dummy;
+    }
+
+    @Override
+    protected boolean doOffer(T item) {
+        Node<T> node = new Node<T>(item);
+        while (true) {
+            Node<T> t = tail;
+            Node<T> next = t.next;
+            if (t == tail) {
+                if (next == null) {
+                    if (t.casNext(null, node)) {
+                        // if this fails, someone else has already helped us along.
+                        TAIL.compareAndSet(this, t, node);
+                        count.incrementAndGet();
+                        return true;
+                    }
+                } else {
+                    // tail is lagging behind; help it along.
+                    TAIL.compareAndSet(this, t, next);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected T doPoll() {
+        while (true) {
+            Node<T> h = head;
+            Node<T> first = h.next;
+            if (first == null) {
+                return null;
+            }
+            T item = first.item;
+            if (item != null && first.casItem(item, null)) {
+                HEAD.compareAndSet(this, h, first);
+                count.decrementAndGet();
+                return item;
+            }
+            // somebody else already took that one; move past it and try again.
+            HEAD.compareAndSet(this, h, first);
+        }
+    }
+
+    @Override
+    protected T doPeek() {
+        while (true) {
+            Node<T> h = head;
+            Node<T> first = h.next;
+            if (first == null) {
+                return null;
+            }
+            T item = first.item;
+            if (item != null) {
+                return item;
+            }
+            HEAD.compareAndSet(this, h, first);
+        }
+    }
+
+    @Override
+    public T pollIf(T expectedHead) {
+        if (expectedHead == null) {
+            return null;
+        }
+        while (true) {
+            Node<T> h = head;
+            Node<T> first = h.next;
+            if (first == null) {
+                return null;
+            }
+            T item = first.item;
+            if (item == null) {
+                // already taken; skip it and look at the real head.
+                HEAD.compareAndSet(this, h, first);
+                continue;
+            }
+            if (item != expectedHead) {
+                return null;
+            }
+            if (first.casItem(item, null)) {
+                HEAD.compareAndSet(this, h, first);
+                count.decrementAndGet();
+                signalNotFull();
+                return item;
+            }
+            // the only thing that can change a non-null item is someone taking it, so it isn't the head anymore.
+            return null;
+        }
+    }
+
+    @Override
+    public boolean claimIfPresent(T item) {
+        if (item == null) {
+            return false;
+        }
+        for (Node<T> n = head.next; n != null; n = n.next) {
+            if (n.item == item && n.casItem(item, null)) {
+                count.decrementAndGet();
+                signalNotFull();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        for (Node<T> n = head.next; n != null; n = n.next) {
+            T item = n.item;
+            if (item != null && o.equals(item) && n.casItem(item, null)) {
+                count.decrementAndGet();
+                signalNotFull();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, count.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return doPeek() == null;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements Iterator<T> {
+        private Node<T> nextNode;
+        private T nextItem;
+        private Node<T> lastNode;
+
+        Itr() {
+            advance(head);
+        }
+
+        private void advance(Node<T> from) {
+            for (Node<T> n = from.next; n != null; n = n.next) {
+                T item = n.item;
+                if (item != null) {
+                    nextNode = n;
+                    nextItem = item;
+                    return;
+                }
+            }
+            nextNode = null;
+            nextItem = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != null;
+        }
+
+        @Override
+        public T next() {
+            if (nextNode == null) {
+                throw new NoSuchElementException();
+            }
+            T item = nextItem;
+            lastNode = nextNode;
+            advance(nextNode);
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            if (lastNode == null) {
+                throw new IllegalStateException();
+            }
+            T item = lastNode.item;
+            if (item != null && lastNode.casItem(item, null)) {
+                count.decrementAndGet();
+                signalNotFull();
+            }
+            lastNode = null;
+        }
+    }
+
+    private static final class Node<T> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Object> ITEM =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "item");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        volatile T item;
+        volatile Node<T> next;
+
+        Node(T item) {
+            this.item = item;
+        }
+
+        boolean casItem(T expected, T update) {
+            return ITEM.compareAndSet(this, expected, update);
+        }
+
+        boolean casNext(Node<T> expected, Node<T> update) {
+            return NEXT.compareAndSet(this, expected, update);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.quantumretail.collections;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A BlockingQueue that can remove its head only if the head is still the item the caller expects. This is the
+ * "compare-and-remove" operation that BlockingQueue lacks.
+ * <p/>
+ *
+ * ResourceConstrainingQueue has to peek at the head of its delegate, decide whether it has the resources for it, and
+ * then remove it. With a plain BlockingQueue, another consumer can take the head between the peek and the remove, so in
+ * strict mode we have to hold a lock around the whole peek-decide-remove sequence. If the delegate implements this
+ * interface, we can skip the lock: we peek, decide, and then {@link #pollIf(Object)}; if somebody else got there first,
+ * we go around again and decide about the new head.
+ * <p/>
+ *
+ * With lookahead, ResourceConstrainingQueue also takes items from further back in the queue, using
+ * {@link #claimIfPresent(Object)}. That's the same kind of operation as pollIf(), rather than a remove(Object): it
+ * takes the very instance we decided on, and the item is going to be used, not thrown away.
+ */
+public interface ConditionallyRemovableQueue<T> extends BlockingQueue<T> {
+
+    /**
+     * Atomically remove the head of the queue if, and only if, it is <em>the same instance</em> as expectedHead.
+     *
+     * @param expectedHead the item we expect to be at the head of the queue, typically the result of an earlier peek().
+     * @return expectedHead if it was removed, or null if the head of the queue was something else (or nothing at all).
+     */
+    T pollIf(T expectedHead);
+
+    /**
+     * Atomically remove item from wherever it is in the queue, if it's still there. Unlike {@link #remove(Object)},
+     * which is for cancelling items, this only matches <em>the same instance</em>, and means that the caller is
+     * taking item to use it: queues that do something when an item is handed out (account for it, say) do the same
+     * here as they would for a poll().
+     *
+     * @param item typically something the caller found by iterating over the queue.
+     * @return true if we removed it, or false if it wasn't there (because somebody else has already taken it, say).
+     */
+    boolean claimIfPresent(T item);
+
+}
@@ -0,0 +1,14 @@
+package com.quantumretail.collections;
+
+/**
+ * Implemented by a task if it has a deadline, after which there's no point running it. See
+ * {@link DeadlineBlockingQueue}.
+ */
+public interface DeadlineAware {
+
+    /**
+     * @return the deadline, in milliseconds since the epoch (like System.currentTimeMillis()).
+     */
+    long getDeadline();
+
+}
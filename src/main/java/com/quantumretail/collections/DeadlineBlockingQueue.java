@@ -0,0 +1,200 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An unbounded queue that hands out items earliest deadline first, and drops items whose deadline has passed instead
+ * of handing them out. Items give their deadline by implementing {@link DeadlineAware}; items that don't have no
+ * deadline, and go after everything that does. Items with the same deadline are handed out in the order they arrived.
+ * <p/>
+ *
+ * Used as the delegate of a {@link ResourceConstrainingQueue}, an item that's waiting for resources is dropped as soon
+ * as its deadline passes, at the next admission check, rather than being run anyway. Under overload, that turns work
+ * that would have been wasted into room for work that can still make it. Dropped items are passed to a
+ * {@link DroppedItemHandler}. See {@link ResourceConstrainingQueues#deadlineQueue(DroppedItemHandler, java.util.Map)}.
+ * <p/>
+ *
+ * If we're told not to shed expired items, we hand them out anyway (still in deadline order), and count them as late.
+ * <p/>
+ *
+ * The DroppedItemHandler is called with this queue's lock held, so it should be quick, and shouldn't call back into
+ * this queue; hand anything expensive off to another thread.
+ */
+public class DeadlineBlockingQueue<T> extends AbstractLockingBlockingQueue<T> implements MetricsAware {
+    private static final Logger log = LoggerFactory.getLogger(DeadlineBlockingQueue.class);
+
+    private final PriorityQueue<Entry<T>> heap = new PriorityQueue<Entry<T>>();
+    private final DroppedItemHandler<T> droppedItemHandler;
+    private final boolean shedExpired;
+    private long sequence = 0;
+
+    private final AtomicLong shedCount = new AtomicLong();
+    private final AtomicLong lateCount = new AtomicLong();
+    private Meter shed = null;
+    private Meter late = null;
+
+    /**
+     * A queue that drops expired items without telling anyone (except for counting them).
+     */
+    public DeadlineBlockingQueue() {
+        this(null, true);
+    }
+
+    public DeadlineBlockingQueue(DroppedItemHandler<T> droppedItemHandler) {
+        this(droppedItemHandler, true);
+    }
+
+    /**
+     * @param droppedItemHandler may be null.
+     * @param shedExpired        if false, we don't drop expired items, but hand them out in deadline order and count them
+     *                           as late.
+     */
+    public DeadlineBlockingQueue(DroppedItemHandler<T> droppedItemHandler, boolean shedExpired) {
+        this.droppedItemHandler = droppedItemHandler;
+        this.shedExpired = shedExpired;
+    }
+
+    /**
+     * @return the current time, in milliseconds since the epoch. Here so that tests can override it.
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        long deadline = (item instanceof DeadlineAware) ? ((DeadlineAware) item).getDeadline() : Long.MAX_VALUE;
+        heap.add(new Entry<T>(item, deadline, sequence++));
+        return true;
+    }
+
+    @Override
+    protected T head() {
+        if (!shedExpired) {
+            Entry<T> e = heap.peek();
+            return e == null ? null : e.item;
+        }
+        Entry<T> e;
+        long now = Long.MIN_VALUE;
+        while ((e = heap.peek()) != null && e.deadline != Long.MAX_VALUE) {
+            if (now == Long.MIN_VALUE) {
+                now = now();
+            }
+            if (e.deadline >= now) {
+                break;
+            }
+            heap.poll();
+            drop(e.item);
+        }
+        return e == null ? null : e.item;
+    }
+
+    private void drop(T item) {
+        shedCount.incrementAndGet();
+        if (shed != null) {
+            shed.mark();
+        }
+        if (droppedItemHandler != null) {
+            try {
+                droppedItemHandler.itemDropped(item);
+            } catch (RuntimeException ex) {
+                log.error("Error handling dropped item " + item, ex);
+            }
+        }
+    }
+
+    @Override
+    protected T dequeue() {
+        return served(heap.poll());
+    }
+
+    private T served(Entry<T> e) {
+        if (!shedExpired && e.deadline != Long.MAX_VALUE && e.deadline < now()) {
+            lateCount.incrementAndGet();
+            if (late != null) {
+                late.mark();
+            }
+        }
+        return e.item;
+    }
+
+    @Override
+    protected int count() {
+        return heap.size();
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (Iterator<Entry<T>> it = heap.iterator(); it.hasNext(); ) {
+            Entry<T> e = it.next();
+            if (matches(o, e.item, claim)) {
+                it.remove();
+                if (claim) {
+                    served(e);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<Entry<T>> entries = new ArrayList<Entry<T>>(heap);
+        Collections.sort(entries);
+        List<T> items = new ArrayList<T>(entries.size());
+        for (Entry<T> e : entries) {
+            items.add(e.item);
+        }
+        return items;
+    }
+
+    /**
+     * @return how many expired items we've dropped.
+     */
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    /**
+     * @return how many items we've handed out after their deadline (only if we're not shedding them).
+     */
+    public long getLateCount() {
+        return lateCount.get();
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        shed = metricsRegistry.newMeter(new MetricName(DeadlineBlockingQueue.class, name, "shed"), "item", TimeUnit.SECONDS);
+        late = metricsRegistry.newMeter(new MetricName(DeadlineBlockingQueue.class, name, "late"), "item", TimeUnit.SECONDS);
+    }
+
+    private static class Entry<T> implements Comparable<Entry<T>> {
+        final T item;
+        final long deadline;
+        final long sequence;
+
+        Entry(T item, long deadline, long sequence) {
+            this.item = item;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry<T> o) {
+            if (deadline != o.deadline) {
+                return deadline < o.deadline ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence > o.sequence ? 1 : 0);
+        }
+    }
+}
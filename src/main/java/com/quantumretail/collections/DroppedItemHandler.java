@@ -0,0 +1,11 @@
+package com.quantumretail.collections;
+
+/**
+ * Told about items that a queue has dropped rather than handing them out; for example, because their deadline has
+ * passed. Typically this would fail the task, or let whoever is waiting for it know it isn't coming.
+ */
+public interface DroppedItemHandler<T> {
+
+    void itemDropped(T item);
+
+}
@@ -0,0 +1,14 @@
+package com.quantumretail.collections;
+
+import java.io.IOException;
+
+/**
+ * Turns queued items into bytes and back, for queues that keep some of their items outside the heap (see
+ * {@link SpillingBlockingQueue}).
+ */
+public interface ItemSerializer<T> {
+
+    byte[] toBytes(T item) throws IOException;
+
+    T fromBytes(byte[] bytes) throws IOException;
+}
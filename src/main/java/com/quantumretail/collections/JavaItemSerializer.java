@@ -0,0 +1,35 @@
+package com.quantumretail.collections;
+
+import java.io.*;
+
+/**
+ * An ItemSerializer that uses plain Java serialization, so items must be {@link Serializable}. It's neither fast nor
+ * compact; if you know what your items look like, a serializer of your own will do better.
+ */
+public class JavaItemSerializer<T> implements ItemSerializer<T> {
+
+    @Override
+    public byte[] toBytes(T item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(item);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T fromBytes(byte[] bytes) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (T) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Couldn't deserialize item", e);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.MetricsAware;
+import com.quantumretail.rcq.predictor.TaskCompletionListener;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An unbounded FIFO queue that survives restarts. Every item added is appended to a journal of memory-mapped segment
+ * files in the given directory, and when a new instance is created on the same directory, it replays the items that
+ * were never acknowledged, in their original order.
+ * <p/>
+ *
+ * An item is acknowledged when it has finished running, not when it's taken off the queue, so that a task that was
+ * in progress when the node went down is run again. Register the queue as a TaskCompletionListener with the
+ * {@link com.quantumretail.rcq.predictor.NotifyingTaskTracker} that the ResourceConstrainingQueue uses (see
+ * {@link ResourceConstrainingQueues#journaledQueue(ItemSerializer, java.io.File, long, java.util.Map)}), or call
+ * {@link #acknowledge(Object)} yourself. That makes this at-least-once: a task may run again if we stop after it
+ * completes but before its acknowledgement reaches the disk. Items are matched to acknowledgements by identity, so the
+ * same instance shouldn't be in the queue twice at once. Items cancelled with remove(Object) or clear() are
+ * acknowledged straight away, since they'll never run; items taken out of turn with {@link #claimIfPresent(Object)} (as
+ * ResourceConstrainingQueue's lookahead does) are going to run, so they wait for their acknowledgement like any other.
+ * <p/>
+ *
+ * Each journal record is a CRC32 checksum, a type (add or acknowledge), the item's id, and for adds, the item as
+ * serialized by an {@link ItemSerializer}. Replay stops at the first record in a segment whose checksum doesn't
+ * match, which is what a write torn by a crash looks like. After a replay, we always start writing to a new segment.
+ * <p/>
+ *
+ * Writing to a mapped file only gets it as far as the OS; it's on disk once it has been synced. With syncEvery = 1,
+ * every record is synced before put() or offer() returns, which is safe but slow. With syncEvery = N, we sync every N
+ * records, so up to N - 1 records can be lost in a power failure (though not if only the JVM dies). With syncEvery = 0,
+ * we never sync when writing, and leave it to {@link #sync()} (run periodically by {@link #run()}) and to the OS.
+ * <p/>
+ *
+ * Once every item in the oldest segment has been acknowledged, the segment is deleted. {@link #compact()} (also run
+ * by run()) deals with the oldest segment when only a few of its items are still live -- less than compactionRatio of
+ * them -- by copying those to the end of the journal, so that a few slow tasks don't keep a whole segment on disk.
+ */
+public class JournaledBlockingQueue<T> extends AbstractLockingBlockingQueue<T> implements TaskCompletionListener, Runnable, MetricsAware, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(JournaledBlockingQueue.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_RATIO = 0.25;
+
+    private static final byte ADD = 1;
+    private static final byte ACK = 2;
+    // checksum, then the checksummed part: type, id, payload length.
+    private static final int CHECKED_HEADER_SIZE = 1 + 8 + 4;
+    private static final int HEADER_SIZE = 4 + CHECKED_HEADER_SIZE;
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final ItemSerializer<T> serializer;
+    private final File directory;
+    private final int segmentSize;
+    private final int syncEvery;
+    private final double compactionRatio;
+
+    private final Deque<Entry<T>> queued = new ArrayDeque<Entry<T>>();
+    private final Map<Object, Entry<T>> unacknowledged = new IdentityHashMap<Object, Entry<T>>();
+    private final Map<Long, Entry<T>> live = new HashMap<Long, Entry<T>>();
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+    private Segment active;
+    private long nextId = 0;
+    private long nextSequence = 0;
+    private int writesSinceSync = 0;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] headerScratch = new byte[CHECKED_HEADER_SIZE];
+
+    private Meter appended = null;
+    private Meter acknowledged = null;
+    private Meter syncs = null;
+
+    /**
+     * A queue with the default segment size, that leaves syncing to {@link #sync()} and the OS.
+     */
+    public JournaledBlockingQueue(ItemSerializer<T> serializer, File directory) throws IOException {
+        this(serializer, directory, DEFAULT_SEGMENT_SIZE, 0, DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * Creates a queue on this directory, and replays any unacknowledged items that a previous queue left there.
+     *
+     * @param segmentSize     the size of each journal file, in bytes.
+     * @param syncEvery       sync after this many records; 0 to leave it to {@link #sync()} and the OS.
+     * @param compactionRatio compact the oldest segment once less than this fraction of its items is still live.
+     * @throws IOException if we couldn't read the existing journal.
+     */
+    public JournaledBlockingQueue(ItemSerializer<T> serializer, File directory, int segmentSize, int syncEvery, double compactionRatio) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be > " + HEADER_SIZE + ", got " + segmentSize);
+        }
+        if (syncEvery < 0) {
+            throw new IllegalArgumentException("syncEvery must be >= 0, got " + syncEvery);
+        }
+        if (compactionRatio < 0.0 || compactionRatio > 1.0) {
+            throw new IllegalArgumentException("compactionRatio must be between 0 and 1, got " + compactionRatio);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create journal directory " + directory);
+        }
+        this.serializer = serializer;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncEvery = syncEvery;
+        this.compactionRatio = compactionRatio;
+        recover();
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Couldn't list journal directory " + directory);
+        }
+        SortedMap<Long, File> bySequence = new TreeMap<Long, File>();
+        for (File f : files) {
+            try {
+                bySequence.put(Long.parseLong(f.getName().substring(PREFIX.length(), f.getName().length() - SUFFIX.length())), f);
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring " + f + ", which doesn't look like one of our journal files");
+            }
+        }
+
+        // the last copy of an add wins (compaction may have left an older one behind).
+        SortedMap<Long, Entry<T>> adds = new TreeMap<Long, Entry<T>>();
+        Set<Long> acks = new HashSet<Long>();
+        for (Map.Entry<Long, File> f : bySequence.entrySet()) {
+            Segment s = mapSegment(f.getValue(), (int) f.getValue().length());
+            segments.add(s);
+            nextSequence = f.getKey() + 1;
+            int pos = 0;
+            int next;
+            while ((next = s.nextRecord(pos)) > 0) {
+                long id = s.buffer.getLong(pos + 5);
+                if (s.buffer.get(pos + 4) == ADD) {
+                    adds.put(id, new Entry<T>(id, null, s, pos));
+                    s.adds++;
+                } else {
+                    acks.add(id);
+                }
+                nextId = Math.max(nextId, id + 1);
+                pos = next;
+            }
+            if (pos < s.buffer.capacity() && s.buffer.get(pos) != 0) {
+                log.warn("Journal " + f.getValue() + " has a corrupt or incomplete record at " + pos + "; ignoring the rest of it");
+            }
+            s.writePos = pos;
+        }
+        for (Entry<T> e : adds.values()) {
+            if (!acks.contains(e.id)) {
+                e.item = serializer.fromBytes(e.segment.payload(e.offset));
+                e.segment.live++;
+                queued.add(e);
+                live.put(e.id, e);
+            }
+        }
+        if (!queued.isEmpty()) {
+            log.info("Replayed " + queued.size() + " unacknowledged items from " + directory);
+        }
+        roll(segmentSize);
+        deleteDeadSegments();
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        byte[] bytes;
+        try {
+            bytes = serializer.toBytes(item);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't serialize " + item, e);
+        }
+        Entry<T> e = new Entry<T>(nextId++, item, null, 0);
+        append(ADD, e, bytes);
+        queued.add(e);
+        live.put(e.id, e);
+        return true;
+    }
+
+    /**
+     * Append a record to the active segment (rolling over to a new one if need be). For adds, records where it was put
+     * in e.
+     */
+    private void append(byte type, Entry<T> e, byte[] payload) {
+        int size = HEADER_SIZE + payload.length;
+        if (active.buffer.capacity() - active.writePos < size) {
+            if (syncEvery > 0) {
+                active.buffer.force();
+            }
+            roll(Math.max(segmentSize, size));
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int pos = active.writePos;
+        ByteBuffer.wrap(headerScratch).put(type).putLong(e.id).putInt(payload.length);
+        crc.reset();
+        crc.update(headerScratch);
+        crc.update(payload);
+        buffer.position(pos + 4);
+        buffer.put(headerScratch);
+        buffer.put(payload);
+        // the checksum goes in last; until it does, this record doesn't count.
+        buffer.putInt(pos, (int) crc.getValue());
+        active.writePos += size;
+        active.dirty = true;
+        if (type == ADD) {
+            e.segment = active;
+            e.offset = pos;
+            active.adds++;
+            active.live++;
+        }
+        if (appended != null) {
+            appended.mark();
+        }
+        if (syncEvery > 0 && ++writesSinceSync >= syncEvery) {
+            active.buffer.force();
+            active.dirty = false;
+            writesSinceSync = 0;
+        }
+    }
+
+    private void roll(int size) {
+        File file = new File(directory, String.format("%s%020d%s", PREFIX, nextSequence, SUFFIX));
+        try {
+            active = mapSegment(file, size);
+            nextSequence++;
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't create journal segment " + file, e);
+        }
+        segments.add(active);
+    }
+
+    private Segment mapSegment(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // the mapping stays valid after the file is closed.
+            return new Segment(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    protected T head() {
+        Entry<T> e = queued.peek();
+        return e == null ? null : e.item;
+    }
+
+    @Override
+    protected T dequeue() {
+        Entry<T> e = queued.poll();
+        unacknowledged.put(e.item, e);
+        return e.item;
+    }
+
+    @Override
+    protected int count() {
+        return queued.size();
+    }
+
+    /**
+     * Cancels everything that's queued: like remove(Object), the items are acknowledged straight away, since they'll
+     * never run. Items that were already taken still wait for their own acknowledgements.
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            while (!queued.isEmpty()) {
+                ack(queued.poll());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (Iterator<Entry<T>> it = queued.iterator(); it.hasNext(); ) {
+            Entry<T> e = it.next();
+            if (matches(o, e.item, claim)) {
+                it.remove();
+                if (claim) {
+                    // taken to run, just as if it had been at the head.
+                    unacknowledged.put(e.item, e);
+                } else {
+                    ack(e);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<T> l = new ArrayList<T>(queued.size());
+        for (Entry<T> e : queued) {
+            l.add(e.item);
+        }
+        return l;
+    }
+
+    @Override
+    public void taskCompleted(Object task) {
+        acknowledge(task);
+    }
+
+    /**
+     * Record that this item (as handed out by this queue) has been dealt with, so that it won't be replayed.
+     *
+     * @return false if it wasn't one of our unacknowledged items.
+     */
+    public boolean acknowledge(Object item) {
+        lock.lock();
+        try {
+            Entry<T> e = unacknowledged.remove(item);
+            if (e == null) {
+                return false;
+            }
+            ack(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ack(Entry<T> e) {
+        append(ACK, e, NO_PAYLOAD);
+        live.remove(e.id);
+        e.segment.live--;
+        if (acknowledged != null) {
+            acknowledged.mark();
+        }
+        deleteDeadSegments();
+    }
+
+    /**
+     * Delete segments from the front of the journal for as long as they have no live items. We only ever delete the
+     * oldest segment: an acknowledgement is always written after its add, so the oldest segment's acknowledgements can
+     * only refer to adds that are in it, or that are already gone.
+     */
+    private void deleteDeadSegments() {
+        while (segments.peek() != active && segments.peek().live == 0) {
+            delete(segments.poll());
+        }
+    }
+
+    private void delete(Segment s) {
+        if (!s.file.delete()) {
+            log.warn("Couldn't delete journal segment " + s.file);
+        }
+    }
+
+    /**
+     * If only a few of the oldest segment's items are still live, copy them to the end of the journal and delete the
+     * segment. Repeats until the oldest segment is worth keeping.
+     */
+    public void compact() {
+        lock.lock();
+        try {
+            deleteDeadSegments();
+            Segment oldest;
+            while ((oldest = segments.peek()) != active && oldest.live <= compactionRatio * oldest.adds) {
+                int pos = 0;
+                int next;
+                while ((next = oldest.nextRecord(pos)) > 0) {
+                    if (oldest.buffer.get(pos + 4) == ADD) {
+                        Entry<T> e = live.get(oldest.buffer.getLong(pos + 5));
+                        if (e != null && e.segment == oldest) {
+                            append(ADD, e, oldest.payload(pos));
+                            oldest.live--;
+                        }
+                    }
+                    pos = next;
+                }
+                // the copies have to be on disk before the originals go.
+                active.buffer.force();
+                segments.poll();
+                delete(oldest);
+                if (log.isDebugEnabled()) {
+                    log.debug("Compacted journal segment " + oldest.file);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make sure everything written so far is on disk. The syncing itself happens without our lock held, so producers
+     * and consumers can carry on meanwhile.
+     */
+    public void sync() {
+        List<Segment> dirty = new ArrayList<Segment>();
+        lock.lock();
+        try {
+            for (Segment s : segments) {
+                if (s.dirty) {
+                    s.dirty = false;
+                    dirty.add(s);
+                }
+            }
+            writesSinceSync = 0;
+        } finally {
+            lock.unlock();
+        }
+        for (Segment s : dirty) {
+            s.buffer.force();
+        }
+        if (syncs != null && !dirty.isEmpty()) {
+            syncs.mark();
+        }
+    }
+
+    /**
+     * Sync and compact; intended to be run periodically by a scheduled executor.
+     */
+    @Override
+    public void run() {
+        try {
+            sync();
+            compact();
+        } catch (RuntimeException e) {
+            log.error("Error syncing or compacting journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Syncs the journal. The journal stays where it is, for the next queue on this directory.
+     */
+    @Override
+    public void close() {
+        sync();
+    }
+
+    /**
+     * @return how many items have been taken from the queue, but not acknowledged yet.
+     */
+    public int getUnacknowledgedCount() {
+        lock.lock();
+        try {
+            return unacknowledged.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many journal files we currently have.
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        appended = metricsRegistry.newMeter(new MetricName(JournaledBlockingQueue.class, name, "appended"), "record", TimeUnit.SECONDS);
+        acknowledged = metricsRegistry.newMeter(new MetricName(JournaledBlockingQueue.class, name, "acknowledged"), "item", TimeUnit.SECONDS);
+        syncs = metricsRegistry.newMeter(new MetricName(JournaledBlockingQueue.class, name, "synced"), "sync", TimeUnit.SECONDS);
+        metricsRegistry.newGauge(new MetricName(JournaledBlockingQueue.class, name, "unacknowledged"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getUnacknowledgedCount();
+            }
+        });
+        metricsRegistry.newGauge(new MetricName(JournaledBlockingQueue.class, name, "segments"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getSegmentCount();
+            }
+        });
+    }
+
+    private static class Entry<T> {
+        final long id;
+        T item;
+        // where its add record is.
+        Segment segment;
+        int offset;
+
+        Entry(long id, T item, Segment segment, int offset) {
+            this.id = id;
+            this.item = item;
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int writePos = 0;
+        // how many add records it has, and how many of those are still live.
+        int adds = 0;
+        int live = 0;
+        volatile boolean dirty = false;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the position of the record after the one at pos, or -1 if there's no valid record at pos.
+         */
+        int nextRecord(int pos) {
+            if (pos + HEADER_SIZE > buffer.capacity()) {
+                return -1;
+            }
+            byte type = buffer.get(pos + 4);
+            if (type != ADD && type != ACK) {
+                return -1;
+            }
+            int length = buffer.getInt(pos + 13);
+            if (length < 0 || length > buffer.capacity() - pos - HEADER_SIZE) {
+                return -1;
+            }
+            byte[] checked = new byte[CHECKED_HEADER_SIZE + length];
+            buffer.position(pos + 4);
+            buffer.get(checked);
+            CRC32 crc = new CRC32();
+            crc.update(checked);
+            if ((int) crc.getValue() != buffer.getInt(pos)) {
+                return -1;
+            }
+            return pos + HEADER_SIZE + length;
+        }
+
+        byte[] payload(int pos) {
+            byte[] bytes = new byte[buffer.getInt(pos + 13)];
+            buffer.position(pos + HEADER_SIZE);
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+}
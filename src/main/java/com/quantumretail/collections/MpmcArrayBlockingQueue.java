@@ -0,0 +1,307 @@
+package com.quantumretail.collections;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, array-backed queue for many producers and many consumers (Dmitry Vyukov's bounded MPMC queue)
+ * that supports {@link #pollIf(Object)}. As a delegate, it lets a strict ResourceConstrainingQueue skip its takeLock,
+ * without a lock of its own or a node allocated per item.
+ * <p/>
+ *
+ * Every slot has a sequence number that says whose turn it is: the producer that claimed position p may fill it when
+ * its sequence is p, and the consumer that claimed p may empty it when it's p + 1. Producers and consumers claim
+ * positions with a CAS on their own counter, so apart from that CAS, they don't interfere with each other. The two
+ * counters are padded so that they don't share a cache line.
+ * <p/>
+ *
+ * Peeking doesn't claim anything: we read the head slot, then check that the head hasn't moved meanwhile. pollIf() then
+ * claims that same position only if the head still hasn't moved, which is the conditional claim that
+ * ResourceConstrainingQueue's peek-decide-remove needs.
+ * <p/>
+ *
+ * remove(Object) replaces the item in its slot with a marker, which consumers skip over when they get to it; until
+ * then, the slot still counts against the capacity. Iterators work on a snapshot taken when the iterator is created.
+ * size() may be momentarily off while concurrent operations are in progress.
+ * <p/>
+ *
+ * The capacity is rounded up to a power of two (and at least 2).
+ */
+public class MpmcArrayBlockingQueue<T> extends AbstractLockFreeBlockingQueue<T> implements ConditionallyRemovableQueue<T> {
+
+    // stands in for an item that was removed from the middle of the queue.
+    private static final Object REMOVED = new Object();
+    // returned by itemAt() when the queue is empty.
+    private static final Object EMPTY = new Object();
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Object> items;
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong enqueuePos = new PaddedAtomicLong();
+    private final PaddedAtomicLong dequeuePos = new PaddedAtomicLong();
+    private final AtomicInteger removed = new AtomicInteger();
+
+    public MpmcArrayBlockingQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30, got " + capacity);
+        }
+        // one slot isn't enough: "full" and "free for the next lap" would look the same.
+        int c = 2;
+        while (c < capacity) {
+            c <<= 1;
+        }
+        this.capacity = c;
+        this.mask = c - 1;
+        this.items = new AtomicReferenceArray<Object>(c);
+        this.sequences = new AtomicLongArray(c);
+        for (int i = 0; i < c; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    protected boolean doOffer(T item) {
+        long pos = enqueuePos.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(index, item);
+                    // publishes the item to consumers.
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = enqueuePos.get();
+            } else if (dif < 0) {
+                // the consumer from the last lap hasn't emptied it yet: we're full.
+                return false;
+            } else {
+                // somebody else filled that position; try the next one.
+                pos = enqueuePos.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T doPoll() {
+        long pos = dequeuePos.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    Object item = release(pos);
+                    if (item != REMOVED) {
+                        return (T) item;
+                    }
+                    discarded();
+                }
+                pos = dequeuePos.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = dequeuePos.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T doPeek() {
+        while (true) {
+            long pos = dequeuePos.get();
+            Object item = itemAt(pos);
+            if (item == EMPTY) {
+                return null;
+            }
+            if (item != null) {
+                return (T) item;
+            }
+        }
+    }
+
+    @Override
+    public T pollIf(T expectedHead) {
+        if (expectedHead == null) {
+            return null;
+        }
+        while (true) {
+            long pos = dequeuePos.get();
+            Object item = itemAt(pos);
+            if (item == null) {
+                continue;
+            }
+            if (item != expectedHead) {
+                return null;
+            }
+            if (!dequeuePos.compareAndSet(pos, pos + 1)) {
+                // somebody else took it.
+                return null;
+            }
+            if (release(pos) == REMOVED) {
+                // ...or removed it from under us.
+                discarded();
+                return null;
+            }
+            signalNotFull();
+            return expectedHead;
+        }
+    }
+
+    /**
+     * Read the item at pos, if pos is the head. Clears a removed item out of the way if it finds one.
+     *
+     * @return the item, EMPTY if there's nothing at pos yet, or null if we should look again (because the head moved).
+     */
+    private Object itemAt(long pos) {
+        int index = (int) pos & mask;
+        long dif = sequences.get(index) - (pos + 1);
+        if (dif < 0) {
+            return EMPTY;
+        }
+        if (dif > 0) {
+            return null;
+        }
+        Object item = items.get(index);
+        if (dequeuePos.get() != pos) {
+            return null;
+        }
+        if (item == REMOVED) {
+            if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                release(pos);
+                discarded();
+            }
+            return null;
+        }
+        return item;
+    }
+
+    /**
+     * Empty the slot at pos, which the caller has claimed, and hand it over to the producer on the next lap.
+     *
+     * @return what was in it.
+     */
+    private Object release(long pos) {
+        int index = (int) pos & mask;
+        // getAndSet, so that we and remove(Object) can't both have it.
+        Object item = items.getAndSet(index, null);
+        sequences.lazySet(index, pos + mask + 1);
+        return item;
+    }
+
+    /**
+     * Called when a consumer skips over a removed item.
+     */
+    private void discarded() {
+        removed.decrementAndGet();
+        signalNotFull();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o != null && removeMatching(o, false);
+    }
+
+    /**
+     * Like remove(Object), but only for item itself. Its slot counts against the capacity until the consumers get to
+     * it, just the same.
+     */
+    @Override
+    public boolean claimIfPresent(T item) {
+        return item != null && removeMatching(item, true);
+    }
+
+    private boolean removeMatching(Object o, boolean identity) {
+        long end = enqueuePos.get();
+        for (long pos = dequeuePos.get(); pos < end; pos++) {
+            int index = (int) pos & mask;
+            if (sequences.get(index) != pos + 1) {
+                // not filled yet, or already taken
+                continue;
+            }
+            Object item = items.get(index);
+            if (item != null && item != REMOVED && (identity ? o == item : o.equals(item))
+                    && items.compareAndSet(index, item, REMOVED)) {
+                removed.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        long size = enqueuePos.get() - dequeuePos.get() - removed.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return doPeek() == null;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<T> iterator() {
+        List<T> snapshot = new ArrayList<T>();
+        long end = enqueuePos.get();
+        for (long pos = dequeuePos.get(); pos < end; pos++) {
+            int index = (int) pos & mask;
+            if (sequences.get(index) != pos + 1) {
+                continue;
+            }
+            Object item = items.get(index);
+            // make sure it wasn't taken while we were reading it.
+            if (item != null && item != REMOVED && sequences.get(index) == pos + 1) {
+                snapshot.add((T) item);
+            }
+        }
+        final Iterator<T> it = snapshot.iterator();
+        return new Iterator<T>() {
+            T last = null;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public T next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                MpmcArrayBlockingQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * An AtomicLong that takes up a cache line to itself (as long as the JVM lays out subclass fields after superclass
+     * fields, which HotSpot does), so that producers and consumers don't slow each other down by writing to different
+     * counters on the same line.
+     */
+    @SuppressWarnings({"unused", "serial"})
+    static final class PaddedAtomicLong extends AtomicLong {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
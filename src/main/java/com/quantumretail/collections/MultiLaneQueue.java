@@ -0,0 +1,291 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.rcq.predictor.LoadAware;
+import com.quantumretail.rcq.predictor.LoadPredictor;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An unbounded queue that sorts items into lanes by their dominant resource -- the resource they're predicted to use
+ * the largest share of -- and hands them out from the lanes in turn. Items that declare their own load (by implementing
+ * {@link LoadAware}) are sorted by that; otherwise we ask the LoadPredictor. Items that don't predominantly use any of
+ * our lanes' resources go into the {@link #DEFAULT_LANE}.
+ * <p/>
+ *
+ * On its own, this just keeps a burst of one kind of work from getting in front of everything else. Used as the
+ * delegate of a {@link ResourceConstrainingQueue} with a lookahead window as wide as the number of lanes, the queue
+ * can pick whichever lane's head best fits the resources we have left, which packs complementary work together; see
+ * {@link ResourceConstrainingQueues#multiLaneQueue(java.util.Map, String...)}. Our iterator takes one item from each
+ * lane in turn, so the lookahead window sees every lane's head. The ResourceConstrainingQueue doesn't count taking
+ * another lane's head against the head's maxHeadBypasses, so a lane whose head we don't have resources for doesn't
+ * stall the others, however long it's blocked.
+ * <p/>
+ *
+ * The lanes themselves are available through {@link #getLane(String)}, so each can also feed an executor of its own.
+ * Items offered directly to a lane will wake up consumers waiting on this queue, but <em>not</em> consumers waiting in
+ * a ResourceConstrainingQueue in front of it, which only hears about items offered through itself; those find the
+ * item the next time their WaitStrategy has them look.
+ * <p/>
+ *
+ * {@link #pollIf(Object)} removes the item if it's still at the head of <em>its lane</em>, not necessarily at the head
+ * of the queue as a whole, since another consumer may have moved us on to the next lane in the meantime.
+ */
+public class MultiLaneQueue<T> extends AbstractLockFreeBlockingQueue<T> implements ConditionallyRemovableQueue<T> {
+
+    public static final String DEFAULT_LANE = "DEFAULT";
+
+    private final LoadPredictor loadPredictor;
+    private final String[] laneNames;
+    private final List<Lane> lanes;
+    private final Map<String, BlockingQueue<T>> lanesByName;
+    // the lane we'll try first next time.
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    /**
+     * @param loadPredictor used for items that don't implement LoadAware. May be null, in which case those items all
+     *                      go into the default lane.
+     * @param resources     the resources to have lanes for; for example, {@link com.quantumretail.resourcemon.ResourceMonitor#CPU}
+     *                      and {@link com.quantumretail.resourcemon.ResourceMonitor#HEAP_MEM}. We'll add a default lane.
+     */
+    public MultiLaneQueue(LoadPredictor loadPredictor, String... resources) {
+        this.loadPredictor = loadPredictor;
+        this.laneNames = new String[resources.length + 1];
+        this.lanes = new ArrayList<Lane>(resources.length + 1);
+        Map<String, BlockingQueue<T>> byName = new LinkedHashMap<String, BlockingQueue<T>>();
+        for (int i = 0; i <= resources.length; i++) {
+            String name = (i < resources.length) ? resources[i] : DEFAULT_LANE;
+            if (byName.containsKey(name)) {
+                throw new IllegalArgumentException("Duplicate lane " + name);
+            }
+            laneNames[i] = name;
+            Lane lane = new Lane();
+            lanes.add(lane);
+            byName.put(name, lane);
+        }
+        this.lanesByName = Collections.unmodifiableMap(byName);
+    }
+
+    /**
+     * Offering to a lane directly doesn't wake consumers of a ResourceConstrainingQueue in front of us; see above.
+     *
+     * @return the lane for this resource (or {@link #DEFAULT_LANE}), or null if we don't have one.
+     */
+    public BlockingQueue<T> getLane(String resource) {
+        return lanesByName.get(resource);
+    }
+
+    /**
+     * @return the names of our lanes, in the order we take from them.
+     */
+    public List<String> getLaneNames() {
+        return Collections.unmodifiableList(Arrays.asList(laneNames));
+    }
+
+    /**
+     * @return true if item is at the head of one of our lanes.
+     */
+    public boolean isLaneHead(T item) {
+        for (Lane lane : lanes) {
+            if (lane.peek() == item) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the name of the lane this item would go into.
+     */
+    public String laneFor(T item) {
+        return laneNames[laneIndexFor(item)];
+    }
+
+    private int laneIndexFor(T item) {
+        Map<String, Double> load;
+        if (item instanceof LoadAware) {
+            load = ((LoadAware) item).load();
+        } else if (loadPredictor != null) {
+            load = loadPredictor.predictLoad(item);
+        } else {
+            load = null;
+        }
+        int best = lanes.size() - 1;
+        if (load == null) {
+            return best;
+        }
+        double bestLoad = 0.0;
+        for (int i = 0; i < lanes.size() - 1; i++) {
+            Double l = load.get(laneNames[i]);
+            if (l != null && l > bestLoad) {
+                best = i;
+                bestLoad = l;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    protected boolean doOffer(T item) {
+        // the lane will signal our waiting consumers as well as its own.
+        return lanes.get(laneIndexFor(item)).offer(item);
+    }
+
+    @Override
+    public boolean offer(T t) {
+        if (t == null) {
+            throw new NullPointerException();
+        }
+        return doOffer(t);
+    }
+
+    @Override
+    protected T doPoll() {
+        int start = nextLane.get();
+        for (int i = 0; i < lanes.size(); i++) {
+            int idx = (start + i) % lanes.size();
+            T item = lanes.get(idx).poll();
+            if (item != null) {
+                nextLane.set((idx + 1) % lanes.size());
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected T doPeek() {
+        int start = nextLane.get();
+        for (int i = 0; i < lanes.size(); i++) {
+            T item = lanes.get((start + i) % lanes.size()).peek();
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public T pollIf(T expectedHead) {
+        if (expectedHead == null) {
+            return null;
+        }
+        int start = nextLane.get();
+        for (int i = 0; i < lanes.size(); i++) {
+            int idx = (start + i) % lanes.size();
+            if (lanes.get(idx).peek() == expectedHead) {
+                T item = lanes.get(idx).pollIf(expectedHead);
+                if (item != null) {
+                    nextLane.set((idx + 1) % lanes.size());
+                }
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for (Lane lane : lanes) {
+            if (lane.remove(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean claimIfPresent(T item) {
+        for (Lane lane : lanes) {
+            if (lane.claimIfPresent(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Lane lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Lane lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes one item from each lane in turn, starting with the lane we'd take from next. Weakly consistent, like the
+     * lanes' own iterators.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements Iterator<T> {
+        private final List<Iterator<T>> its = new ArrayList<Iterator<T>>(lanes.size());
+        private int current = 0;
+        private Iterator<T> lastIt = null;
+
+        Itr() {
+            int start = nextLane.get();
+            for (int i = 0; i < lanes.size(); i++) {
+                its.add(lanes.get((start + i) % lanes.size()).iterator());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (Iterator<T> it : its) {
+                if (it.hasNext()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public T next() {
+            for (int i = 0; i < its.size(); i++) {
+                Iterator<T> it = its.get(current);
+                current = (current + 1) % its.size();
+                if (it.hasNext()) {
+                    lastIt = it;
+                    return it.next();
+                }
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            if (lastIt == null) {
+                throw new IllegalStateException();
+            }
+            lastIt.remove();
+            lastIt = null;
+        }
+    }
+
+    private class Lane extends ConditionalLinkedBlockingQueue<T> {
+        @Override
+        protected boolean doOffer(T item) {
+            if (super.doOffer(item)) {
+                MultiLaneQueue.this.signalNotEmpty();
+                return true;
+            }
+            return false;
+        }
+    }
+}
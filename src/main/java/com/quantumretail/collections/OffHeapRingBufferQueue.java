@@ -0,0 +1,196 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded FIFO queue that stores its items off the heap, as flat records in a ring of fixed-size slots in a direct
+ * ByteBuffer. Items are written into a slot by a {@link SlotCodec} when they're added, and only turned back into
+ * objects when they reach the head of the queue. For high rates of small tasks, that means a queued item costs no heap
+ * at all, and no garbage: no linked list nodes, and no task objects sitting around long enough to be promoted.
+ * <p/>
+ *
+ * Used as the delegate of a {@link ResourceConstrainingQueue}, the head item is decoded once, when the
+ * ConstraintStrategy first looks at it, and that same instance is handed out if it's admitted. So what the queue holds
+ * are descriptors, and it's up to the codec to produce something runnable from them.
+ * <p/>
+ *
+ * remove(Object), contains() and iteration decode every queued item, so they're slow. Iteration keeps the instances it
+ * decoded until they're taken, so that the ResourceConstrainingQueue's lookahead can claim the very instance it looked
+ * at (see {@link #claimIfPresent(Object)}); that pins those items on the heap in the meantime, up to one per slot. Once
+ * metrics are registered, we also time the codec, which isn't free either.
+ */
+public class OffHeapRingBufferQueue<T> extends AbstractLockingBlockingQueue<T> implements MetricsAware {
+
+    private final SlotCodec<T> codec;
+    private final int capacity;
+    private final int slotSize;
+    private final ByteBuffer slots;
+
+    // the slot index of the head, and how many slots are in use.
+    private int headIndex = 0;
+    private int count = 0;
+    // items that have been decoded and may be handed out, by slot index: the head, and anything iteration has seen.
+    private final Object[] decoded;
+
+    private Histogram encodeTimes = null;
+    private Histogram decodeTimes = null;
+
+    /**
+     * @param capacity the number of slots. The queue takes up capacity * codec.slotSize() bytes of direct memory.
+     */
+    public OffHeapRingBufferQueue(SlotCodec<T> codec, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0, got " + capacity);
+        }
+        if (codec.slotSize() <= 0) {
+            throw new IllegalArgumentException("slotSize must be > 0, got " + codec.slotSize());
+        }
+        if ((long) capacity * codec.slotSize() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity * slotSize must fit in a ByteBuffer (< 2GB)");
+        }
+        this.codec = codec;
+        this.capacity = capacity;
+        this.slotSize = codec.slotSize();
+        this.slots = ByteBuffer.allocateDirect(capacity * slotSize);
+        this.decoded = new Object[capacity];
+    }
+
+    /**
+     * Set the buffer's position and limit to the slot at this index.
+     */
+    private ByteBuffer slot(int index) {
+        int offset = (index % capacity) * slotSize;
+        slots.limit(offset + slotSize);
+        slots.position(offset);
+        return slots;
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        if (count == capacity) {
+            return false;
+        }
+        ByteBuffer slot = slot(headIndex + count);
+        if (encodeTimes == null) {
+            codec.encode(item, slot);
+        } else {
+            long start = System.nanoTime();
+            codec.encode(item, slot);
+            encodeTimes.update(System.nanoTime() - start);
+        }
+        count++;
+        return true;
+    }
+
+    private T decode(int index) {
+        ByteBuffer slot = slot(index);
+        if (decodeTimes == null) {
+            return codec.decode(slot);
+        }
+        long start = System.nanoTime();
+        T item = codec.decode(slot);
+        decodeTimes.update(System.nanoTime() - start);
+        return item;
+    }
+
+    /**
+     * @param i    position in the queue; 0 is the head.
+     * @param keep whether to hang on to the decoded instance, if it wasn't already, because we might hand it out.
+     */
+    @SuppressWarnings("unchecked")
+    private T item(int i, boolean keep) {
+        int index = (headIndex + i) % capacity;
+        T item = (T) decoded[index];
+        if (item == null) {
+            item = decode(index);
+            if (keep) {
+                decoded[index] = item;
+            }
+        }
+        return item;
+    }
+
+    @Override
+    protected T head() {
+        return (count > 0) ? item(0, true) : null;
+    }
+
+    @Override
+    protected T dequeue() {
+        T item = head();
+        decoded[headIndex] = null;
+        headIndex = (headIndex + 1) % capacity;
+        count--;
+        return item;
+    }
+
+    @Override
+    protected int count() {
+        return count;
+    }
+
+    @Override
+    protected int remaining() {
+        return capacity - count;
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (int i = 0; i < count; i++) {
+            // we can only have handed out instances we kept, so a claim needn't decode anything.
+            Object item = claim ? decoded[(headIndex + i) % capacity] : item(i, false);
+            if (item != null && matches(o, item, claim)) {
+                // close the gap by moving everything behind it up a slot.
+                slots.clear();
+                for (int j = i; j < count - 1; j++) {
+                    int from = (headIndex + j + 1) % capacity;
+                    int to = (headIndex + j) % capacity;
+                    for (int b = 0; b < slotSize; b++) {
+                        slots.put(to * slotSize + b, slots.get(from * slotSize + b));
+                    }
+                    decoded[to] = decoded[from];
+                }
+                decoded[(headIndex + count - 1) % capacity] = null;
+                count--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<T> l = new ArrayList<T>(count);
+        for (int i = 0; i < count; i++) {
+            l.add(item(i, true));
+        }
+        return l;
+    }
+
+    /**
+     * @return the fraction of slots in use.
+     */
+    public double getOccupancy() {
+        return size() / (double) capacity;
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        encodeTimes = metricsRegistry.newHistogram(new MetricName(OffHeapRingBufferQueue.class, name, "encode-ns"), true);
+        decodeTimes = metricsRegistry.newHistogram(new MetricName(OffHeapRingBufferQueue.class, name, "decode-ns"), true);
+        metricsRegistry.newGauge(new MetricName(OffHeapRingBufferQueue.class, name, "occupancy"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getOccupancy();
+            }
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package com.quantumretail.collections;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks the consumer for an exponentially increasing amount of time: minPark on the first attempt, doubling on each
+ * consecutive attempt up to maxPark. A consumer that has just missed out checks again quickly, while one that has been
+ * idle for a long time backs off to waking up only every maxPark. That makes it a good fit for boxes with many mostly
+ * idle queues.
+ */
+public class ParkingBackoffWaitStrategy implements WaitStrategy {
+
+    final long minParkNanos;
+    final long maxParkNanos;
+
+    public ParkingBackoffWaitStrategy(long minPark, long maxPark, TimeUnit unit) {
+        if (minPark <= 0 || maxPark < minPark) {
+            throw new IllegalArgumentException("Need 0 < minPark <= maxPark, but got " + minPark + " and " + maxPark);
+        }
+        this.minParkNanos = unit.toNanos(minPark);
+        this.maxParkNanos = unit.toNanos(maxPark);
+    }
+
+    @Override
+    public long prepareToWait() {
+        return 0;
+    }
+
+    @Override
+    public void await(long token, int attempt, long maxWaitNanos) throws InterruptedException {
+        long nanos = Math.min(backoffNanos(attempt), maxWaitNanos);
+        if (nanos > 0) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    long backoffNanos(int attempt) {
+        int shift = Math.max(attempt - 1, 0);
+        if (shift >= Long.numberOfLeadingZeros(minParkNanos) - 1) {
+            // shifting any further would overflow; we'd have hit maxParkNanos long before then anyway.
+            return maxParkNanos;
+        }
+        return Math.min(minParkNanos << shift, maxParkNanos);
+    }
+
+    @Override
+    public void signal(boolean all) {
+        // we don't keep track of who is parked; they'll wake up on their own within maxPark.
+    }
+}
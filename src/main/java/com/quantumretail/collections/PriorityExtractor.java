@@ -0,0 +1,13 @@
+package com.quantumretail.collections;
+
+/**
+ * Works out an item's priority. See {@link AgingPriorityBlockingQueue}.
+ */
+public interface PriorityExtractor<T> {
+
+    /**
+     * @return the item's priority: 0 is the most urgent, and larger numbers are less urgent.
+     */
+    int priorityOf(T item);
+
+}
@@ -1,8 +1,14 @@
 package com.quantumretail.collections;
 
 import com.quantumretail.MetricsAware;
+import com.quantumretail.constraint.BatchAdmission;
+import com.quantumretail.constraint.BatchConstraintStrategy;
 import com.quantumretail.constraint.ConstraintStrategies;
 import com.quantumretail.constraint.ConstraintStrategy;
+import com.quantumretail.constraint.CreditPoolConstraintStrategy;
+import com.quantumretail.constraint.FitScoringConstraintStrategy;
+import com.quantumretail.rcq.predictor.NotifyingTaskTracker;
+import com.quantumretail.rcq.predictor.TaskCompletionListener;
 import com.quantumretail.rcq.predictor.TaskTracker;
 import com.quantumretail.rcq.predictor.TaskTrackers;
 import com.yammer.metrics.core.*;
@@ -10,8 +16,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -22,7 +30,27 @@ import java.util.concurrent.locks.ReentrantLock;
  * <p/>
  *
  * If strict = true, we'll use blocking in remove(), poll() and take(). Otherwise, we'll use a non-blocking (but
- * slightly less accurate) behavior.
+ * slightly less accurate) behavior. If the delegate is a {@link ConditionallyRemovableQueue}, we can be strict
+ * without blocking: we only remove the item we decided on if it's still at the head of the delegate, and decide again
+ * if it isn't. That's a weaker guarantee than the lock gives, though. Without the delegate's help, strict means
+ * admission is serialized: each consumer decides, takes and registers its item with the TaskTracker before the next
+ * one looks. With a ConditionallyRemovableQueue, strict only means no item is ever handed out twice. Two consumers can
+ * both approve their items against the same load, before either has registered, and both get through where the
+ * second would otherwise have been refused. If that overshoot matters, wrap the delegate so that it isn't a
+ * ConditionallyRemovableQueue.
+ * <p/>
+ *
+ * How a consumer waits when it can't take anything is up to the {@link WaitStrategy}. By default, it re-checks for
+ * resources every retryFrequencyMS. With a {@link BlockingWaitStrategy} (see {@link #setSignalling(boolean)}), it
+ * instead waits until something happens that might let it proceed: an item is added to the queue, a task tracked by a
+ * {@link NotifyingTaskTracker} completes, or someone calls {@link #signalConsumers()} (for example, because they
+ * noticed that load dropped). Other strategies trade CPU for latency; see {@link WaitStrategies}.
+ * <p/>
+ *
+ * By default we never reorder: if we don't have resources for the item at the head of the queue, nobody gets anything.
+ * With a lookahead window (see {@link #setLookahead(int, LookaheadMode)}), we'll instead look at the next few items for
+ * one we do have resources for. To keep a big item at the head from starving, it can only be passed over
+ * {@link #setMaxHeadBypasses(int) a limited number of times}; after that, everyone waits for it.
  */
 public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAware {
     private static final Logger log = LoggerFactory.getLogger(ResourceConstrainingQueue.class);
@@ -36,8 +64,28 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
     protected static final long DEFAULT_POLL_FREQ = 100L;
     //the default will try for 10 mins  (default poll freq = 100L)
     protected static final long DEFAULT_CONSTRAINED_ITEM_THRESHOLD = (10 * 60 * 1000) / DEFAULT_POLL_FREQ;
+    protected static final int DEFAULT_MAX_HEAD_BYPASSES = 100;
+
+    /**
+     * How we pick an item from the lookahead window when we don't have resources for the head of the queue.
+     */
+    public enum LookaheadMode {
+        /**
+         * The first item in the window that we have resources for.
+         */
+        FIRST_FIT,
+        /**
+         * The item in the window that best fits the resources we have left, if the ConstraintStrategy is a
+         * {@link FitScoringConstraintStrategy}. Otherwise, the same as FIRST_FIT.
+         */
+        BEST_FIT
+    }
 
     final BlockingQueue<T> delegate;
+    // the same as delegate if it supports conditional removal; otherwise null.
+    final ConditionallyRemovableQueue<T> conditionalDelegate;
+    // if the delegate keeps independent lanes, taking another lane's head doesn't make our head wait any longer.
+    final MultiLaneQueue<T> laneDelegate;
     long retryFrequencyMS = DEFAULT_POLL_FREQ;
     long constrainedItemThreshold = DEFAULT_CONSTRAINED_ITEM_THRESHOLD;
 
@@ -50,11 +98,32 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
     private Meter additions = null;
     private Counter pendingItems = null;
     private Meter sleeps = null;
+    private Timer admissionLatency = null;
+    private Meter timeouts = null;
+    private Meter bypasses = null;
 
     final private boolean strict;
     // this is the lock we'll use if strict = true.
     Lock takeLock = new ReentrantLock();
 
+    private volatile WaitStrategy waitStrategy;
+
+    // a window of 1 means we only ever look at the head, i.e. strict FIFO.
+    private volatile int lookaheadWindow = 1;
+    private volatile LookaheadMode lookaheadMode = LookaheadMode.FIRST_FIT;
+    private volatile int maxHeadBypasses = DEFAULT_MAX_HEAD_BYPASSES;
+    // the head item we last passed over, and how many times in a row we've done it. Guarded by bypassLock.
+    private final Object bypassLock = new Object();
+    private Object bypassedHead = null;
+    private int headBypasses = 0;
+    private boolean listeningForCompletions = false;
+    final TaskCompletionListener completionSignaller = new TaskCompletionListener() {
+        @Override
+        public void taskCompleted(Object task) {
+            signalConsumers();
+        }
+    };
+
     /**
      * Build a ResourceConstrainingQueue using all default options.
      * If you want to override some defaults, but not all, use the ResourceConstrainingQueueBuilder; it's much easier.
@@ -79,12 +148,15 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
     public ResourceConstrainingQueue(BlockingQueue<T> delegate, ConstraintStrategy<T> constraintStrategy, long retryFrequencyMS, boolean strict, TaskTracker<T> taskTracker, long constrainedItemThreshold) {
 
         this.delegate = delegate;
+        this.conditionalDelegate = (delegate instanceof ConditionallyRemovableQueue) ? (ConditionallyRemovableQueue<T>) delegate : null;
+        this.laneDelegate = (delegate instanceof MultiLaneQueue) ? (MultiLaneQueue<T>) delegate : null;
         this.retryFrequencyMS = retryFrequencyMS;
         this.constraintStrategy = constraintStrategy;
         this.taskTracker = taskTracker;
         this.strict = strict;
         this.constrainedItemThreshold = constrainedItemThreshold;
         this.taskAttemptCounter = new TaskAttemptCounter();
+        this.waitStrategy = new SleepingWaitStrategy(retryFrequencyMS);
     }
 
     protected T trackIfNecessary(T item) {
@@ -106,7 +178,7 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
 
     public boolean add(T t) {
         markAddition();
-        return delegate.add(t);
+        return signalIfAdded(delegate.add(t));
     }
 
     private void markAddition() {
@@ -120,7 +192,14 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
 
     public boolean offer(T t) {
         markAddition();
-        return delegate.offer(t);
+        return signalIfAdded(delegate.offer(t));
+    }
+
+    private boolean signalIfAdded(boolean added) {
+        if (added) {
+            waitStrategy.signal(false);
+        }
+        return added;
     }
 
     /**
@@ -136,35 +215,184 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
      * We could fix this by doing something more accurate here, but since we don't have an atomic "compareAndGet" type
      * of operation from the underlying queue, we may need to resort to blocking. Currently, we're preferring speed over
      * complete accuracy here. In the face of multiple concurrent calls, the checks we're doing aren't accurate anyway.
+     * <p/>
+     *
+     * If there's an item, but we don't have the resources for it, we'll wait (using our {@link WaitStrategy}) until we
+     * do. If we're interrupted while waiting, we'll restore the interrupt flag and return null.
      *
      * @return
+     * @throws java.util.NoSuchElementException if the queue is empty
      */
     @Override
     public T remove() {
+        long startNanos = System.nanoTime();
+        int attempt = 0;
         while (true) {
+            long token = waitStrategy.prepareToWait();
             boolean locking = shouldLock();
             try {
                 if (locking) {
                     takeLock.lock();
                 }
                 T nextItem = delegate.peek();
-                if (nextItem == null || shouldReturn(nextItem)) {
+                if (nextItem == null) {
+                    // let the delegate decide what to do about an empty queue (typically, throw NoSuchElementException)
+                    return trackIfNecessary(delegate.remove());
+                }
+                if (shouldReturn(nextItem)) {
                     // Note that we might be returning a *different item* than nextItem if we have multiple threads accessing this concurrently!
                     // We're intentionally taking that risk to avoid locking.
-                    return trackIfNecessary(delegate.remove());
-                } else {
-                    return null; // sleep? block?
+                    T item = claim(nextItem);
+                    if (item != null) {
+                        markAdmission(startNanos);
+                        return trackIfNecessary(item);
+                    }
+                    // someone else got it first; decide again, without waiting.
+                    continue;
+                }
+                T bypassing = lookPastHead(nextItem);
+                if (bypassing != null) {
+                    markAdmission(startNanos);
+                    return trackIfNecessary(bypassing);
                 }
             } finally {
                 if (locking) {
                     takeLock.unlock();
                 }
             }
+            try {
+                sleep(token, ++attempt, Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
         }
     }
 
     protected boolean shouldLock() {
-        return strict && taskTracker != null;
+        return strict && taskTracker != null && conditionalDelegate == null;
+    }
+
+    /**
+     * Remove the item we've decided to hand out from the delegate. If we're strict and the delegate supports it, we
+     * only remove it if it's still at the head; otherwise, we get whatever is at the head by now.
+     *
+     * @return the item, or null if someone else took it first (in which case the caller should decide again).
+     */
+    private T claim(T nextItem) {
+        if (strict && conditionalDelegate != null) {
+            return conditionalDelegate.pollIf(nextItem);
+        }
+        return delegate.poll();
+    }
+
+    /**
+     * Called when we don't have resources for the head of the queue. If lookahead is enabled, look through the rest of
+     * the window for an item we do have resources for, and take that instead -- unless the head has already been
+     * passed over maxHeadBypasses times, in which case it's the head's turn and everyone waits for it. With a
+     * {@link MultiLaneQueue} delegate, taking the head of another lane doesn't count as passing over the head, since
+     * the head is still first in its own lane; so a blocked lane never holds up the others.
+     *
+     * @return the item we took, or null if there wasn't one (or someone else took it first).
+     */
+    private T lookPastHead(T head) {
+        int window = lookaheadWindow;
+        if (window <= 1) {
+            return null;
+        }
+        boolean capped = !mayBypass(head);
+        if (capped && laneDelegate == null) {
+            return null;
+        }
+        FitScoringConstraintStrategy<T> scorer = null;
+        if (lookaheadMode == LookaheadMode.BEST_FIT && constraintStrategy instanceof FitScoringConstraintStrategy) {
+            scorer = (FitScoringConstraintStrategy<T>) constraintStrategy;
+        }
+
+        T candidate = null;
+        double bestScore = -1.0;
+        Iterator<T> it = delegate.iterator();
+        for (int seen = 0; seen < window && it.hasNext(); seen++) {
+            T item = it.next();
+            if (item == head || (capped && !isLaneHead(item))) {
+                continue;
+            }
+            if (scorer != null) {
+                double score = scorer.fitScore(item);
+                if (score >= 0 && score > bestScore) {
+                    candidate = item;
+                    bestScore = score;
+                }
+            } else if (constraintStrategy.shouldReturn(item)) {
+                candidate = item;
+                break;
+            }
+        }
+        if (candidate == null) {
+            return null;
+        }
+        // once we've taken it, it's nobody's head.
+        boolean passedOverHead = !isLaneHead(candidate);
+        if (!claimBypassing(candidate)) {
+            if (scorer == null) {
+                releaseUnclaimed(candidate);
+            }
+            return null;
+        }
+        recordBypass(head, passedOverHead);
+        return candidate;
+    }
+
+    /**
+     * The constraint strategy may have set resources aside for candidate when it said yes to it. We didn't get it
+     * after all, so give them back rather than leave them held for an item that may never run.
+     */
+    @SuppressWarnings("unchecked")
+    private void releaseUnclaimed(T candidate) {
+        if (constraintStrategy instanceof CreditPoolConstraintStrategy) {
+            ((CreditPoolConstraintStrategy<T>) constraintStrategy).release(candidate);
+        }
+    }
+
+    private boolean isLaneHead(T item) {
+        return laneDelegate != null && laneDelegate.isLaneHead(item);
+    }
+
+    /**
+     * Take candidate out of the delegate, from wherever it is. Both ways are atomic, so if it's gone by now, someone
+     * else has it and we'll just decide again. A plain delegate only has remove(Object), which takes the first item
+     * equal to candidate, rather than candidate itself, and to the delegate looks like a cancellation.
+     */
+    private boolean claimBypassing(T candidate) {
+        if (conditionalDelegate != null) {
+            return conditionalDelegate.claimIfPresent(candidate);
+        }
+        return delegate.remove(candidate);
+    }
+
+    private boolean mayBypass(T head) {
+        synchronized (bypassLock) {
+            return bypassedHead != head || headBypasses < maxHeadBypasses;
+        }
+    }
+
+    /**
+     * @param passedOverHead false if the head was still first in its own lane, so it doesn't count towards its
+     *                       maxHeadBypasses.
+     */
+    private void recordBypass(T head, boolean passedOverHead) {
+        if (passedOverHead) {
+            synchronized (bypassLock) {
+                if (bypassedHead != head) {
+                    bypassedHead = head;
+                    headBypasses = 0;
+                }
+                headBypasses++;
+            }
+        }
+        if (bypasses != null) {
+            bypasses.mark();
+        }
     }
 
     protected boolean shouldReturn(T nextItem) {
@@ -200,22 +428,30 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
     @Override
     public T poll() {
         boolean locking = shouldLock();
-        try {
-            if (locking) {
-                takeLock.lock();
-            }
-            T nextItem = delegate.peek();
-            if (nextItem == null || shouldReturn(nextItem)) {
+        while (true) {
+            try {
+                if (locking) {
+                    takeLock.lock();
+                }
+                T nextItem = delegate.peek();
+                if (nextItem == null) {
+                    return null;
+                }
+                if (!shouldReturn(nextItem)) {
+                    T bypassing = lookPastHead(nextItem);
+                    return (bypassing == null) ? null : trackIfNecessary(bypassing);
+                }
                 // Note that we might be returning a *different item* than nextItem if we have multiple threads accessing this concurrently!
                 // We're intentionally taking that risk to avoid locking.
-                return trackIfNecessary(delegate.poll());
-
-            } else {
-                return null;  // sleep? block?
-            }
-        } finally {
-            if (locking) {
-                takeLock.unlock();
+                T item = claim(nextItem);
+                if (item != null) {
+                    return trackIfNecessary(item);
+                }
+                // someone else got it first; decide again.
+            } finally {
+                if (locking) {
+                    takeLock.unlock();
+                }
             }
         }
     }
@@ -230,8 +466,11 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
      */
     @Override
     public T take() throws InterruptedException {
+        long startNanos = System.nanoTime();
         boolean locking = shouldLock();
+        int attempt = 0;
         while (true) {
+            long token = waitStrategy.prepareToWait();
             try {
                 if (locking) {
                     takeLock.lock();
@@ -240,7 +479,18 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
                 if (nextItem != null && shouldReturn(nextItem)) {
                     // Note that we might be returning a *different item* than nextItem if we have multiple threads accessing this concurrently!
                     // We're intentionally taking that risk to avoid locking.
-                    return trackIfNecessary(delegate.take());
+                    T item = claim(nextItem);
+                    if (item != null) {
+                        markAdmission(startNanos);
+                        return trackIfNecessary(item);
+                    }
+                    // someone else got it first; decide again, without waiting.
+                    continue;
+                }
+                T bypassing = (nextItem != null) ? lookPastHead(nextItem) : null;
+                if (bypassing != null) {
+                    markAdmission(startNanos);
+                    return trackIfNecessary(bypassing);
                 } else if (nextItem != null && taskAttemptCounter != null) {
                     //increment number of tries for this item
                     int attempts = taskAttemptCounter.incrementConstrained(nextItem);
@@ -264,14 +514,19 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
                     takeLock.unlock();
                 }
             }
-            sleep();
+            sleep(token, ++attempt, Long.MAX_VALUE);
         }
     }
 
     T failForTooMayTries(T item) throws InterruptedException {
         log.error("Could not take item after " + constrainedItemThreshold + " attempts:  " + item);
         //take the item from the delegate
-        delegate.take();
+        if (strict && conditionalDelegate != null) {
+            // if it's not at the head anymore, somebody else has already taken it for us.
+            conditionalDelegate.pollIf(item);
+        } else {
+            delegate.take();
+        }
         taskAttemptCounter.removeConstrained(item);
         if (item instanceof FutureTask) {
             try {
@@ -295,53 +550,88 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
         }
     }
 
-    /**
-     * If we decide we want pluggable behavior here, take a look at LMAX Disruptor's WaitStrategy classes
-     */
-    private void sleep() throws InterruptedException {
+    private void sleep(long token, int attempt, long maxWaitNanos) throws InterruptedException {
         if (sleeps != null) {
             sleeps.mark();
         }
-        Thread.sleep(retryFrequencyMS);
+        waitStrategy.await(token, attempt, maxWaitNanos);
+    }
+
+    /**
+     * Wake up any consumers waiting for resources, so that they re-check right away. Only has an effect if our
+     * WaitStrategy pays attention to signals, like {@link BlockingWaitStrategy}.
+     * We'll call this ourselves when items are added and when tracked tasks complete, but you may also want to call it
+     * when you know that resources have been freed up some other way -- for example, because measured load has
+     * dropped below a threshold.
+     */
+    public void signalConsumers() {
+        waitStrategy.signal(true);
     }
 
     /**
      * See poll() for a description of the potential inaccuracy in this method.
+     * <p/>
+     *
+     * Waiting for an item to show up and waiting for resources to become available for it share a single deadline, so
+     * this will return (null) within roughly timeout, however that time was spent. We don't hold the takeLock while
+     * waiting, so other consumers can keep taking items in the meantime.
      *
      * @see #poll() for an explanation of the potential inaccuracy in this method
      */
     @Override
     public T poll(long timeout, TimeUnit unit) throws InterruptedException {
-        // we have to do a little extra work here because we may have to wait for some time before we have enough resources.
-        // We make a reasonable effort to ensure that the combined wait-until-resources-are-available and poll time don't
-        // exceed the desired timeout.
-        long totalSleepNanos = 0;
         long startNanos = System.nanoTime();
-        long timeoutNanos = unit.toNanos(timeout);
-        while (totalSleepNanos > timeoutNanos) {
-            boolean locking = shouldLock();
+        long deadlineNanos = startNanos + unit.toNanos(timeout);
+        boolean locking = shouldLock();
+        int attempt = 0;
+        while (true) {
+            long token = waitStrategy.prepareToWait();
+            T item = null;
+            boolean admitted = false;
+            if (locking) {
+                takeLock.lockInterruptibly();
+            }
             try {
-                if (locking) {
-                    takeLock.lock();
-                }
                 T nextItem = delegate.peek();
-                if (shouldReturn(nextItem)) {
-                    // Note that we might be returning a *different item* than nextItem if we have multiple threads accessing this concurrently!
-                    // We're intentionally taking that risk to avoid locking.
-                    return trackIfNecessary(delegate.poll(timeoutNanos - totalSleepNanos, TimeUnit.NANOSECONDS));
-                } else {
-                    sleep();
-                    totalSleepNanos = System.nanoTime() - startNanos;
+                if (nextItem != null && shouldReturn(nextItem)) {
+                    // Note that if we aren't locking, we might be getting a *different item* than nextItem, or nothing
+                    // at all if another consumer beat us to it; in that case we'll just go around again.
+                    admitted = true;
+                    item = claim(nextItem);
+                } else if (nextItem != null) {
+                    item = lookPastHead(nextItem);
                 }
             } finally {
                 if (locking) {
                     takeLock.unlock();
                 }
             }
+            if (item != null) {
+                markAdmission(startNanos);
+                return trackIfNecessary(item);
+            }
+            if (admitted) {
+                // someone else got it first; decide again, without waiting.
+                continue;
+            }
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                if (timeouts != null) {
+                    timeouts.mark();
+                }
+                return null;
+            }
+            sleep(token, ++attempt, remainingNanos);
+        }
+    }
 
+    /**
+     * Record how long a consumer had to wait (for an item, for resources, or both) before we handed it something.
+     */
+    private void markAdmission(long startNanos) {
+        if (admissionLatency != null) {
+            admissionLatency.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
         }
-        // if we got here, we timed out.
-        return null;
     }
 
     /**
@@ -422,6 +712,97 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
         return count;
     }
 
+    /**
+     * Like {@link #drainTo(java.util.Collection, int)}, except that it honors resource constraints: it removes items from
+     * the head of the queue for as long as we have resources for them, up to maxElements, and stops at the first one we
+     * don't. It never waits.
+     * <p/>
+     *
+     * If our ConstraintStrategy is a {@link BatchConstraintStrategy}, the whole batch is decided from a single load
+     * reading, with each item's predicted load counted against the items after it. Otherwise, we fall back to asking
+     * {@link ConstraintStrategy#shouldReturn(Object)} about each item. Either way, this is much cheaper per item than
+     * calling {@link #poll()} in a loop.
+     * <p/>
+     *
+     * The same caveats about accuracy as {@link #poll()} apply if we're not strict.
+     *
+     * @return the number of items added to c
+     */
+    public int drainAdmissible(Collection<? super T> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        if (maxElements <= 0) {
+            return 0;
+        }
+        BatchAdmission<T> admission = (constraintStrategy instanceof BatchConstraintStrategy)
+                ? ((BatchConstraintStrategy<T>) constraintStrategy).beginBatch()
+                : null;
+        List<T> admitted = new ArrayList<T>(Math.min(maxElements, 1024));
+        boolean locking = shouldLock();
+        try {
+            if (locking) {
+                takeLock.lock();
+            }
+            while (admitted.size() < maxElements) {
+                T nextItem = delegate.peek();
+                if (nextItem == null) {
+                    break;
+                }
+                boolean admit = (admission != null) ? admission.tryAdmit(nextItem) : constraintStrategy.shouldReturn(nextItem);
+                boolean lastOne = false;
+                if (!admit) {
+                    if (admitted.isEmpty() && taskTracker != null && taskTracker.currentTasks().isEmpty()) {
+                        // same as shouldReturn(): if nothing is in progress, let one item through regardless.
+                        lastOne = true;
+                    } else {
+                        break;
+                    }
+                }
+                // if someone else got it first, its load stays counted against this batch. That errs on the safe side.
+                T item = claim(nextItem);
+                if (item != null) {
+                    admitted.add(item);
+                }
+                if (lastOne) {
+                    break;
+                }
+            }
+        } finally {
+            if (locking) {
+                takeLock.unlock();
+            }
+        }
+        return trackAll(admitted, c);
+    }
+
+    /**
+     * The batch equivalent of {@link #trackIfNecessary(Object)}: registers all of the items with the task tracker (adding
+     * whatever it hands back to c) and updates our metrics once for the lot.
+     */
+    private int trackAll(List<T> items, Collection<? super T> c) {
+        int count = items.size();
+        if (count == 0) {
+            return 0;
+        }
+        if (trackedRemovals != null) {
+            trackedRemovals.mark(count);
+        }
+        if (pendingItems != null) {
+            pendingItems.dec(count);
+        }
+        for (T item : items) {
+            if (taskAttemptCounter != null) {
+                taskAttemptCounter.removeConstrained(item);
+            }
+            c.add(taskTracker != null ? taskTracker.register(item) : item);
+        }
+        return count;
+    }
+
     /**
      * This method just delegates to the underlying queue; the returned iterator will NOT honor any resource constraints.
      * This may change in the future.
@@ -485,7 +866,7 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
         if (pendingItems != null) {
             pendingItems.inc(c.size());
         }
-        return delegate.addAll(c);
+        return signalIfAdded(delegate.addAll(c));
     }
 
     /**
@@ -554,6 +935,7 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
     public void put(T t) throws InterruptedException {
         markAddition();
         delegate.put(t);
+        signalIfAdded(true);
     }
 
     /**
@@ -566,7 +948,7 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
      */
     public boolean offer(T t, long timeout, TimeUnit unit) throws InterruptedException {
         markAddition();
-        return delegate.offer(t, timeout, unit);
+        return signalIfAdded(delegate.offer(t, timeout, unit));
     }
 
     @Override
@@ -596,6 +978,9 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
         trackedRemovals = metrics.newMeter(new MetricName(ResourceConstrainingQueue.class, name, "remove-poll-take"), "item", TimeUnit.SECONDS);
         additions = metrics.newMeter(new MetricName(ResourceConstrainingQueue.class, name, "add-offer-put"), "item", TimeUnit.SECONDS);
         sleeps = metrics.newMeter(new MetricName(ResourceConstrainingQueue.class, "sleeps"), "item", TimeUnit.SECONDS);
+        admissionLatency = metrics.newTimer(new MetricName(ResourceConstrainingQueue.class, name, "admission-latency"), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        timeouts = metrics.newMeter(new MetricName(ResourceConstrainingQueue.class, name, "poll-timeouts"), "item", TimeUnit.SECONDS);
+        bypasses = metrics.newMeter(new MetricName(ResourceConstrainingQueue.class, name, "head-bypasses"), "item", TimeUnit.SECONDS);
 
         if (this.constraintStrategy instanceof MetricsAware) {
             ((MetricsAware) constraintStrategy).registerMetrics(metrics, name);
@@ -617,6 +1002,85 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
         this.failAfterAttemptThresholdReached = failAfterAttemptThresholdReached;
     }
 
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Change how consumers wait when they can't take anything. If our TaskTracker is a {@link NotifyingTaskTracker},
+     * we'll also register for task completions, so that the strategy gets signalled when one completes.
+     *
+     * @see WaitStrategies
+     */
+    public synchronized void setWaitStrategy(WaitStrategy waitStrategy) {
+        WaitStrategy old = this.waitStrategy;
+        this.waitStrategy = waitStrategy;
+        if (!listeningForCompletions && taskTracker instanceof NotifyingTaskTracker) {
+            ((NotifyingTaskTracker<T>) taskTracker).addTaskCompletionListener(completionSignaller);
+            listeningForCompletions = true;
+        }
+        // anyone still waiting on the old strategy should come back and start waiting on the new one.
+        old.signal(true);
+    }
+
+    public boolean isSignalling() {
+        return waitStrategy instanceof BlockingWaitStrategy;
+    }
+
+    /**
+     * Turn event-driven wakeups on or off. This is shorthand for using a {@link BlockingWaitStrategy} that waits for
+     * retryFrequencyMS at most, or going back to the default {@link SleepingWaitStrategy}.
+     *
+     * @see #signalConsumers()
+     */
+    public void setSignalling(boolean signalling) {
+        if (signalling != isSignalling()) {
+            setWaitStrategy(signalling ? new BlockingWaitStrategy(retryFrequencyMS) : new SleepingWaitStrategy(retryFrequencyMS));
+        }
+    }
+
+    public int getLookaheadWindow() {
+        return lookaheadWindow;
+    }
+
+    public LookaheadMode getLookaheadMode() {
+        return lookaheadMode;
+    }
+
+    /**
+     * When we don't have resources for the item at the head of the queue, look at up to window items (counting the
+     * head) for one that we do. A window of 1 turns lookahead off.
+     * <p/>
+     *
+     * Each look costs a walk over the window with the delegate's iterator, plus taking out whatever we find, so keep
+     * the window small. Prefer a {@link ConditionallyRemovableQueue} delegate: we take the item we chose with its
+     * claimIfPresent(), whereas any other delegate only has remove(Object), which goes by equals() and treats the item
+     * as cancelled.
+     */
+    public void setLookahead(int window, LookaheadMode mode) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Lookahead window must be at least 1");
+        }
+        if (mode == null) {
+            throw new NullPointerException();
+        }
+        this.lookaheadMode = mode;
+        this.lookaheadWindow = window;
+    }
+
+    public int getMaxHeadBypasses() {
+        return maxHeadBypasses;
+    }
+
+    /**
+     * How many times the same item at the head of the queue can be passed over in favor of an item further back,
+     * before we stop looking past it and wait until we have resources for it. Heads of other lanes of a
+     * {@link MultiLaneQueue} aren't "further back", so taking those doesn't count, and isn't stopped.
+     */
+    public void setMaxHeadBypasses(int maxHeadBypasses) {
+        this.maxHeadBypasses = maxHeadBypasses;
+    }
+
 
     public static class ResourceConstrainingQueueBuilder<T> {
         BlockingQueue<T> builderdelegate = null;
@@ -624,6 +1088,11 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
         ConstraintStrategy<T> builderConstraintStrategy;
         TaskTracker<T> builderTaskTracker;
         boolean builderStrict = true;
+        boolean builderSignalling = false;
+        WaitStrategy builderWaitStrategy = null;
+        int builderLookaheadWindow = 1;
+        LookaheadMode builderLookaheadMode = LookaheadMode.FIRST_FIT;
+        int builderMaxHeadBypasses = DEFAULT_MAX_HEAD_BYPASSES;
 
         public ResourceConstrainingQueueBuilder<T> withConstraintStrategy(ConstraintStrategy<T> cs) {
             this.builderConstraintStrategy = cs;
@@ -645,11 +1114,51 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
             return this;
         }
 
+        /**
+         * Defaults to true. See the class docs for what strict guarantees: with a ConditionallyRemovableQueue
+         * delegate, it means no item is handed out twice, not that admission decisions are serialized.
+         */
         public ResourceConstrainingQueueBuilder<T> strict(boolean strict) {
             this.builderStrict = strict;
             return this;
         }
 
+        /**
+         * @see ResourceConstrainingQueue#setSignalling(boolean)
+         */
+        public ResourceConstrainingQueueBuilder<T> signalling(boolean signalling) {
+            this.builderSignalling = signalling;
+            return this;
+        }
+
+        /**
+         * If set, this overrides both {@link #withRetryFrequency(long)} and {@link #signalling(boolean)} as far as
+         * waiting consumers are concerned.
+         *
+         * @see WaitStrategies
+         */
+        public ResourceConstrainingQueueBuilder<T> withWaitStrategy(WaitStrategy waitStrategy) {
+            this.builderWaitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * @see ResourceConstrainingQueue#setLookahead(int, LookaheadMode)
+         */
+        public ResourceConstrainingQueueBuilder<T> withLookahead(int window, LookaheadMode mode) {
+            this.builderLookaheadWindow = window;
+            this.builderLookaheadMode = mode;
+            return this;
+        }
+
+        /**
+         * @see ResourceConstrainingQueue#setMaxHeadBypasses(int)
+         */
+        public ResourceConstrainingQueueBuilder<T> withMaxHeadBypasses(int maxHeadBypasses) {
+            this.builderMaxHeadBypasses = maxHeadBypasses;
+            return this;
+        }
+
         public ResourceConstrainingQueue<T> build() {
             BlockingQueue<T> d = builderdelegate;
             long pollfreq = builderresourcePollFrequencyMS;
@@ -660,7 +1169,15 @@ public class ResourceConstrainingQueue<T> implements BlockingQueue<T>, MetricsAw
             if (d == null) {
                 d = new LinkedBlockingQueue<T>();
             }
-            return new ResourceConstrainingQueue<T>(d, cs, pollfreq, builderStrict);
+            ResourceConstrainingQueue<T> q = new ResourceConstrainingQueue<T>(d, cs, pollfreq, builderStrict, builderTaskTracker);
+            if (builderWaitStrategy != null) {
+                q.setWaitStrategy(builderWaitStrategy);
+            } else {
+                q.setSignalling(builderSignalling);
+            }
+            q.setLookahead(builderLookaheadWindow, builderLookaheadMode);
+            q.setMaxHeadBypasses(builderMaxHeadBypasses);
+            return q;
         }
 
     }
@@ -1,15 +1,29 @@
 package com.quantumretail.collections;
 
 import com.quantumretail.constraint.ConstraintStrategies;
+import com.quantumretail.constraint.ThresholdGatedConstraintStrategy;
+import com.quantumretail.rcq.predictor.LoadPredictors;
+import com.quantumretail.rcq.predictor.NotifyingTaskTracker;
 import com.quantumretail.rcq.predictor.TaskTracker;
 import com.quantumretail.rcq.predictor.TaskTrackers;
+import com.quantumretail.resourcemon.AggregateResourceMonitor;
+import com.quantumretail.resourcemon.CachingResourceMonitor;
+import com.quantumretail.resourcemon.HeapResourceMonitor;
+import com.quantumretail.resourcemon.ResourceMonitor;
 import com.quantumretail.resourcemon.ResourceMonitors;
+import com.quantumretail.resourcemon.Threshold;
+import com.quantumretail.resourcemon.ThresholdListener;
+import com.quantumretail.resourcemon.ThresholdWatcher;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -61,6 +75,203 @@ public class ResourceConstrainingQueues {
     }
 
 
+    /**
+     * A queue that reserves each item's predicted load out of a fixed budget (the thresholds) when it hands the item
+     * out, and gets it back when the item completes, instead of re-measuring load for every decision.
+     *
+     * @see com.quantumretail.constraint.CreditPoolConstraintStrategy
+     */
+    public static <T> ResourceConstrainingQueue<T> creditPoolQueue(Map<String, Double> thresholds) {
+        TaskTracker<T> taskTracker = TaskTrackers.defaultTaskTracker();
+        return new ResourceConstrainingQueue<T>(
+                new LinkedBlockingQueue<T>(),
+                ConstraintStrategies.creditPoolConstraintStrategy(thresholds, taskTracker),
+                ResourceMonitors.DEFAULT_UPDATE_FREQ,
+                true,
+                taskTracker);
+    }
+
+    /**
+     * A queue that keeps CPU-heavy and memory-heavy items in separate lanes, and when it can't hand out the next item,
+     * picks whichever lane's head best fits the resources we have left.
+     *
+     * @see MultiLaneQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> multiLaneQueue(Map<String, Double> thresholds) {
+        return multiLaneQueue(thresholds, ResourceMonitor.CPU, ResourceMonitor.HEAP_MEM);
+    }
+
+    /**
+     * As {@link #multiLaneQueue(java.util.Map)}, but with a lane for each of the given resources (plus a default lane).
+     * Resources don't need to be ones we monitor; for example, tasks can declare an "IO" load through
+     * {@link com.quantumretail.rcq.predictor.LoadAware} to get a lane of their own.
+     */
+    public static <T> ResourceConstrainingQueue<T> multiLaneQueue(Map<String, Double> thresholds, String... resources) {
+        MultiLaneQueue<T> lanes = new MultiLaneQueue<T>(LoadPredictors.defaultLoadPredictor(), resources);
+        ResourceConstrainingQueue<T> q = constrained(lanes, thresholds);
+        q.setLookahead(lanes.getLaneNames().size(), ResourceConstrainingQueue.LookaheadMode.BEST_FIT);
+        return q;
+    }
+
+    /**
+     * A queue shared between tenants: the default constraint strategy decides whether anything may run, and the
+     * tenants take turns by the resources their items are predicted to use.
+     *
+     * @see TenantFairQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> tenantFairQueue(TenantKeyExtractor<T> tenantKeyExtractor, Map<String, Double> thresholds) {
+        return constrained(new TenantFairQueue<T>(tenantKeyExtractor, LoadPredictors.defaultLoadPredictor()), thresholds);
+    }
+
+    /**
+     * A priority queue in which items get more urgent the longer they wait, so that less urgent work still gets its
+     * turn eventually.
+     *
+     * @param levels        priorities go from 0 (most urgent) to levels - 1.
+     * @param agingInterval how long an item waits to improve by one level.
+     * @see AgingPriorityBlockingQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> agingPriorityQueue(PriorityExtractor<T> priorityExtractor, int levels, long agingInterval, TimeUnit unit, Map<String, Double> thresholds) {
+        return constrained(new AgingPriorityBlockingQueue<T>(priorityExtractor, levels, agingInterval, unit), thresholds);
+    }
+
+    /**
+     * A queue that hands out items earliest deadline first, and drops items whose deadline passes while they wait.
+     *
+     * @param droppedItemHandler told about dropped items. May be null.
+     * @see DeadlineBlockingQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> deadlineQueue(DroppedItemHandler<T> droppedItemHandler, Map<String, Double> thresholds) {
+        return constrained(new DeadlineBlockingQueue<T>(droppedItemHandler), thresholds);
+    }
+
+    /**
+     * A FIFO queue that manages its own latency with CoDel: once items have been waiting longer than target for a
+     * whole interval, it starts dropping items from the head until the wait comes back down.
+     *
+     * @param droppedItemHandler told about dropped items. May be null.
+     * @see CoDelBlockingQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> coDelQueue(long target, long interval, TimeUnit unit, DroppedItemHandler<T> droppedItemHandler, Map<String, Double> thresholds) {
+        return constrained(new CoDelBlockingQueue<T>(Integer.MAX_VALUE, target, interval, unit, droppedItemHandler), thresholds);
+    }
+
+    /**
+     * A FIFO queue bounded by the predicted heap of its items rather than by their number: producers block once the
+     * queued items are predicted to use more than maxWeight of the heap.
+     *
+     * @param maxWeight the most predicted heap we'll queue, as a fraction of the maximum heap.
+     * @see WeightBoundedQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> weightBoundedQueue(double maxWeight, Map<String, Double> thresholds) {
+        return constrained(new WeightBoundedQueue<T>(LoadPredictors.defaultLoadPredictor(), maxWeight), thresholds);
+    }
+
+    /**
+     * As {@link #weightBoundedQueue(double, java.util.Map)}, but producers also block while measured heap usage is over
+     * liveThreshold.
+     */
+    public static <T> ResourceConstrainingQueue<T> weightBoundedQueue(double maxWeight, double liveThreshold, Map<String, Double> thresholds) {
+        ResourceMonitor heapMonitor = new CachingResourceMonitor(new HeapResourceMonitor(), ResourceMonitors.DEFAULT_UPDATE_FREQ);
+        return constrained(new WeightBoundedQueue<T>(LoadPredictors.defaultLoadPredictor(), maxWeight, heapMonitor, liveThreshold), thresholds);
+    }
+
+    /**
+     * An unbounded FIFO queue that keeps its first headCapacity items on the heap, and spills the rest to memory-mapped
+     * files in directory, so that a large backlog doesn't use up the heap.
+     *
+     * @see SpillingBlockingQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> spillingQueue(ItemSerializer<T> serializer, File directory, int headCapacity, Map<String, Double> thresholds) {
+        return constrained(new SpillingBlockingQueue<T>(serializer, directory, headCapacity, SpillingBlockingQueue.DEFAULT_SEGMENT_SIZE), thresholds);
+    }
+
+    /**
+     * A FIFO queue that journals its items to disk, and replays the ones that never finished running when it's created
+     * again on the same directory. The journal is synced, and compacted, every syncFrequencyMS by a background thread.
+     *
+     * @throws IOException if we couldn't read the journal that's already in directory.
+     * @see JournaledBlockingQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> journaledQueue(ItemSerializer<T> serializer, File directory, long syncFrequencyMS, Map<String, Double> thresholds) throws IOException {
+        TaskTracker<T> taskTracker = TaskTrackers.defaultTaskTracker();
+        JournaledBlockingQueue<T> journal = new JournaledBlockingQueue<T>(serializer, directory);
+        ((NotifyingTaskTracker<T>) taskTracker).addTaskCompletionListener(journal);
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new NameableDaemonThreadFactory("journal-sync-"));
+        executorService.scheduleWithFixedDelay(journal, syncFrequencyMS, syncFrequencyMS, TimeUnit.MILLISECONDS);
+        return constrained(journal, thresholds, taskTracker);
+    }
+
+    /**
+     * A bounded FIFO queue that keeps its items off the heap, in capacity fixed-size slots written and read by codec.
+     *
+     * @see OffHeapRingBufferQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> offHeapQueue(SlotCodec<T> codec, int capacity, Map<String, Double> thresholds) {
+        return constrained(new OffHeapRingBufferQueue<T>(codec, capacity), thresholds);
+    }
+
+    /**
+     * An unbounded FIFO queue that stores its items in pooled array chunks rather than one node per item, for very
+     * long backlogs.
+     *
+     * @see ChunkedBlockingQueue
+     */
+    public static <T> ResourceConstrainingQueue<T> chunkedQueue(Map<String, Double> thresholds) {
+        return constrained(new ChunkedBlockingQueue<T>(), thresholds);
+    }
+
+    /**
+     * A strict queue over delegate, with the default constraint strategy and a task tracker of its own.
+     */
+    private static <T> ResourceConstrainingQueue<T> constrained(BlockingQueue<T> delegate, Map<String, Double> thresholds) {
+        return constrained(delegate, thresholds, TaskTrackers.<T>defaultTaskTracker());
+    }
+
+    private static <T> ResourceConstrainingQueue<T> constrained(BlockingQueue<T> delegate, Map<String, Double> thresholds, TaskTracker<T> taskTracker) {
+        return new ResourceConstrainingQueue<T>(
+                delegate,
+                ConstraintStrategies.defaultConstraintStrategy(thresholds, taskTracker),
+                ResourceMonitors.DEFAULT_UPDATE_FREQ,
+                true,
+                taskTracker);
+    }
+
+    /**
+     * A queue that stops handing out items when measured load goes over a high watermark, and starts again once it
+     * drops below the low watermark. The load is checked every checkFrequencyMS by a background thread rather than on
+     * every poll, and consumers waiting for resources are woken up as soon as a resource drops back below its low
+     * watermark.
+     *
+     * @see ThresholdGatedConstraintStrategy
+     */
+    public static <T> ResourceConstrainingQueue<T> thresholdGatedQueue(Map<String, Double> highWatermarks, Map<String, Double> lowWatermarks, long checkFrequencyMS) {
+        ThresholdWatcher watcher = new ThresholdWatcher(new AggregateResourceMonitor());
+        ThresholdGatedConstraintStrategy<T> strategy = new ThresholdGatedConstraintStrategy<T>(watcher, highWatermarks, lowWatermarks);
+        TaskTracker<T> taskTracker = TaskTrackers.defaultTaskTracker();
+        final ResourceConstrainingQueue<T> q = new ResourceConstrainingQueue<T>(
+                new LinkedBlockingQueue<T>(),
+                strategy,
+                ResourceConstrainingQueue.DEFAULT_POLL_FREQ,
+                true,
+                taskTracker);
+        q.setSignalling(true);
+        strategy.addListener(new ThresholdListener() {
+            @Override
+            public void crossedAbove(Threshold threshold, double value) {
+            }
+
+            @Override
+            public void crossedBelow(Threshold threshold, double value) {
+                q.signalConsumers();
+            }
+        });
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new NameableDaemonThreadFactory("threshold-watcher-"));
+        executorService.scheduleAtFixedRate(watcher, 0, checkFrequencyMS, TimeUnit.MILLISECONDS);
+        return q;
+    }
+
+
     /**
      * The default thread factory
      */
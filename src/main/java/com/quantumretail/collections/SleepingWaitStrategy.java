@@ -0,0 +1,38 @@
+package com.quantumretail.collections;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sleeps for a fixed amount of time between attempts. This is what ResourceConstrainingQueue has always done, and it is
+ * still the default: simple and cheap, but a consumer may take up to a full sleep period to notice that it can proceed.
+ */
+public class SleepingWaitStrategy implements WaitStrategy {
+
+    final long sleepNanos;
+
+    public SleepingWaitStrategy(long sleepMS) {
+        this(sleepMS, TimeUnit.MILLISECONDS);
+    }
+
+    public SleepingWaitStrategy(long sleep, TimeUnit unit) {
+        this.sleepNanos = unit.toNanos(sleep);
+    }
+
+    @Override
+    public long prepareToWait() {
+        return 0;
+    }
+
+    @Override
+    public void await(long token, int attempt, long maxWaitNanos) throws InterruptedException {
+        long nanos = Math.min(sleepNanos, maxWaitNanos);
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    @Override
+    public void signal(boolean all) {
+        // nobody to wake; sleepers wake up on their own.
+    }
+}
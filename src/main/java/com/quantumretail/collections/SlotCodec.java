@@ -0,0 +1,23 @@
+package com.quantumretail.collections;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes items into, and reads them back from, fixed-size slots in a ByteBuffer (see {@link OffHeapRingBufferQueue}).
+ * <p/>
+ *
+ * The slot is the part of the buffer between its position and its limit, so a codec can use relative gets and puts,
+ * and writing past the end of the slot fails rather than overwriting the next one. Codecs shouldn't hang on to the
+ * buffer.
+ */
+public interface SlotCodec<T> {
+
+    /**
+     * @return how many bytes each slot needs.
+     */
+    int slotSize();
+
+    void encode(T item, ByteBuffer slot);
+
+    T decode(ByteBuffer slot);
+}
@@ -0,0 +1,381 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An unbounded FIFO queue that keeps only its first few items on the heap, and spills the rest to memory-mapped
+ * segment files on disk. However big the backlog gets, it only takes up headCapacity items' worth of heap, so a traffic
+ * spike doesn't push HEAP_MEM over the threshold and block admission.
+ * <p/>
+ *
+ * Items are kept in order: once anything has been spilled, every new item is spilled behind it, and as the in-memory
+ * head drains, it's topped back up by reading the oldest segment sequentially. Items are turned into bytes and back
+ * by an {@link ItemSerializer}, so a spilled item comes back as a copy rather than the same instance.
+ * <p/>
+ *
+ * Segments are files in the given directory, segmentSize bytes each (bigger, if a single item needs it), which are
+ * deleted once they've been read. The mapped memory itself is freed when the garbage collector gets round to the
+ * mapping, since Java has no way to unmap a file explicitly. Call {@link #close()} to delete whatever is left when
+ * you're done with the queue. Nothing here survives a restart.
+ * <p/>
+ *
+ * Serializing and deserializing happen with our lock held, and remove(Object), contains() and iteration have to read
+ * back everything on disk, so they're slow while we're spilling. Iteration hangs on to the copies it read back until
+ * they're unspilled, so that the ResourceConstrainingQueue's lookahead can claim the very instance it looked at (see
+ * {@link #claimIfPresent(Object)}); those copies take up heap in the meantime.
+ */
+public class SpillingBlockingQueue<T> extends AbstractLockingBlockingQueue<T> implements MetricsAware, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(SpillingBlockingQueue.class);
+
+    public static final int DEFAULT_HEAD_CAPACITY = 10000;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final ItemSerializer<T> serializer;
+    private final File directory;
+    private final int headCapacity;
+    private final int segmentSize;
+
+    private final Deque<T> memory = new ArrayDeque<T>();
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+    private int spilledCount = 0;
+
+    private Meter spills = null;
+    private Meter unspills = null;
+
+    public SpillingBlockingQueue(ItemSerializer<T> serializer, File directory) {
+        this(serializer, directory, DEFAULT_HEAD_CAPACITY, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory    where to put segment files.
+     * @param headCapacity the most items we'll keep on the heap.
+     * @param segmentSize  the size of each segment file, in bytes.
+     */
+    public SpillingBlockingQueue(ItemSerializer<T> serializer, File directory, int headCapacity, int segmentSize) {
+        if (headCapacity <= 0) {
+            throw new IllegalArgumentException("headCapacity must be > 0, got " + headCapacity);
+        }
+        if (segmentSize <= 4) {
+            throw new IllegalArgumentException("segmentSize must be > 4, got " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Couldn't create spill directory " + directory);
+        }
+        this.serializer = serializer;
+        this.directory = directory;
+        this.headCapacity = headCapacity;
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        if (spilledCount == 0 && memory.size() < headCapacity) {
+            memory.add(item);
+        } else {
+            spill(item);
+        }
+        return true;
+    }
+
+    private void spill(T item) {
+        byte[] bytes;
+        try {
+            bytes = serializer.toBytes(item);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't serialize " + item, e);
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || !tail.hasRoomFor(bytes.length)) {
+            tail = newSegment(Math.max(segmentSize, bytes.length + 4));
+            segments.add(tail);
+        }
+        tail.write(bytes);
+        spilledCount++;
+        if (spills != null) {
+            spills.mark();
+        }
+    }
+
+    private Segment newSegment(int size) {
+        File file = null;
+        try {
+            file = File.createTempFile("spill-", ".seg", directory);
+            file.deleteOnExit();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping stays valid after the file is closed.
+                return new Segment(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            if (file != null) {
+                file.delete();
+            }
+            throw new IllegalStateException("Couldn't create spill segment in " + directory, e);
+        }
+    }
+
+    /**
+     * Move spilled items back onto the heap, oldest first, until the head is full or there's nothing left on disk.
+     */
+    private void unspill() {
+        while (spilledCount > 0 && memory.size() < headCapacity) {
+            Segment s = segments.peek();
+            T item = s.read();
+            if (item == null) {
+                // only tombstones left
+                deleteSegment(segments.poll());
+                continue;
+            }
+            spilledCount--;
+            memory.add(item);
+            if (s.live == 0) {
+                deleteSegment(segments.poll());
+            }
+            if (unspills != null) {
+                unspills.mark();
+            }
+        }
+    }
+
+    private T deserialize(byte[] bytes) {
+        try {
+            return serializer.fromBytes(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't deserialize spilled item", e);
+        }
+    }
+
+    private void deleteSegment(Segment s) {
+        if (!s.file.delete()) {
+            log.warn("Couldn't delete spill segment " + s.file);
+        }
+    }
+
+    @Override
+    protected T head() {
+        if (memory.isEmpty()) {
+            unspill();
+        }
+        return memory.peek();
+    }
+
+    @Override
+    protected T dequeue() {
+        T item = memory.poll();
+        unspill();
+        return item;
+    }
+
+    @Override
+    protected int count() {
+        return memory.size() + spilledCount;
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (Iterator<T> it = memory.iterator(); it.hasNext(); ) {
+            if (matches(o, it.next(), claim)) {
+                it.remove();
+                unspill();
+                return true;
+            }
+        }
+        for (Segment s : segments) {
+            if (s.removeFirst(o, claim)) {
+                spilledCount--;
+                if (s.live == 0) {
+                    segments.remove(s);
+                    deleteSegment(s);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<T> l = new ArrayList<T>(count());
+        l.addAll(memory);
+        for (Segment s : segments) {
+            s.readAll(l);
+        }
+        return l;
+    }
+
+    /**
+     * @return how many items are currently on disk.
+     */
+    public int getSpilledCount() {
+        lock.lock();
+        try {
+            return spilledCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many segment files we currently have.
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Empty the queue, and delete any segment files. The queue can still be used afterwards.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            memory.clear();
+            while (!segments.isEmpty()) {
+                deleteSegment(segments.poll());
+            }
+            spilledCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        spills = metricsRegistry.newMeter(new MetricName(SpillingBlockingQueue.class, name, "spilled"), "item", TimeUnit.SECONDS);
+        unspills = metricsRegistry.newMeter(new MetricName(SpillingBlockingQueue.class, name, "unspilled"), "item", TimeUnit.SECONDS);
+        metricsRegistry.newGauge(new MetricName(SpillingBlockingQueue.class, name, "on disk"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getSpilledCount();
+            }
+        });
+        metricsRegistry.newGauge(new MetricName(SpillingBlockingQueue.class, name, "segments"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getSegmentCount();
+            }
+        });
+    }
+
+    /**
+     * A mapped file of records, each an int length followed by that many bytes. A removed record's length is negated,
+     * so that readers skip it.
+     */
+    private class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int readPos = 0;
+        int writePos = 0;
+        int live = 0;
+        // copies that iteration has handed out, by record position; null until there are any.
+        Map<Integer, T> decoded = null;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        boolean hasRoomFor(int length) {
+            return buffer.capacity() - writePos >= length + 4;
+        }
+
+        void write(byte[] bytes) {
+            buffer.putInt(writePos, bytes.length);
+            buffer.position(writePos + 4);
+            buffer.put(bytes);
+            writePos += 4 + bytes.length;
+            live++;
+        }
+
+        /**
+         * @return the next live item (the copy iteration handed out, if it did), or null if there aren't any.
+         */
+        T read() {
+            while (readPos < writePos) {
+                int pos = readPos;
+                int length = buffer.getInt(pos);
+                readPos += 4 + Math.abs(length);
+                if (length >= 0) {
+                    live--;
+                    T item = (decoded == null) ? null : decoded.remove(pos);
+                    return (item != null) ? item : deserializeAt(pos, length);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Tombstone the first record equal to o or, if claim, the one whose copy is o itself.
+         */
+        boolean removeFirst(Object o, boolean claim) {
+            int pos = readPos;
+            while (pos < writePos) {
+                int length = buffer.getInt(pos);
+                if (length >= 0) {
+                    T item = (decoded == null) ? null : decoded.get(pos);
+                    if (item == null && !claim) {
+                        item = deserializeAt(pos, length);
+                    }
+                    if (item != null && matches(o, item, claim)) {
+                        buffer.putInt(pos, -length);
+                        live--;
+                        if (decoded != null) {
+                            decoded.remove(pos);
+                        }
+                        return true;
+                    }
+                }
+                pos += 4 + Math.abs(length);
+            }
+            return false;
+        }
+
+        void readAll(List<T> into) {
+            int pos = readPos;
+            while (pos < writePos) {
+                int length = buffer.getInt(pos);
+                if (length >= 0) {
+                    if (decoded == null) {
+                        decoded = new HashMap<Integer, T>();
+                    }
+                    T item = decoded.get(pos);
+                    if (item == null) {
+                        item = deserializeAt(pos, length);
+                        decoded.put(pos, item);
+                    }
+                    into.add(item);
+                }
+                pos += 4 + Math.abs(length);
+            }
+        }
+
+        private T deserializeAt(int pos, int length) {
+            byte[] bytes = new byte[length];
+            buffer.position(pos + 4);
+            buffer.get(bytes);
+            return deserialize(bytes);
+        }
+    }
+}
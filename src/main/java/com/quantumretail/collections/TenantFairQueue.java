@@ -0,0 +1,336 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.MetricsAware;
+import com.quantumretail.rcq.predictor.LoadAware;
+import com.quantumretail.rcq.predictor.LoadPredictor;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An unbounded queue that keeps a sub-queue for each tenant, and shares itself out between tenants by the resources
+ * their items are predicted to use, rather than by item count. Used as the delegate of a
+ * {@link ResourceConstrainingQueue}, one tenant's backlog can no longer starve the others: the ConstraintStrategy
+ * still decides whether anything may run, and this decides whose turn it is. See
+ * {@link ResourceConstrainingQueues#tenantFairQueue(TenantKeyExtractor, java.util.Map)}.
+ * <p/>
+ *
+ * Tenants take turns using deficit round robin. Each time a tenant's turn comes around, it's credited with
+ * {@code quantum * weight}, and it keeps handing out items for as long as its credit covers the cost of its next item.
+ * An item's cost is its predicted load on whichever resource it uses most of (items that implement {@link LoadAware}
+ * can declare that themselves), so a tenant with expensive items gets fewer of them than a tenant with cheap ones.
+ * Nothing is ever free, though: every item costs at least 1% of the quantum. A tenant whose sub-queue empties forfeits
+ * its remaining credit, so a tenant can't save up while idle and then swamp everyone else.
+ * <p/>
+ *
+ * An item claimed out of turn (by ResourceConstrainingQueue's lookahead) is charged to its tenant just the same, which
+ * may leave the tenant in debt; a tenant keeps its debt even if its sub-queue empties, and has to work it off before its
+ * next item.
+ * <p/>
+ *
+ * A tenant's weight defaults to 1.0; a tenant with weight 2.0 gets twice the resources of a tenant with 1.0, if both
+ * have work waiting.
+ * <p/>
+ *
+ * Costs are predicted once, when the item is added. Tenants are never forgotten, so this is intended for a bounded
+ * number of them. Iterators see one item from each tenant in turn, starting with whoever's turn it is.
+ */
+public class TenantFairQueue<T> extends AbstractLockingBlockingQueue<T> implements MetricsAware {
+
+    public static final double DEFAULT_QUANTUM = 0.1;
+
+    private final TenantKeyExtractor<T> tenantKeyExtractor;
+    private final LoadPredictor loadPredictor;
+    private final double quantum;
+    private final double minCost;
+
+    // all the tenants we've ever seen, and the ones with something queued (in the order they take turns).
+    private final Map<Object, Tenant> tenants = new HashMap<Object, Tenant>();
+    private final List<Tenant> active = new ArrayList<Tenant>();
+    // whose turn it is, and whether they've been credited for this turn yet.
+    private int current = 0;
+    private boolean credited = false;
+    private int count = 0;
+
+    private volatile MetricsRegistry metricsRegistry = null;
+    private volatile String metricName = null;
+
+    public TenantFairQueue(TenantKeyExtractor<T> tenantKeyExtractor, LoadPredictor loadPredictor) {
+        this(tenantKeyExtractor, loadPredictor, DEFAULT_QUANTUM);
+    }
+
+    /**
+     * @param loadPredictor used to work out the cost of items that don't implement LoadAware. May be null, in which
+     *                      case those items all cost the minimum, and we share by item count.
+     * @param quantum       how much credit each tenant gets per turn, in the same units as predicted load. Larger
+     *                      quanta mean less switching between tenants, but burstier service for each.
+     */
+    public TenantFairQueue(TenantKeyExtractor<T> tenantKeyExtractor, LoadPredictor loadPredictor, double quantum) {
+        if (!(quantum > 0.0)) {
+            throw new IllegalArgumentException("quantum must be > 0, got " + quantum);
+        }
+        this.tenantKeyExtractor = tenantKeyExtractor;
+        this.loadPredictor = loadPredictor;
+        this.quantum = quantum;
+        this.minCost = quantum / 100.0;
+    }
+
+    /**
+     * Set a tenant's share relative to the others.
+     */
+    public void setWeight(Object tenant, double weight) {
+        if (!(weight > 0.0)) {
+            throw new IllegalArgumentException("weight must be > 0, got " + weight);
+        }
+        lock.lock();
+        try {
+            getOrCreateTenant(tenant).weight = weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of items queued for this tenant.
+     */
+    public int size(Object tenant) {
+        lock.lock();
+        try {
+            Tenant t = tenants.get(tenant);
+            return t == null ? 0 : t.items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the cost we'd charge for this item.
+     */
+    protected double cost(T item) {
+        Map<String, Double> load;
+        if (item instanceof LoadAware) {
+            load = ((LoadAware) item).load();
+        } else if (loadPredictor != null) {
+            load = loadPredictor.predictLoad(item);
+        } else {
+            load = null;
+        }
+        double cost = minCost;
+        if (load != null) {
+            for (Double l : load.values()) {
+                if (l != null && l > cost) {
+                    cost = l;
+                }
+            }
+        }
+        return cost;
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        Tenant t = getOrCreateTenant(tenantKeyExtractor.tenantOf(item));
+        t.items.add(new Entry<T>(item, cost(item)));
+        if (t.items.size() == 1) {
+            // it's joining at the back of the line.
+            active.add(t);
+        }
+        count++;
+        return true;
+    }
+
+    @Override
+    protected T head() {
+        if (active.isEmpty()) {
+            return null;
+        }
+        boolean skipped = false;
+        while (true) {
+            // one lap, crediting each tenant as its turn comes around.
+            for (int i = 0; i < active.size(); i++) {
+                Tenant t = active.get(current);
+                if (!credited) {
+                    t.deficit += quantum * t.weight;
+                    credited = true;
+                }
+                if (t.items.peek().cost <= t.deficit) {
+                    return t.items.peek().item;
+                }
+                nextTurn();
+            }
+            if (!skipped) {
+                // Nobody could afford their next item, because it costs more than a quantum. Rather than going round
+                // lap after lap, credit everyone with all but the last of the laps it would take before the first of
+                // them could; that last lap, we go round as usual.
+                long laps = Long.MAX_VALUE;
+                for (Tenant t : active) {
+                    long l = (long) Math.ceil((t.items.peek().cost - t.deficit) / (quantum * t.weight));
+                    laps = Math.min(laps, Math.max(1L, l));
+                }
+                for (Tenant t : active) {
+                    t.deficit += (laps - 1) * quantum * t.weight;
+                }
+                skipped = true;
+            }
+        }
+    }
+
+    private void nextTurn() {
+        current = (current + 1) % active.size();
+        credited = false;
+    }
+
+    @Override
+    protected T dequeue() {
+        Tenant t = active.get(current);
+        Entry<T> e = t.items.poll();
+        t.deficit -= e.cost;
+        count--;
+        t.served(e.cost);
+        if (t.items.isEmpty()) {
+            removeActive(current);
+        }
+        return e.item;
+    }
+
+    /**
+     * Tenant at index i has nothing more queued, so it loses its place and its credit (but not its debt).
+     */
+    private void removeActive(int i) {
+        Tenant t = active.remove(i);
+        t.deficit = Math.min(0.0, t.deficit);
+        if (i < current) {
+            current--;
+        } else if (i == current) {
+            // the next tenant in line slides into this slot.
+            credited = false;
+        }
+        if (current >= active.size()) {
+            current = 0;
+        }
+    }
+
+    @Override
+    protected int count() {
+        return count;
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (int i = 0; i < active.size(); i++) {
+            Tenant t = active.get(i);
+            for (Iterator<Entry<T>> it = t.items.iterator(); it.hasNext(); ) {
+                Entry<T> e = it.next();
+                if (matches(o, e.item, claim)) {
+                    it.remove();
+                    count--;
+                    if (claim) {
+                        t.deficit -= e.cost;
+                        t.served(e.cost);
+                    }
+                    if (t.items.isEmpty()) {
+                        removeActive(i);
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<T> items = new ArrayList<T>(count);
+        List<Iterator<Entry<T>>> its = new ArrayList<Iterator<Entry<T>>>(active.size());
+        for (int i = 0; i < active.size(); i++) {
+            its.add(active.get((current + i) % active.size()).items.iterator());
+        }
+        boolean any = true;
+        while (any) {
+            any = false;
+            for (Iterator<Entry<T>> it : its) {
+                if (it.hasNext()) {
+                    items.add(it.next().item);
+                    any = true;
+                }
+            }
+        }
+        return items;
+    }
+
+    private Tenant getOrCreateTenant(Object key) {
+        Tenant t = tenants.get(key);
+        if (t == null) {
+            t = new Tenant(key);
+            tenants.put(key, t);
+            if (metricsRegistry != null) {
+                t.registerMetrics(metricsRegistry, metricName);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Registers, for each tenant, a gauge of how many items it has queued, a meter of how many it has been given and
+     * a counter of the total cost of those (in hundredths, since counters are longs).
+     */
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        lock.lock();
+        try {
+            this.metricsRegistry = metricsRegistry;
+            this.metricName = name;
+            for (Tenant t : tenants.values()) {
+                t.registerMetrics(metricsRegistry, name);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final double cost;
+
+        Entry(T item, double cost) {
+            this.item = item;
+            this.cost = cost;
+        }
+    }
+
+    private class Tenant {
+        final Object key;
+        final Queue<Entry<T>> items = new ArrayDeque<Entry<T>>();
+        double weight = 1.0;
+        double deficit = 0.0;
+        Meter servedItems = null;
+        Counter servedCost = null;
+
+        Tenant(Object key) {
+            this.key = key;
+        }
+
+        void served(double cost) {
+            if (servedItems != null) {
+                servedItems.mark();
+                servedCost.inc(Math.round(cost * 100.0));
+            }
+        }
+
+        void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+            String tenant = "tenant " + key;
+            servedItems = metricsRegistry.newMeter(new MetricName(TenantFairQueue.class, name, tenant + " served"), "item", TimeUnit.SECONDS);
+            servedCost = metricsRegistry.newCounter(new MetricName(TenantFairQueue.class, name, tenant + " served cost"));
+            metricsRegistry.newGauge(new MetricName(TenantFairQueue.class, name, tenant + " queued"), new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return size(key);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.quantumretail.collections;
+
+/**
+ * Works out which tenant (customer, user, account...) an item belongs to. See {@link TenantFairQueue}.
+ */
+public interface TenantKeyExtractor<T> {
+
+    /**
+     * @return the tenant's key. Keys are compared with equals(), so they should be Strings, Longs or similar. Null is
+     * a valid key; all items without a tenant share it.
+     */
+    Object tenantOf(T item);
+
+}
@@ -0,0 +1,45 @@
+package com.quantumretail.collections;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory methods for the built-in {@link WaitStrategy} implementations, roughly in order of increasing admission
+ * latency and decreasing CPU use.
+ */
+public class WaitStrategies {
+
+    /**
+     * @see BusySpinWaitStrategy
+     */
+    public static WaitStrategy busySpin() {
+        return new BusySpinWaitStrategy();
+    }
+
+    /**
+     * @see YieldingWaitStrategy
+     */
+    public static WaitStrategy yielding() {
+        return new YieldingWaitStrategy();
+    }
+
+    /**
+     * @see BlockingWaitStrategy
+     */
+    public static WaitStrategy blocking(long maxWaitMS) {
+        return new BlockingWaitStrategy(maxWaitMS);
+    }
+
+    /**
+     * @see ParkingBackoffWaitStrategy
+     */
+    public static WaitStrategy parkingBackoff(long minPark, long maxPark, TimeUnit unit) {
+        return new ParkingBackoffWaitStrategy(minPark, maxPark, unit);
+    }
+
+    /**
+     * @see SleepingWaitStrategy
+     */
+    public static WaitStrategy sleeping(long sleepMS) {
+        return new SleepingWaitStrategy(sleepMS);
+    }
+}
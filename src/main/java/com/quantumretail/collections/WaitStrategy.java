@@ -0,0 +1,49 @@
+package com.quantumretail.collections;
+
+/**
+ * How a consumer of a {@link ResourceConstrainingQueue} waits when there's nothing it can take: either the queue is
+ * empty, or we don't have resources for the item at the head of it. The idea is borrowed from LMAX Disruptor's
+ * WaitStrategy classes. It's a tradeoff between how quickly a waiting consumer notices it can proceed and how much CPU
+ * it burns (and how often it wakes up) while it's waiting.
+ * <p/>
+ *
+ * The expected usage is:
+ * <pre>
+ *     int attempt = 0;
+ *     while (true) {
+ *         long token = waitStrategy.prepareToWait();
+ *         if (canProceed()) { ... }
+ *         waitStrategy.await(token, ++attempt, maxWaitNanos);
+ *     }
+ * </pre>
+ * The queue will call {@link #signal(boolean)} when something happens that might let a waiting consumer proceed.
+ * Strategies that don't block are free to ignore it.
+ *
+ * @see WaitStrategies for the built-in implementations.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Called <em>before</em> a consumer checks whether it can proceed. Strategies that can be woken up use the returned
+     * token to notice a signal that arrived between that check and the call to {@link #await(long, int, long)}.
+     */
+    long prepareToWait();
+
+    /**
+     * Wait until it's worth checking again. It's always OK to return early; callers will just check again.
+     *
+     * @param token        the value returned from the last call to {@link #prepareToWait()}
+     * @param attempt      how many times in a row this consumer has come up empty-handed, starting at 1.
+     * @param maxWaitNanos never wait longer than this.
+     */
+    void await(long token, int attempt, long maxWaitNanos) throws InterruptedException;
+
+    /**
+     * Something happened that might let a waiting consumer proceed.
+     *
+     * @param all if false, waking one consumer is enough (e.g., one item was added). If true, wake all of them (e.g., a
+     *            task completed and may have freed up resources for several items).
+     */
+    void signal(boolean all);
+
+}
@@ -0,0 +1,201 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.MetricsAware;
+import com.quantumretail.rcq.predictor.LoadPredictor;
+import com.quantumretail.resourcemon.ResourceKey;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import com.quantumretail.resourcemon.ResourceVector;
+import com.quantumretail.resourcemon.ResourceVectors;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A FIFO queue whose capacity is measured in predicted heap, rather than in items. Each item's predicted
+ * {@link ResourceMonitor#HEAP_MEM} load is worked out by a {@link LoadPredictor} when it's added, and put() blocks (and
+ * offer() fails) while the predicted heap of everything queued, plus the new item, would be more than maxWeight.
+ * <p/>
+ *
+ * Used as the delegate of a {@link ResourceConstrainingQueue}, this pushes back on producers before the backlog itself
+ * uses up the memory that the ConstraintStrategy is waiting for. Weights are in the same units as predicted load: a
+ * fraction of the maximum heap. So a maxWeight of 0.25 means "no more than a quarter of the heap's worth of queued
+ * items".
+ * <p/>
+ *
+ * Optionally, we also check the live HEAP_MEM reading from a ResourceMonitor, and refuse new items while it's over a
+ * threshold. That covers the memory the predictor doesn't know about; it should be a cheap (cached) monitor, since it's
+ * read, under our lock, on every add.
+ * <p/>
+ *
+ * An empty queue always accepts an item, however heavy: otherwise an item predicted to weigh more than maxWeight could
+ * never be added, and a producer blocked on a high live reading would have no consumer to wait for.
+ */
+public class WeightBoundedQueue<T> extends AbstractLockingBlockingQueue<T> implements MetricsAware {
+
+    private final Deque<Entry<T>> items = new ArrayDeque<Entry<T>>();
+    private final LoadPredictor loadPredictor;
+    private final double maxWeight;
+    private final ResourceMonitor liveMonitor;
+    private final double liveThreshold;
+    private final ResourceVector predictScratch = new ResourceVector();
+    private final ResourceVector liveScratch = new ResourceVector();
+    private double weight = 0.0;
+
+    private Meter refusedWeight = null;
+    private Meter refusedLive = null;
+
+    /**
+     * @param maxWeight the most predicted heap we'll hold, as a fraction of the maximum heap.
+     */
+    public WeightBoundedQueue(LoadPredictor loadPredictor, double maxWeight) {
+        this(loadPredictor, maxWeight, null, Double.NaN);
+    }
+
+    /**
+     * @param maxWeight     the most predicted heap we'll hold, as a fraction of the maximum heap.
+     * @param liveMonitor   if not null, we refuse new items while its HEAP_MEM reading is over liveThreshold.
+     * @param liveThreshold the HEAP_MEM reading above which we refuse new items.
+     */
+    public WeightBoundedQueue(LoadPredictor loadPredictor, double maxWeight, ResourceMonitor liveMonitor, double liveThreshold) {
+        super(false, true);
+        if (!(maxWeight > 0.0)) {
+            throw new IllegalArgumentException("maxWeight must be > 0, got " + maxWeight);
+        }
+        if (liveMonitor != null && !(liveThreshold > 0.0)) {
+            throw new IllegalArgumentException("liveThreshold must be > 0, got " + liveThreshold);
+        }
+        this.loadPredictor = loadPredictor;
+        this.maxWeight = maxWeight;
+        this.liveMonitor = liveMonitor;
+        this.liveThreshold = liveThreshold;
+    }
+
+    /**
+     * @return the predicted heap of this item.
+     */
+    protected double weigh(T item) {
+        double w = ResourceVectors.predictLoad(loadPredictor, item, predictScratch).get(ResourceKey.HEAP_MEM);
+        // NaN (no prediction) weighs nothing.
+        return w > 0.0 ? w : 0.0;
+    }
+
+    @Override
+    protected boolean enqueue(T item) {
+        double w = weigh(item);
+        if (!items.isEmpty()) {
+            if (weight + w > maxWeight) {
+                if (refusedWeight != null) {
+                    refusedWeight.mark();
+                }
+                return false;
+            }
+            if (liveMonitor != null && ResourceVectors.getLoad(liveMonitor, liveScratch).get(ResourceKey.HEAP_MEM) > liveThreshold) {
+                if (refusedLive != null) {
+                    refusedLive.mark();
+                }
+                return false;
+            }
+        }
+        items.add(new Entry<T>(item, w));
+        weight += w;
+        return true;
+    }
+
+    @Override
+    protected T head() {
+        Entry<T> e = items.peek();
+        return e == null ? null : e.item;
+    }
+
+    @Override
+    protected T dequeue() {
+        return removed(items.poll()).item;
+    }
+
+    private Entry<T> removed(Entry<T> e) {
+        weight -= e.weight;
+        if (items.isEmpty()) {
+            // don't let rounding errors pile up.
+            weight = 0.0;
+        }
+        return e;
+    }
+
+    @Override
+    protected int count() {
+        return items.size();
+    }
+
+    /**
+     * We can't say how many more items we could take without knowing what they are, so this is 0 if we're full and
+     * Integer.MAX_VALUE otherwise.
+     */
+    @Override
+    protected int remaining() {
+        return weight < maxWeight ? Integer.MAX_VALUE : 0;
+    }
+
+    @Override
+    protected boolean removeItem(Object o, boolean claim) {
+        for (Iterator<Entry<T>> it = items.iterator(); it.hasNext(); ) {
+            Entry<T> e = it.next();
+            if (matches(o, e.item, claim)) {
+                it.remove();
+                removed(e);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected List<T> snapshot() {
+        List<T> l = new ArrayList<T>(items.size());
+        for (Entry<T> e : items) {
+            l.add(e.item);
+        }
+        return l;
+    }
+
+    /**
+     * @return the predicted heap of everything queued, as a fraction of the maximum heap.
+     */
+    public double getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+        refusedWeight = metricsRegistry.newMeter(new MetricName(WeightBoundedQueue.class, name, "refused weight"), "item", TimeUnit.SECONDS);
+        refusedLive = metricsRegistry.newMeter(new MetricName(WeightBoundedQueue.class, name, "refused live heap"), "item", TimeUnit.SECONDS);
+        metricsRegistry.newGauge(new MetricName(WeightBoundedQueue.class, name, "weight"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getWeight();
+            }
+        });
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final double weight;
+
+        Entry(T item, double weight) {
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+}
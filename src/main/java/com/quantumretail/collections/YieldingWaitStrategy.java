@@ -0,0 +1,40 @@
+package com.quantumretail.collections;
+
+/**
+ * Busy-spins for a number of attempts, then calls {@link Thread#yield()} between attempts so that other threads can
+ * use the core. A good compromise between latency and CPU use when there are roughly as many consumers as cores.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    public static final int DEFAULT_SPIN_TRIES = 100;
+
+    final int spinTries;
+
+    public YieldingWaitStrategy() {
+        this(DEFAULT_SPIN_TRIES);
+    }
+
+    public YieldingWaitStrategy(int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    @Override
+    public long prepareToWait() {
+        return 0;
+    }
+
+    @Override
+    public void await(long token, int attempt, long maxWaitNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (attempt > spinTries) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void signal(boolean all) {
+        // spinners don't need to be woken.
+    }
+}
@@ -0,0 +1,117 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.MetricsAware;
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class for strategies that limit how many items can be in flight at once, rather than looking at the load each
+ * item would add. We return an item if the number of tasks our TaskTracker is tracking is below the current limit;
+ * subclasses decide what that limit should be, and move it around as conditions change.
+ * <p/>
+ *
+ * The limit is kept as a double so that subclasses can move it by fractions of a task at a time; the effective limit
+ * is that rounded down, and never less than the minimum.
+ */
+public abstract class AbstractConcurrencyLimitStrategy<T> implements ConstraintStrategy<T>, MetricsAware {
+
+    protected final TaskTracker<T> taskTracker;
+    private final double minLimit;
+    private final double maxLimit;
+    private volatile double limit;
+    private Meter allowed = null;
+    private Meter denied = null;
+
+    protected AbstractConcurrencyLimitStrategy(TaskTracker<T> taskTracker, int minLimit, int maxLimit, int initialLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Expected 1 <= minLimit <= maxLimit, got " + minLimit + " and " + maxLimit);
+        }
+        this.taskTracker = taskTracker;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = clamp(initialLimit);
+    }
+
+    @Override
+    public boolean shouldReturn(T nextItem) {
+        if (getInFlight() < getLimit()) {
+            if (allowed != null) {
+                allowed.mark();
+            }
+            return true;
+        }
+        if (denied != null) {
+            denied.mark();
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of tasks currently being tracked.
+     */
+    public int getInFlight() {
+        return taskTracker.currentTasks().size();
+    }
+
+    /**
+     * @return the current limit on the number of tasks in flight.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the limit before rounding.
+     */
+    protected double getExactLimit() {
+        return limit;
+    }
+
+    /**
+     * Set a new limit, clamped to our minimum and maximum.
+     *
+     * @return the limit we actually set.
+     */
+    protected double setLimit(double newLimit) {
+        if (Double.isNaN(newLimit)) {
+            return limit;
+        }
+        limit = clamp(newLimit);
+        return limit;
+    }
+
+    public int getMinLimit() {
+        return (int) minLimit;
+    }
+
+    public int getMaxLimit() {
+        return (int) maxLimit;
+    }
+
+    private double clamp(double l) {
+        return Math.max(minLimit, Math.min(maxLimit, l));
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricRegistry, String name) {
+        allowed = metricRegistry.newMeter(new MetricName(getClass(), name, "allowed"), "item", TimeUnit.SECONDS);
+        denied = metricRegistry.newMeter(new MetricName(getClass(), name, "denied"), "item", TimeUnit.SECONDS);
+        metricRegistry.newGauge(new MetricName(getClass(), name, "limit"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getLimit();
+            }
+        });
+        metricRegistry.newGauge(new MetricName(getClass(), name, "in-flight"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getInFlight();
+            }
+        });
+    }
+}
@@ -0,0 +1,175 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.EWMA;
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.quantumretail.rcq.predictor.TimedTaskCompletionListener;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A concurrency limit that adapts to how long tasks take to run, in the style of TCP congestion control: additive
+ * increase, multiplicative decrease (AIMD).
+ * <p/>
+ *
+ * Each time a task completes, we compare how long it took (smoothed a little) against a baseline of how long tasks
+ * take when nothing is saturated. If it took more than {@code tolerance} times the baseline, whatever the tasks are waiting on is saturated, so we cut the
+ * limit by {@code backoffRatio}. Otherwise, if we were actually using most of the limit, we raise it by about one task
+ * per limit's worth of completions. After a cut we don't cut again until roughly one task's run time has passed, since
+ * the tasks that complete in the meantime started before the cut. If tasks are still slow even at the minimum limit,
+ * we take that as the new baseline.
+ * <p/>
+ *
+ * This doesn't look at any measured load at all, so it works when the bottleneck is something we can't measure -- a
+ * database, a disk, a lock -- and CPU and heap look fine even as throughput falls apart. To check measured load as
+ * well, make this the delegate of a {@link ThresholdGatedConstraintStrategy}.
+ * <p/>
+ *
+ * We need to hear how long tasks take, so this must be registered as a listener with a
+ * {@link com.quantumretail.rcq.predictor.CallableTaskTracker} (see
+ * {@link ConstraintStrategies#aimdConstraintStrategy(com.quantumretail.rcq.predictor.TaskTracker)}), and the items
+ * themselves must be Runnables or Callables.
+ */
+public class AimdConstraintStrategy<T> extends AbstractConcurrencyLimitStrategy<T> implements TimedTaskCompletionListener {
+    private static final Logger log = LoggerFactory.getLogger(AimdConstraintStrategy.class);
+
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_TOLERANCE = 2.0;
+
+    // how much of each new sample goes into the smoothed latency, and into the baseline.
+    private static final double LATENCY_ALPHA = 0.25;
+    private static final double BASELINE_ALPHA = 0.01;
+
+    private final double backoffRatio;
+    private final double tolerance;
+    private final EWMA.Clock clock;
+
+    private double smoothedNanos = Double.NaN;
+    private double baselineNanos = Double.NaN;
+    private long lastDecreaseNanos;
+    private Meter increases = null;
+    private Meter decreases = null;
+
+    public AimdConstraintStrategy(TaskTracker<T> taskTracker, int minLimit, int maxLimit, int initialLimit) {
+        this(taskTracker, minLimit, maxLimit, initialLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param backoffRatio multiply the limit by this when latency inflates. Between 0 and 1.
+     * @param tolerance    latency counts as inflated when it's more than this multiple of the baseline.
+     */
+    public AimdConstraintStrategy(TaskTracker<T> taskTracker, int minLimit, int maxLimit, int initialLimit, double backoffRatio, double tolerance) {
+        this(taskTracker, minLimit, maxLimit, initialLimit, backoffRatio, tolerance, new EWMA.SystemClock());
+    }
+
+    /**
+     * This version that takes an explicit Clock is for testing purposes only.
+     */
+    public AimdConstraintStrategy(TaskTracker<T> taskTracker, int minLimit, int maxLimit, int initialLimit, double backoffRatio, double tolerance, EWMA.Clock clock) {
+        super(taskTracker, minLimit, maxLimit, initialLimit);
+        if (!(backoffRatio > 0.0 && backoffRatio < 1.0)) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1, got " + backoffRatio);
+        }
+        if (!(tolerance > 1.0)) {
+            throw new IllegalArgumentException("tolerance must be greater than 1, got " + tolerance);
+        }
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.clock = clock;
+        // so that we can cut the limit right away.
+        this.lastDecreaseNanos = clock.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    }
+
+    @Override
+    public void taskCompleted(Object task) {
+        // we don't know how long it took, so there's nothing to learn from it.
+    }
+
+    @Override
+    public void taskCompleted(Object task, long runTimeNanos) {
+        // completions are comparatively rare, and this is cheap, so a lock is fine.
+        synchronized (this) {
+            onSample(runTimeNanos, getInFlight());
+        }
+    }
+
+    /**
+     * @param inFlight the number of tasks still in flight, not counting this one.
+     */
+    void onSample(long runTimeNanos, int inFlight) {
+        if (Double.isNaN(smoothedNanos)) {
+            smoothedNanos = runTimeNanos;
+            baselineNanos = runTimeNanos;
+        } else {
+            smoothedNanos += LATENCY_ALPHA * (runTimeNanos - smoothedNanos);
+        }
+
+        double limit = getExactLimit();
+        long now = clock.nanoTime();
+        if (smoothedNanos > tolerance * baselineNanos) {
+            if (limit <= getMinLimit()) {
+                // we're as low as we go and it's still slow, so this is just how long tasks take now.
+                baselineNanos = smoothedNanos;
+            } else if (now - lastDecreaseNanos >= smoothedNanos) {
+                lastDecreaseNanos = now;
+                double newLimit = setLimit(limit * backoffRatio);
+                if (decreases != null) {
+                    decreases.mark();
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Latency " + smoothedNanos + "ns is over " + tolerance + "x baseline of " + baselineNanos + "ns; limit is now " + newLimit);
+                }
+            }
+        } else {
+            // the baseline is the no-load latency, so it only learns from samples that aren't inflated, and if we see
+            // something faster, we believe it right away.
+            baselineNanos += BASELINE_ALPHA * (smoothedNanos - baselineNanos);
+            baselineNanos = Math.min(baselineNanos, smoothedNanos);
+            if (inFlight + 1 >= limit / 2) {
+                // only raise the limit if we're anywhere near using it; otherwise fast tasks would push it up forever.
+                setLimit(limit + 1.0 / limit);
+                if (increases != null) {
+                    increases.mark();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the smoothed recent run time of tasks, in the given unit.
+     */
+    public synchronized double getLatency(TimeUnit unit) {
+        return smoothedNanos / unit.toNanos(1);
+    }
+
+    /**
+     * @return our estimate of how long tasks take when nothing is saturated, in the given unit.
+     */
+    public synchronized double getBaselineLatency(TimeUnit unit) {
+        return baselineNanos / unit.toNanos(1);
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricRegistry, String name) {
+        super.registerMetrics(metricRegistry, name);
+        increases = metricRegistry.newMeter(new MetricName(AimdConstraintStrategy.class, name, "limit-increases"), "change", TimeUnit.SECONDS);
+        decreases = metricRegistry.newMeter(new MetricName(AimdConstraintStrategy.class, name, "limit-decreases"), "change", TimeUnit.SECONDS);
+        metricRegistry.newGauge(new MetricName(AimdConstraintStrategy.class, name, "latency-ms"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getLatency(TimeUnit.MILLISECONDS);
+            }
+        });
+        metricRegistry.newGauge(new MetricName(AimdConstraintStrategy.class, name, "baseline-latency-ms"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getBaselineLatency(TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+}
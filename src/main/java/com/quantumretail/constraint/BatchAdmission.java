@@ -0,0 +1,19 @@
+package com.quantumretail.constraint;
+
+/**
+ * One batch's worth of admission decisions.
+ *
+ * @see BatchConstraintStrategy#beginBatch()
+ */
+public interface BatchAdmission<T> {
+
+    /**
+     * Returns true if we have resources for this item on top of everything admitted so far in this batch, and if so,
+     * counts it against the batch.
+     *
+     * @param nextItem
+     * @return
+     */
+    boolean tryAdmit(T nextItem);
+
+}
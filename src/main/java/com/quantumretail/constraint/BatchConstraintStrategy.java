@@ -0,0 +1,20 @@
+package com.quantumretail.constraint;
+
+/**
+ * A ConstraintStrategy that can decide about a whole batch of items at once, from a single look at the current load.
+ *
+ * Asking {@link #shouldReturn(Object)} for each item in a batch means reading the resource monitor for every item, and
+ * (worse) every decision is made against the same load, as if none of the other items in the batch had been handed
+ * out. A batch admission instead takes one snapshot and keeps a running total of what it has admitted so far.
+ *
+ * @see com.quantumretail.collections.ResourceConstrainingQueue#drainAdmissible(java.util.Collection, int)
+ */
+public interface BatchConstraintStrategy<T> extends ConstraintStrategy<T> {
+
+    /**
+     * Start a new batch, based on the load right now.
+     * The returned admission is only meant to be used by one thread, for one batch.
+     */
+    BatchAdmission<T> beginBatch();
+
+}
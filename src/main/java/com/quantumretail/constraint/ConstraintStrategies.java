@@ -80,6 +80,84 @@ public class ConstraintStrategies {
     }
 
 
+    /**
+     * A strategy that treats the thresholds as a budget, and reserves each item's predicted load until the task tracker
+     * tells us it has completed.
+     *
+     * @param taskTracker must be a {@link NotifyingTaskTracker}, so we can give credit back when tasks complete.
+     * @see CreditPoolConstraintStrategy
+     */
+    public static <T> CreditPoolConstraintStrategy<T> creditPoolConstraintStrategy(Map<String, Double> thresholds, TaskTracker<T> taskTracker) {
+        if (!(taskTracker instanceof NotifyingTaskTracker)) {
+            throw new IllegalArgumentException("A credit pool needs to be told when tasks complete, so it needs a NotifyingTaskTracker; got " + taskTracker);
+        }
+        CreditPoolConstraintStrategy<T> strategy = new CreditPoolConstraintStrategy<T>(thresholds, LoadPredictors.defaultLoadPredictor());
+        ((NotifyingTaskTracker<T>) taskTracker).addTaskCompletionListener(strategy);
+        return strategy;
+    }
+
+    /**
+     * A reactive strategy that stops returning items when a resource goes over its threshold, and doesn't start again
+     * until that resource drops below its low watermark.
+     *
+     * @see HysteresisConstraintStrategy
+     */
+    public static <T> HysteresisConstraintStrategy<T> hysteresisConstraintStrategy(Map<String, Double> thresholds, Map<String, Double> lowWatermarks) {
+        return new HysteresisConstraintStrategy<T>(defaultCachingResourceMonitor(), thresholds, lowWatermarks);
+    }
+
+    /**
+     * A strategy that limits the number of tasks in flight, and adjusts that limit every second to keep the measured
+     * load at the given setpoints.
+     *
+     * @param service used to run the controller. Required.
+     * @see PidConstraintStrategy
+     */
+    public static <T> PidConstraintStrategy<T> pidConstraintStrategy(Map<String, Double> setpoints, TaskTracker<T> taskTracker, ScheduledExecutorService service) {
+        int maxLimit = 256;
+        int initialLimit = Runtime.getRuntime().availableProcessors();
+        // output is a number of tasks, error is a fraction of capacity: 10% under the setpoint is worth one more task
+        // right away, and another every two seconds until we get there.
+        PidController controller = new PidController(10.0, 5.0, 0.0, 1, maxLimit, initialLimit);
+        PidConstraintStrategy<T> strategy = new PidConstraintStrategy<T>(defaultCachingResourceMonitor(), setpoints, taskTracker, controller, 1, maxLimit);
+        service.scheduleAtFixedRate(strategy, 1, 1, TimeUnit.SECONDS);
+        return strategy;
+    }
+
+    /**
+     * A strategy that limits the number of tasks in flight, raising the limit while tasks run as fast as usual and
+     * cutting it when they slow down.
+     *
+     * @param taskTracker must be a {@link NotifyingTaskTracker}, so we can hear how long tasks take.
+     * @see AimdConstraintStrategy
+     */
+    public static <T> AimdConstraintStrategy<T> aimdConstraintStrategy(TaskTracker<T> taskTracker) {
+        if (!(taskTracker instanceof NotifyingTaskTracker)) {
+            throw new IllegalArgumentException("An adaptive limit needs to be told when tasks complete, so it needs a NotifyingTaskTracker; got " + taskTracker);
+        }
+        AimdConstraintStrategy<T> strategy = new AimdConstraintStrategy<T>(taskTracker, 1, 1000, Runtime.getRuntime().availableProcessors());
+        ((NotifyingTaskTracker<T>) taskTracker).addTaskCompletionListener(strategy);
+        return strategy;
+    }
+
+    /**
+     * A strategy that limits the number of tasks in flight, and every second moves that limit towards what the ratio of
+     * the shortest run time to the current run time suggests it should be.
+     *
+     * @param taskTracker must be a {@link NotifyingTaskTracker}, so we can hear how long tasks take.
+     * @param service     used to update the limit. Required.
+     * @see GradientConstraintStrategy
+     */
+    public static <T> GradientConstraintStrategy<T> gradientConstraintStrategy(TaskTracker<T> taskTracker, ScheduledExecutorService service) {
+        if (!(taskTracker instanceof NotifyingTaskTracker)) {
+            throw new IllegalArgumentException("An adaptive limit needs to be told when tasks complete, so it needs a NotifyingTaskTracker; got " + taskTracker);
+        }
+        GradientConstraintStrategy<T> strategy = new GradientConstraintStrategy<T>(taskTracker, 1, 1000, Runtime.getRuntime().availableProcessors());
+        ((NotifyingTaskTracker<T>) taskTracker).addTaskCompletionListener(strategy);
+        service.scheduleAtFixedRate(strategy, 1, 1, TimeUnit.SECONDS);
+        return strategy;
+    }
+
     protected static Map<String, Double> defaultThresholds() {
         Map<String, Double> t = new ConcurrentHashMap<String, Double>();
         t.put(ResourceMonitor.CPU, 0.95);
@@ -0,0 +1,183 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.resourcemon.ResourceKey;
+import com.quantumretail.resourcemon.ResourceVector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed budget of credits for each resource, handed out in {@link Lease}s.
+ * <p/>
+ *
+ * Acquiring a lease atomically takes the requested amount of each resource out of the pool, or takes nothing at all if
+ * any of them isn't available; releasing it puts them back. Each of those is a compare-and-set per resource, with no
+ * locking and no allocation beyond the lease itself, so it doesn't matter how many leases are outstanding.
+ * <p/>
+ *
+ * Credits are doubles, stored as their raw long bits so that we can CAS them.
+ */
+public class CreditPool {
+
+    private final String[] resources;
+    private final ResourceKey[] keys;
+    private final double[] budgets;
+    private final AtomicLongArray available;
+
+    /**
+     * @param budgets the number of credits for each resource. Typically the same as the thresholds we'd otherwise use,
+     *                in which case a resource's credits are a fraction of its capacity, just like predicted loads.
+     */
+    public CreditPool(Map<String, Double> budgets) {
+        int n = budgets.size();
+        this.resources = new String[n];
+        this.keys = new ResourceKey[n];
+        this.budgets = new double[n];
+        this.available = new AtomicLongArray(n);
+        int i = 0;
+        for (Map.Entry<String, Double> e : budgets.entrySet()) {
+            resources[i] = e.getKey();
+            keys[i] = ResourceKey.of(e.getKey());
+            this.budgets[i] = e.getValue();
+            available.set(i, Double.doubleToRawLongBits(e.getValue()));
+            i++;
+        }
+    }
+
+    /**
+     * Take the demanded amount of each resource out of the pool, if there's enough of all of them. Resources we don't
+     * have a budget for are ignored.
+     *
+     * @return the lease, or null if we didn't have enough credit (in which case we haven't taken anything).
+     */
+    public Lease tryAcquire(Map<String, Double> demand) {
+        double[] amounts = new double[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            Double d = (demand == null) ? null : demand.get(resources[i]);
+            amounts[i] = (d == null || !(d > 0.0)) ? 0.0 : d;
+        }
+        return acquire(amounts);
+    }
+
+    /**
+     * The ResourceVector version of {@link #tryAcquire(java.util.Map)}.
+     */
+    public Lease tryAcquire(ResourceVector demand) {
+        double[] amounts = new double[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            double d = demand.get(keys[i]);
+            amounts[i] = (d > 0.0) ? d : 0.0;
+        }
+        return acquire(amounts);
+    }
+
+    private Lease acquire(double[] amounts) {
+        for (int i = 0; i < resources.length; i++) {
+            if (amounts[i] > 0.0 && !take(i, amounts[i])) {
+                // give back what we've taken so far.
+                for (int j = 0; j < i; j++) {
+                    give(j, amounts[j]);
+                }
+                return null;
+            }
+        }
+        return new Lease(amounts);
+    }
+
+    private boolean take(int i, double amount) {
+        while (true) {
+            long bits = available.get(i);
+            double current = Double.longBitsToDouble(bits);
+            if (current < amount) {
+                return false;
+            }
+            if (available.compareAndSet(i, bits, Double.doubleToRawLongBits(current - amount))) {
+                return true;
+            }
+        }
+    }
+
+    private void give(int i, double amount) {
+        if (amount <= 0.0) {
+            return;
+        }
+        while (true) {
+            long bits = available.get(i);
+            // rounding errors shouldn't leave us with more than we started with.
+            double updated = Math.min(budgets[i], Double.longBitsToDouble(bits) + amount);
+            if (available.compareAndSet(i, bits, Double.doubleToRawLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the credit currently available for this resource, or NaN if we don't have a budget for it.
+     */
+    public double getAvailable(String resource) {
+        for (int i = 0; i < resources.length; i++) {
+            if (resources[i].equals(resource)) {
+                return Double.longBitsToDouble(available.get(i));
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @return a point-in-time copy of the credit available for each resource.
+     */
+    public Map<String, Double> getAvailable() {
+        Map<String, Double> m = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < resources.length; i++) {
+            m.put(resources[i], Double.longBitsToDouble(available.get(i)));
+        }
+        return m;
+    }
+
+    /**
+     * @return the total budget for each resource.
+     */
+    public Map<String, Double> getBudgets() {
+        Map<String, Double> m = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < resources.length; i++) {
+            m.put(resources[i], budgets[i]);
+        }
+        return Collections.unmodifiableMap(m);
+    }
+
+    /**
+     * Credit taken out of the pool. Release it when the work it was for is done; releasing more than once is harmless.
+     */
+    public class Lease {
+        private final double[] amounts;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(double[] amounts) {
+            this.amounts = amounts;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                for (int i = 0; i < amounts.length; i++) {
+                    give(i, amounts[i]);
+                }
+            }
+        }
+
+        public boolean isReleased() {
+            return released.get();
+        }
+
+        public double getAmount(String resource) {
+            for (int i = 0; i < resources.length; i++) {
+                if (resources[i].equals(resource)) {
+                    return amounts[i];
+                }
+            }
+            return 0.0;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.MetricsAware;
+import com.quantumretail.rcq.predictor.LoadPredictor;
+import com.quantumretail.rcq.predictor.TaskCompletionListener;
+import com.quantumretail.resourcemon.ResourceVector;
+import com.quantumretail.resourcemon.ResourceVectors;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A predictive constraint that keeps its own books instead of asking a ResourceMonitor: the thresholds are a budget
+ * of credits (see {@link CreditPool}), and we return an item only if we can take its predicted load out of the pool.
+ * When the item completes, its credit goes back.
+ * <p/>
+ *
+ * Compared to {@link SimplePredictiveConstraintStrategy} on top of a
+ * {@link com.quantumretail.resourcemon.SimplePredictiveResourceMonitor}, this doesn't have to add up the predicted
+ * load of everything that's in progress for every decision; a decision is a compare-and-set per resource. It also
+ * can't count the same task twice, once as predicted and once as measured load.
+ * <p/>
+ *
+ * We need to hear when tasks complete, so this must be registered as a TaskCompletionListener with a
+ * {@link com.quantumretail.rcq.predictor.NotifyingTaskTracker} (see
+ * {@link ConstraintStrategies#creditPoolConstraintStrategy(java.util.Map, com.quantumretail.rcq.predictor.TaskTracker)}),
+ * and the items themselves must be trackable (Runnables or Callables, for the default TaskTracker). Credit held for
+ * an item that is removed from the queue some other way, and so never runs, can be given back with
+ * {@link #release(Object)}.
+ * <p/>
+ *
+ * Once we've said yes to an item, its credit is set aside until it completes, and we'll keep saying yes to it. That way
+ * it doesn't matter if the consumer we said yes to doesn't end up with that item, because another consumer got to it
+ * first: whoever does get it runs it on the same credit. Credit is held per instance, not per equal item, so two equal
+ * items in flight each hold their own. When the ResourceConstrainingQueue's lookahead said yes to an item but then
+ * couldn't claim it, it gives the credit back with release().
+ */
+public class CreditPoolConstraintStrategy<T> implements ConstraintStrategy<T>, TaskCompletionListener, MetricsAware {
+
+    private final CreditPool pool;
+    private final LoadPredictor loadPredictor;
+    private final ConcurrentMap<ItemKey, CreditPool.Lease> leases = new ConcurrentHashMap<ItemKey, CreditPool.Lease>();
+    private final ThreadLocal<ResourceVector> demandScratch = ResourceVectors.scratch();
+    private Meter allowed = null;
+    private Meter denied = null;
+
+    public CreditPoolConstraintStrategy(Map<String, Double> thresholds, LoadPredictor loadPredictor) {
+        this(new CreditPool(thresholds), loadPredictor);
+    }
+
+    public CreditPoolConstraintStrategy(CreditPool pool, LoadPredictor loadPredictor) {
+        this.pool = pool;
+        this.loadPredictor = loadPredictor;
+    }
+
+    @Override
+    public boolean shouldReturn(T nextItem) {
+        ItemKey key = new ItemKey(nextItem);
+        if (leases.containsKey(key)) {
+            return true;
+        }
+        CreditPool.Lease lease = pool.tryAcquire(ResourceVectors.predictLoad(loadPredictor, nextItem, demandScratch.get()));
+        if (lease == null) {
+            if (denied != null) {
+                denied.mark();
+            }
+            return false;
+        }
+        if (leases.putIfAbsent(key, lease) != null) {
+            // someone else reserved it while we were at it
+            lease.release();
+        }
+        if (allowed != null) {
+            allowed.mark();
+        }
+        return true;
+    }
+
+    @Override
+    public void taskCompleted(Object task) {
+        release(task);
+    }
+
+    /**
+     * Give back the credit held for this item, if any.
+     */
+    public void release(Object item) {
+        CreditPool.Lease lease = leases.remove(new ItemKey(item));
+        if (lease != null) {
+            lease.release();
+        }
+    }
+
+    public CreditPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return how many items are currently holding credit.
+     */
+    public int getLeaseCount() {
+        return leases.size();
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricRegistry, String name) {
+        allowed = metricRegistry.newMeter(new MetricName(CreditPoolConstraintStrategy.class, name, "allowed"), "item", TimeUnit.SECONDS);
+        denied = metricRegistry.newMeter(new MetricName(CreditPoolConstraintStrategy.class, name, "denied"), "item", TimeUnit.SECONDS);
+        metricRegistry.newGauge(new MetricName(CreditPoolConstraintStrategy.class, name, "leases"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return leases.size();
+            }
+        });
+        for (final String resource : pool.getBudgets().keySet()) {
+            metricRegistry.newGauge(new MetricName(CreditPoolConstraintStrategy.class, name, "available " + resource), new Gauge<Double>() {
+                @Override
+                public Double value() {
+                    return pool.getAvailable(resource);
+                }
+            });
+        }
+    }
+
+    /**
+     * Compares items by identity, so that equal items each get a lease of their own.
+     */
+    private static final class ItemKey {
+        final Object item;
+
+        ItemKey(Object item) {
+            this.item = item;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(item);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ItemKey && ((ItemKey) o).item == item;
+        }
+    }
+}
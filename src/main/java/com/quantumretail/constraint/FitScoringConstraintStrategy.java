@@ -0,0 +1,17 @@
+package com.quantumretail.constraint;
+
+/**
+ * A ConstraintStrategy that can tell us not just whether we have resources for an item, but how well it fits into
+ * what we have left. Used to pick among several candidates; see
+ * {@link com.quantumretail.collections.ResourceConstrainingQueue.LookaheadMode#BEST_FIT}.
+ */
+public interface FitScoringConstraintStrategy<T> extends ConstraintStrategy<T> {
+
+    /**
+     * @param nextItem
+     * @return a negative number if we don't have resources for this item; otherwise, a score where higher means a
+     * better fit.
+     */
+    double fitScore(T nextItem);
+
+}
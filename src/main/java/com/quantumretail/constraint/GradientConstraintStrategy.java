@@ -0,0 +1,212 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.EWMA;
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.quantumretail.rcq.predictor.TimedTaskCompletionListener;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrency limit that adapts to how long tasks take to run, by estimating directly how much concurrency the
+ * bottleneck can take rather than probing for it a step at a time like {@link AimdConstraintStrategy}.
+ * <p/>
+ *
+ * Every time we run, we look at the tasks that completed since the last run: their average run time, and how many of
+ * them there were (our throughput). Comparing that run time to the shortest we've seen -- the run time with nothing
+ * queued up in front of the bottleneck -- gives a gradient: 1.0 if tasks are as fast as they get, 0.5 if they take
+ * twice as long. The new limit is the current one times the gradient, plus a little headroom (the square root of the
+ * limit) so that we keep probing for more, and we move part of the way there each run. When service time is stable,
+ * that settles on the right limit in a handful of runs.
+ * <p/>
+ *
+ * By Little's law, the throughput times the no-load run time is the number of tasks the bottleneck can actually work
+ * on at once; anything beyond that is just waiting. We report that as {@link #getEstimatedCapacity()} (and as a
+ * gauge), which is a reasonable size for a thread pool feeding off this queue.
+ * <p/>
+ *
+ * If we only ever run at or above the bottleneck's capacity, we never see the no-load run time, and would take the
+ * queueing delay for part of the service time. So every so often (every {@code probeInterval} runs) we forget the
+ * shortest run time and halve the limit, and learn the shortest run time afresh. That also lets us notice if tasks
+ * have permanently got slower.
+ * <p/>
+ *
+ * This is a Runnable, intended to be run periodically in a separate thread, and it must be registered as a listener
+ * with a {@link com.quantumretail.rcq.predictor.CallableTaskTracker}; see
+ * {@link ConstraintStrategies#gradientConstraintStrategy(com.quantumretail.rcq.predictor.TaskTracker, java.util.concurrent.ScheduledExecutorService)}.
+ */
+public class GradientConstraintStrategy<T> extends AbstractConcurrencyLimitStrategy<T> implements TimedTaskCompletionListener, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(GradientConstraintStrategy.class);
+
+    // how far we move towards the new limit on each run.
+    private static final double SMOOTHING = 0.5;
+    private static final double MIN_GRADIENT = 0.5;
+
+    public static final int DEFAULT_PROBE_INTERVAL = 60;
+
+    private final int probeInterval;
+    private final EWMA.Clock clock;
+    private final AtomicLong completions = new AtomicLong();
+    private final AtomicLong runTimeNanos = new AtomicLong();
+
+    private long lastRunNanos;
+    private int runsSinceProbe = 0;
+    private volatile double minLatencyNanos = Double.NaN;
+    private volatile double latencyNanos = Double.NaN;
+    private volatile double throughputPerSecond = 0.0;
+    private volatile double estimatedCapacity = 0.0;
+
+    public GradientConstraintStrategy(TaskTracker<T> taskTracker, int minLimit, int maxLimit, int initialLimit) {
+        this(taskTracker, minLimit, maxLimit, initialLimit, DEFAULT_PROBE_INTERVAL);
+    }
+
+    /**
+     * @param probeInterval how many runs between re-learning the shortest run time.
+     */
+    public GradientConstraintStrategy(TaskTracker<T> taskTracker, int minLimit, int maxLimit, int initialLimit, int probeInterval) {
+        this(taskTracker, minLimit, maxLimit, initialLimit, probeInterval, new EWMA.SystemClock());
+    }
+
+    /**
+     * This version that takes an explicit Clock is for testing purposes only.
+     */
+    public GradientConstraintStrategy(TaskTracker<T> taskTracker, int minLimit, int maxLimit, int initialLimit, int probeInterval, EWMA.Clock clock) {
+        super(taskTracker, minLimit, maxLimit, initialLimit);
+        if (probeInterval < 1) {
+            throw new IllegalArgumentException("probeInterval must be at least 1, got " + probeInterval);
+        }
+        this.probeInterval = probeInterval;
+        this.clock = clock;
+        this.lastRunNanos = clock.nanoTime();
+    }
+
+    @Override
+    public void taskCompleted(Object task) {
+        // we don't know how long it took, but it still counts towards throughput.
+        completions.incrementAndGet();
+    }
+
+    @Override
+    public void taskCompleted(Object task, long runTimeNanos) {
+        this.runTimeNanos.addAndGet(runTimeNanos);
+        completions.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+        try {
+            update();
+        } catch (RuntimeException e) {
+            // if we let this escape, a ScheduledExecutorService would never run us again.
+            log.error("Error updating concurrency limit", e);
+        }
+    }
+
+    synchronized void update() {
+        long now = clock.nanoTime();
+        long elapsed = now - lastRunNanos;
+        lastRunNanos = now;
+        long count = completions.getAndSet(0);
+        long totalNanos = runTimeNanos.getAndSet(0);
+        if (elapsed > 0) {
+            throughputPerSecond = count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+        if (count == 0 || totalNanos <= 0) {
+            // nothing to learn from.
+            return;
+        }
+
+        double latency = (double) totalNanos / count;
+        latencyNanos = latency;
+        double limit = getExactLimit();
+        if (++runsSinceProbe >= probeInterval) {
+            runsSinceProbe = 0;
+            minLatencyNanos = Double.NaN;
+            double set = setLimit(limit / 2);
+            if (log.isDebugEnabled()) {
+                log.debug("Probing for the shortest run time; limit is now " + set);
+            }
+            return;
+        }
+        double minLatency = minLatencyNanos;
+        if (Double.isNaN(minLatency) || latency < minLatency) {
+            minLatency = latency;
+            minLatencyNanos = minLatency;
+        }
+        estimatedCapacity = throughputPerSecond * minLatency / TimeUnit.SECONDS.toNanos(1);
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, minLatency / latency));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit && getInFlight() < limit / 2) {
+            // we aren't using what we've got, so we've learned nothing about whether we could use more.
+            newLimit = limit;
+        }
+        double set = setLimit(limit + SMOOTHING * (newLimit - limit));
+        if (log.isTraceEnabled()) {
+            log.trace("latency=" + latency + "ns min=" + minLatency + "ns gradient=" + gradient + " limit=" + set + " capacity=" + getEstimatedCapacity());
+        }
+    }
+
+    /**
+     * @return the number of tasks the bottleneck can work on at once, going by Little's law: our recent throughput
+     * times the shortest run time we've seen. 0 until we've seen some tasks complete.
+     */
+    public double getEstimatedCapacity() {
+        return estimatedCapacity;
+    }
+
+    /**
+     * @return tasks completed per second, as of our last run.
+     */
+    public double getThroughput() {
+        return throughputPerSecond;
+    }
+
+    /**
+     * @return the average run time of the tasks that completed before our last run, in the given unit.
+     */
+    public double getLatency(TimeUnit unit) {
+        return latencyNanos / unit.toNanos(1);
+    }
+
+    /**
+     * @return the shortest run time we've seen since we last probed, in the given unit.
+     */
+    public double getMinLatency(TimeUnit unit) {
+        return minLatencyNanos / unit.toNanos(1);
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricRegistry, String name) {
+        super.registerMetrics(metricRegistry, name);
+        metricRegistry.newGauge(new MetricName(GradientConstraintStrategy.class, name, "estimated-capacity"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getEstimatedCapacity();
+            }
+        });
+        metricRegistry.newGauge(new MetricName(GradientConstraintStrategy.class, name, "throughput"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getThroughput();
+            }
+        });
+        metricRegistry.newGauge(new MetricName(GradientConstraintStrategy.class, name, "latency-ms"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getLatency(TimeUnit.MILLISECONDS);
+            }
+        });
+        metricRegistry.newGauge(new MetricName(GradientConstraintStrategy.class, name, "min-latency-ms"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getMinLatency(TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+}
@@ -0,0 +1,219 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.EWMA;
+import com.quantumretail.resourcemon.ResourceKey;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import com.quantumretail.resourcemon.ResourceVector;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reactive constraint with hysteresis. Each resource is either open or closed: it closes when the current load goes
+ * over its threshold (the high watermark), and only opens again once the load drops below its low watermark. We return
+ * items only while every resource is open.
+ * <p/>
+ *
+ * A plain threshold flips between admitting and denying every time the load wobbles around it, and since measured
+ * load lags behind admissions, each flip lets in a burst that overshoots. With a gap between the watermarks, we wait
+ * for the load to actually come down before admitting anything more.
+ * <p/>
+ *
+ * Optionally, a resource must also stay open (or closed) for a minimum time before it can change state again, which
+ * limits how often it can flip however noisy the load is.
+ * <p/>
+ *
+ * As with {@link SimpleReactiveConstraintStrategy}, the thresholds and low watermarks are concurrent maps, so either
+ * can be updated while we're running. A resource without a low watermark uses its threshold for both.
+ */
+public class HysteresisConstraintStrategy<T> extends SimpleReactiveConstraintStrategy<T> {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, Double> lowWatermarks;
+    private final long minOpenNanos;
+    private final long minClosedNanos;
+    private final EWMA.Clock clock;
+    private final ConcurrentMap<String, Gate> gates = new ConcurrentHashMap<String, Gate>();
+    private volatile MetricsRegistry metricsRegistry = null;
+    private volatile String metricName = null;
+
+    public HysteresisConstraintStrategy(ResourceMonitor resourceMonitor, Map<String, Double> thresholds, Map<String, Double> lowWatermarks) {
+        this(resourceMonitor, thresholds, lowWatermarks, 0L, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param minOpen   once a resource opens, it stays open for at least this long, even if the load goes over its
+     *                  threshold again.
+     * @param minClosed once a resource closes, it stays closed for at least this long, even if the load drops below its
+     *                  low watermark.
+     */
+    public HysteresisConstraintStrategy(ResourceMonitor resourceMonitor, Map<String, Double> thresholds, Map<String, Double> lowWatermarks,
+                                        long minOpen, long minClosed, TimeUnit unit) {
+        this(resourceMonitor, thresholds, lowWatermarks, minOpen, minClosed, unit, new EWMA.SystemClock());
+    }
+
+    /**
+     * This version that takes an explicit Clock is for testing purposes only.
+     */
+    public HysteresisConstraintStrategy(ResourceMonitor resourceMonitor, Map<String, Double> thresholds, Map<String, Double> lowWatermarks,
+                                        long minOpen, long minClosed, TimeUnit unit, EWMA.Clock clock) {
+        super(resourceMonitor, thresholds);
+        for (Map.Entry<String, Double> low : lowWatermarks.entrySet()) {
+            Double high = thresholds.get(low.getKey());
+            if (high != null && low.getValue() > high) {
+                throw new IllegalArgumentException("low watermark (" + low.getValue() + ") must not be above threshold (" + high + ") for " + low.getKey());
+            }
+        }
+        if (lowWatermarks instanceof ConcurrentMap) {
+            this.lowWatermarks = (ConcurrentMap<String, Double>) lowWatermarks;
+        } else {
+            this.lowWatermarks = new ConcurrentHashMap<String, Double>(lowWatermarks);
+        }
+        this.minOpenNanos = unit.toNanos(minOpen);
+        this.minClosedNanos = unit.toNanos(minClosed);
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean shouldReturn(T nextItem) {
+        return isUnderThreshold(currentLoad());
+    }
+
+    @Override
+    protected boolean isUnderThreshold(ResourceVector load) {
+        String closedKey = null;
+        double closedValue = Double.NaN;
+        double closedThreshold = Double.NaN;
+        for (Map.Entry<String, Double> t : getThresholds().entrySet()) {
+            double value = load.get(ResourceKey.of(t.getKey()));
+            Gate gate = getOrCreateGate(t.getKey());
+            // we check every resource, even after one is closed, so that they all see the current load.
+            if (!gate.update(value, t.getValue()) && closedKey == null) {
+                closedKey = t.getKey();
+                closedValue = value;
+                closedThreshold = t.getValue();
+            }
+        }
+        if (closedKey != null) {
+            return deny(closedKey, closedValue, closedThreshold);
+        }
+        return allow();
+    }
+
+    @Override
+    protected boolean isUnderThreshold(Map<String, Double> load) {
+        return isUnderThreshold(ResourceVector.fromMap(load));
+    }
+
+    /**
+     * @return true if this resource is currently closed.
+     */
+    public boolean isClosed(String resource) {
+        Gate gate = gates.get(resource);
+        return gate != null && gate.closed;
+    }
+
+    public ConcurrentMap<String, Double> getLowWatermarks() {
+        return lowWatermarks;
+    }
+
+    private Gate getOrCreateGate(String key) {
+        Gate gate = gates.get(key);
+        if (gate == null) {
+            gate = new Gate(key);
+            Gate existing = gates.putIfAbsent(key, gate);
+            if (existing != null) {
+                gate = existing;
+            } else if (metricsRegistry != null) {
+                gate.registerMetrics(metricsRegistry, metricName);
+            }
+        }
+        return gate;
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricRegistry, String name) {
+        super.registerMetrics(metricRegistry, name);
+        this.metricName = name;
+        this.metricsRegistry = metricRegistry;
+        for (Gate gate : gates.values()) {
+            gate.registerMetrics(metricRegistry, name);
+        }
+    }
+
+    /**
+     * The open/closed state of a single resource.
+     */
+    private class Gate {
+        private final String key;
+        private volatile boolean closed = false;
+        private volatile long changedAtNanos;
+        private volatile Meter closings = null;
+        private volatile Meter openings = null;
+
+        Gate(String key) {
+            this.key = key;
+            // a new gate is allowed to close right away.
+            this.changedAtNanos = clock.nanoTime() - minOpenNanos;
+        }
+
+        /**
+         * @return true if we're open after seeing this value.
+         */
+        boolean update(double value, double high) {
+            if (Double.isNaN(value)) {
+                // no value means no change.
+                return !closed;
+            }
+            if (closed) {
+                Double l = lowWatermarks.get(key);
+                double low = (l == null) ? high : l;
+                if (value < low) {
+                    changeState(false, minClosedNanos, value);
+                }
+            } else if (value > high) {
+                changeState(true, minOpenNanos, value);
+            }
+            return !closed;
+        }
+
+        private synchronized void changeState(boolean close, long minDwellNanos, double value) {
+            if (closed == close) {
+                // someone else got here first
+                return;
+            }
+            long now = clock.nanoTime();
+            if (now - changedAtNanos < minDwellNanos) {
+                return;
+            }
+            changedAtNanos = now;
+            closed = close;
+            if (log.isDebugEnabled()) {
+                log.debug((close ? "Closing " : "Opening ") + key + " at " + value);
+            }
+            Meter m = close ? closings : openings;
+            if (m != null) {
+                m.mark();
+            }
+        }
+
+        void registerMetrics(MetricsRegistry metricsRegistry, String name) {
+            closings = metricsRegistry.newMeter(new MetricName(HysteresisConstraintStrategy.class, name, "closed " + key), "transition", TimeUnit.SECONDS);
+            openings = metricsRegistry.newMeter(new MetricName(HysteresisConstraintStrategy.class, name, "opened " + key), "transition", TimeUnit.SECONDS);
+            metricsRegistry.newGauge(new MetricName(HysteresisConstraintStrategy.class, name, "is closed " + key), new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return closed ? 1 : 0;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A constraint that regulates utilization to a setpoint, rather than switching between "yes" and "no" at a threshold.
+ * <p/>
+ *
+ * It limits the number of tasks in flight (see {@link AbstractConcurrencyLimitStrategy}), and a {@link PidController}
+ * moves that limit up or down to bring the measured load to the setpoint -- 0.85 CPU, say. With more than one resource,
+ * the one that is furthest above (or least below) its setpoint drives the controller.
+ * <p/>
+ *
+ * A threshold check on a lagging measurement lets in a burst whenever the load dips below the threshold, which shows up
+ * as a sawtooth; this instead converges on the concurrency that keeps the load at the setpoint, and holds it there.
+ * <p/>
+ *
+ * This is a Runnable, intended to be run periodically in a separate thread (via a ScheduledExecutorService, most
+ * likely); each run reads the resource monitor and updates the limit. See
+ * {@link ConstraintStrategies#pidConstraintStrategy(java.util.Map, com.quantumretail.rcq.predictor.TaskTracker, java.util.concurrent.ScheduledExecutorService)}.
+ * The controller's gains depend on how much load each task adds, so they will probably need tuning; its terms are
+ * exposed as metrics for that purpose.
+ */
+public class PidConstraintStrategy<T> extends AbstractConcurrencyLimitStrategy<T> implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(PidConstraintStrategy.class);
+
+    private final ResourceMonitor resourceMonitor;
+    private final ConcurrentMap<String, Double> setpoints;
+    private final PidController controller;
+
+    /**
+     * @param setpoints  the load we'd like each resource to be at. Like thresholds, these may be updated later.
+     * @param controller its output range should be [minLimit, maxLimit].
+     */
+    public PidConstraintStrategy(ResourceMonitor resourceMonitor, Map<String, Double> setpoints, TaskTracker<T> taskTracker,
+                                 PidController controller, int minLimit, int maxLimit) {
+        super(taskTracker, minLimit, maxLimit, (int) controller.getOutput());
+        this.resourceMonitor = resourceMonitor;
+        if (setpoints instanceof ConcurrentMap) {
+            this.setpoints = (ConcurrentMap<String, Double>) setpoints;
+        } else {
+            this.setpoints = new ConcurrentHashMap<String, Double>(setpoints);
+        }
+        this.controller = controller;
+    }
+
+    @Override
+    public void run() {
+        try {
+            double error = currentError();
+            if (!Double.isNaN(error)) {
+                setLimit(controller.update(error));
+            }
+        } catch (RuntimeException e) {
+            // if we let this escape, a ScheduledExecutorService would never run us again.
+            log.error("Error updating concurrency limit", e);
+        }
+    }
+
+    /**
+     * @return the smallest (setpoint - load) over all resources, or NaN if we don't have a reading for any of them.
+     */
+    double currentError() {
+        Map<String, Double> load = resourceMonitor.getLoad();
+        double error = Double.NaN;
+        for (Map.Entry<String, Double> s : setpoints.entrySet()) {
+            Double value = load.get(s.getKey());
+            if (value != null && !value.isNaN()) {
+                double e = s.getValue() - value;
+                if (Double.isNaN(error) || e < error) {
+                    error = e;
+                }
+            }
+        }
+        return error;
+    }
+
+    public ConcurrentMap<String, Double> getSetpoints() {
+        return setpoints;
+    }
+
+    public PidController getController() {
+        return controller;
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricRegistry, String name) {
+        super.registerMetrics(metricRegistry, name);
+        controller.registerMetrics(metricRegistry, name);
+    }
+}
@@ -0,0 +1,183 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.EWMA;
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A textbook proportional-integral-derivative controller. Given the error (setpoint - measured value) at each step, it
+ * returns an output, clamped to [outputMin, outputMax], that should drive the error towards zero.
+ * <p/>
+ *
+ * To keep the integral term from winding up while the output is pinned at one of its limits -- and then overshooting
+ * for a long time once it comes off it -- we stop integrating whenever the output is saturated and the error would
+ * push it further in the same direction.
+ * <p/>
+ *
+ * The integral term starts out at the initial output, so the first few outputs are close to that rather than to zero.
+ * <p/>
+ *
+ * Not thread-safe: {@link #update(double)} is meant to be called from a single thread, such as a scheduled task. The
+ * getters are safe to call from anywhere (and are exposed as gauges by {@link #registerMetrics}), for tracing what the
+ * controller is doing.
+ */
+public class PidController implements MetricsAware {
+    private static final Logger log = LoggerFactory.getLogger(PidController.class);
+
+    private final double kp;
+    private final double ki;
+    private final double kd;
+    private final double outputMin;
+    private final double outputMax;
+    private final EWMA.Clock clock;
+
+    private long lastUpdateNanos;
+    private boolean first = true;
+    private volatile double lastError = 0.0;
+    private volatile double proportional = 0.0;
+    private volatile double integral;
+    private volatile double derivative = 0.0;
+    private volatile double output;
+
+    /**
+     * @param kp the proportional gain: output per unit of error.
+     * @param ki the integral gain: output per unit of error, per second.
+     * @param kd the derivative gain: output per unit of change in error per second.
+     */
+    public PidController(double kp, double ki, double kd, double outputMin, double outputMax, double initialOutput) {
+        this(kp, ki, kd, outputMin, outputMax, initialOutput, new EWMA.SystemClock());
+    }
+
+    /**
+     * This version that takes an explicit Clock is for testing purposes only.
+     */
+    public PidController(double kp, double ki, double kd, double outputMin, double outputMax, double initialOutput, EWMA.Clock clock) {
+        if (outputMax < outputMin) {
+            throw new IllegalArgumentException("outputMax (" + outputMax + ") is less than outputMin (" + outputMin + ")");
+        }
+        this.kp = kp;
+        this.ki = ki;
+        this.kd = kd;
+        this.outputMin = outputMin;
+        this.outputMax = outputMax;
+        this.clock = clock;
+        this.integral = clamp(initialOutput);
+        this.output = this.integral;
+        this.lastUpdateNanos = clock.nanoTime();
+    }
+
+    /**
+     * @param error the setpoint minus the measured value.
+     * @return the new output.
+     */
+    public double update(double error) {
+        if (Double.isNaN(error)) {
+            return output;
+        }
+        long now = clock.nanoTime();
+        double dt = (now - lastUpdateNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastUpdateNanos = now;
+
+        double p = kp * error;
+        double d = (first || dt <= 0.0) ? 0.0 : kd * (error - lastError) / dt;
+        double i = integral + ki * error * dt;
+
+        double unclamped = p + i + d;
+        if ((unclamped > outputMax && error > 0.0) || (unclamped < outputMin && error < 0.0)) {
+            // anti-windup: we're saturated, and integrating would only make it worse.
+            i = integral;
+            unclamped = p + i + d;
+        }
+        i = clamp(i);
+        double out = clamp(unclamped);
+
+        proportional = p;
+        integral = i;
+        derivative = d;
+        lastError = error;
+        output = out;
+        first = false;
+
+        if (log.isTraceEnabled()) {
+            log.trace("error=" + error + " P=" + p + " I=" + i + " D=" + d + " output=" + out);
+        }
+        return out;
+    }
+
+    /**
+     * Forget our history, and start again from this output.
+     */
+    public void reset(double initialOutput) {
+        integral = clamp(initialOutput);
+        output = integral;
+        proportional = 0.0;
+        derivative = 0.0;
+        lastError = 0.0;
+        first = true;
+        lastUpdateNanos = clock.nanoTime();
+    }
+
+    private double clamp(double v) {
+        return Math.max(outputMin, Math.min(outputMax, v));
+    }
+
+    public double getOutput() {
+        return output;
+    }
+
+    public double getLastError() {
+        return lastError;
+    }
+
+    public double getProportional() {
+        return proportional;
+    }
+
+    public double getIntegral() {
+        return integral;
+    }
+
+    public double getDerivative() {
+        return derivative;
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metricRegistry, String name) {
+        metricRegistry.newGauge(new MetricName(PidController.class, name, "error"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return lastError;
+            }
+        });
+        metricRegistry.newGauge(new MetricName(PidController.class, name, "proportional"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return proportional;
+            }
+        });
+        metricRegistry.newGauge(new MetricName(PidController.class, name, "integral"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return integral;
+            }
+        });
+        metricRegistry.newGauge(new MetricName(PidController.class, name, "derivative"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return derivative;
+            }
+        });
+        metricRegistry.newGauge(new MetricName(PidController.class, name, "output"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return output;
+            }
+        });
+    }
+}
@@ -1,19 +1,29 @@
 package com.quantumretail.constraint;
 
 import com.quantumretail.rcq.predictor.LoadPredictor;
+import com.quantumretail.resourcemon.ResourceKey;
 import com.quantumretail.resourcemon.ResourceMonitor;
+import com.quantumretail.resourcemon.ResourceVector;
+import com.quantumretail.resourcemon.ResourceVectors;
 
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * A simple predictive constraint: it returns "true" if the current load + the predicted load of the new item is below
  * a hardcoded threshold.
  *
+ * In a batch, each item's predicted load is added to a running total on top of a single load reading, so later items
+ * in the batch account for the earlier ones.
+ *
+ * Its fit score is the dot product of the item's predicted load and our remaining headroom (threshold - current load)
+ * across all resources. That favors items that need the most of whatever we have the most of -- so a memory-heavy item
+ * scores well when we're short on CPU but not on memory, and vice versa.
+ *
  */
-public class SimplePredictiveConstraintStrategy<T> extends SimpleReactiveConstraintStrategy<T> {
+public class SimplePredictiveConstraintStrategy<T> extends SimpleReactiveConstraintStrategy<T> implements BatchConstraintStrategy<T>, FitScoringConstraintStrategy<T> {
 
     private final LoadPredictor loadPredictor;
+    private final ThreadLocal<ResourceVector> itemScratch = ResourceVectors.scratch();
 
     public SimplePredictiveConstraintStrategy(ResourceMonitor resourceMonitor, Map<String, Double> thresholds, LoadPredictor loadPredictor) {
         super(resourceMonitor, thresholds);
@@ -25,28 +35,61 @@ public class SimplePredictiveConstraintStrategy<T> extends SimpleReactiveConstra
     public boolean shouldReturn(T nextItem) {
 
         // get current load from resourceMonitor
-        Map<String, Double> load = getResourceMonitor().getLoad();
+        ResourceVector load = currentLoad();
 
-        Map<String, Double> itemLoad = loadPredictor.predictLoad(nextItem);
+        ResourceVector itemLoad = predictLoad(nextItem);
 
         // add this task's points. Does that put us past the threshold?
-        Map<String, Double> newLoad = sum(load, itemLoad);
+        load.add(itemLoad);
 
         //  is current load past the threshold?
-        return isUnderThreshold(newLoad);
+        return isUnderThreshold(load);
     }
 
-    private Map<String, Double> sum(Map<String, Double> load, Map<String, Double> itemLoad) {
-        Map<String, Double> newLoad = new HashMap<String, Double>(load);
-        for (Map.Entry<String, Double> entry : itemLoad.entrySet()) {
-            if (entry.getValue() != null) {
-                if (newLoad.containsKey(entry.getKey())) {
-                    newLoad.put(entry.getKey(), (newLoad.get(entry.getKey()) + entry.getValue()));
-                } else {
-                    newLoad.put(entry.getKey(), entry.getValue());
-                }
+    @Override
+    public double fitScore(T nextItem) {
+        ResourceVector load = currentLoad();
+        ResourceVector itemLoad = predictLoad(nextItem);
+
+        double score = 0.0;
+        for (Map.Entry<String, Double> t : getThresholds().entrySet()) {
+            ResourceKey key = ResourceKey.of(t.getKey());
+            double current = load.get(key);
+            double predicted = itemLoad.get(key);
+            if (Double.isNaN(current) && Double.isNaN(predicted)) {
+                continue;
+            }
+            double c = Double.isNaN(current) ? 0.0 : current;
+            double p = Double.isNaN(predicted) ? 0.0 : predicted;
+            if (c + p > t.getValue()) {
+                return -1.0;
             }
+            score += p * (t.getValue() - c);
         }
-        return newLoad;
+        return score;
+    }
+
+    @Override
+    public BatchAdmission<T> beginBatch() {
+        final ResourceVector runningLoad = currentLoad().copy();
+        final ResourceVector newLoad = new ResourceVector();
+        return new BatchAdmission<T>() {
+            @Override
+            public boolean tryAdmit(T nextItem) {
+                newLoad.copyFrom(runningLoad).add(predictLoad(nextItem));
+                if (isUnderThreshold(newLoad)) {
+                    runningLoad.copyFrom(newLoad);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Predict nextItem's load into a per-thread scratch vector.
+     */
+    private ResourceVector predictLoad(T nextItem) {
+        return ResourceVectors.predictLoad(loadPredictor, nextItem, itemScratch.get());
     }
 }
@@ -3,6 +3,9 @@ package com.quantumretail.constraint;
 import com.quantumretail.MetricsAware;
 import com.quantumretail.resourcemon.ResourceMonitor;
 import com.quantumretail.resourcemon.ResourceMonitorAware;
+import com.quantumretail.resourcemon.ResourceKey;
+import com.quantumretail.resourcemon.ResourceVector;
+import com.quantumretail.resourcemon.ResourceVectors;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricsRegistry;
@@ -28,6 +31,7 @@ public class SimpleReactiveConstraintStrategy<T> implements ConstraintStrategy<T
     private Meter allowed = null;
     private Meter denied = null;
     private String metricName = null;
+    private final ThreadLocal<ResourceVector> loadScratch = ResourceVectors.scratch();
 
     public SimpleReactiveConstraintStrategy(ResourceMonitor resourceMonitor, Map<String, Double> thresholds) {
         this.resourceMonitor = resourceMonitor;
@@ -44,29 +48,56 @@ public class SimpleReactiveConstraintStrategy<T> implements ConstraintStrategy<T
     public boolean shouldReturn(T nextItem) {
 
         // get current load from resourceMonitor
-        Map<String, Double> load = resourceMonitor.getLoad();
+        ResourceVector load = currentLoad();
 
         return isUnderThreshold(load);
     }
 
+    /**
+     * Get the current load from our resourceMonitor into a per-thread scratch vector. The caller may modify it, but
+     * shouldn't hang on to it past the current decision.
+     */
+    protected ResourceVector currentLoad() {
+        return ResourceVectors.getLoad(resourceMonitor, loadScratch.get());
+    }
+
     protected boolean isUnderThreshold(Map<String, Double> load) {
         for (Map.Entry<String, Double> t : thresholds.entrySet()) {
             if (load.containsKey(t.getKey())) {
                 if (load.get(t.getKey()) > t.getValue()) {
-                    if (log.isTraceEnabled()) {
-                        log.trace("Disqualifying because of " + t.getKey() + " (" + load.get(t.getKey()) + " > " + t.getValue() + ")");
-                    }
-                    if (metricRegistry != null) {
-                        Meter denialMeter = getOrCreateDenialMeter(t.getKey());
-                        denialMeter.mark();
-                    }
-                    if (denied != null) {
-                        denied.mark();
-                    }
-                    return false;
+                    return deny(t.getKey(), load.get(t.getKey()), t.getValue());
                 }
             }
         }
+        return allow();
+    }
+
+    protected boolean isUnderThreshold(ResourceVector load) {
+        for (Map.Entry<String, Double> t : thresholds.entrySet()) {
+            double value = load.get(ResourceKey.of(t.getKey()));
+            // NaN (no value) is never over the threshold.
+            if (value > t.getValue()) {
+                return deny(t.getKey(), value, t.getValue());
+            }
+        }
+        return allow();
+    }
+
+    protected boolean deny(String key, double value, double threshold) {
+        if (log.isTraceEnabled()) {
+            log.trace("Disqualifying because of " + key + " (" + value + " > " + threshold + ")");
+        }
+        if (metricRegistry != null) {
+            Meter denialMeter = getOrCreateDenialMeter(key);
+            denialMeter.mark();
+        }
+        if (denied != null) {
+            denied.mark();
+        }
+        return false;
+    }
+
+    protected boolean allow() {
         if (allowed != null) {
             allowed.mark();
         }
@@ -0,0 +1,74 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.resourcemon.Threshold;
+import com.quantumretail.resourcemon.ThresholdListener;
+import com.quantumretail.resourcemon.ThresholdWatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reactive constraint that doesn't look at the load at all when deciding: a {@link ThresholdWatcher} does that on
+ * its own schedule, and we just check whether any of our {@link Threshold}s is currently above its high watermark.
+ * That's one volatile read per resource per decision, with no maps and no monitor calls.
+ * <p/>
+ *
+ * Because thresholds have hysteresis, once a resource goes over its high watermark we keep saying no until it drops
+ * below its low watermark, rather than flapping around a single threshold.
+ * <p/>
+ *
+ * If we're given a delegate strategy, we'll ask it as well once all the gates are open; that way a predictive strategy
+ * only runs when the measured load is comfortably low.
+ */
+public class ThresholdGatedConstraintStrategy<T> implements ConstraintStrategy<T> {
+
+    private final Threshold[] gates;
+    private final ConstraintStrategy<T> delegate;
+
+    /**
+     * @param highWatermarks we stop returning items when a resource goes over its high watermark...
+     * @param lowWatermarks  ...and start again when it drops below its low watermark. Resources without a low
+     *                       watermark use the high watermark for both.
+     */
+    public ThresholdGatedConstraintStrategy(ThresholdWatcher watcher, Map<String, Double> highWatermarks, Map<String, Double> lowWatermarks) {
+        this(watcher, highWatermarks, lowWatermarks, null);
+    }
+
+    public ThresholdGatedConstraintStrategy(ThresholdWatcher watcher, Map<String, Double> highWatermarks, Map<String, Double> lowWatermarks, ConstraintStrategy<T> delegate) {
+        List<Threshold> t = new ArrayList<Threshold>(highWatermarks.size());
+        for (Map.Entry<String, Double> e : highWatermarks.entrySet()) {
+            Double low = (lowWatermarks == null) ? null : lowWatermarks.get(e.getKey());
+            t.add(watcher.watch(e.getKey(), e.getValue(), (low == null) ? e.getValue() : low));
+        }
+        this.gates = t.toArray(new Threshold[t.size()]);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean shouldReturn(T nextItem) {
+        for (Threshold gate : gates) {
+            if (gate.isAbove()) {
+                return false;
+            }
+        }
+        return delegate == null || delegate.shouldReturn(nextItem);
+    }
+
+    /**
+     * Listen to all of our thresholds. For example, to wake up waiting consumers when a resource drops back below its
+     * low watermark.
+     */
+    public void addListener(ThresholdListener listener) {
+        for (Threshold gate : gates) {
+            gate.addListener(listener);
+        }
+    }
+
+    public List<Threshold> getThresholds() {
+        List<Threshold> l = new ArrayList<Threshold>(gates.length);
+        Collections.addAll(l, gates);
+        return Collections.unmodifiableList(l);
+    }
+}
@@ -1,19 +1,30 @@
 package com.quantumretail.rcq.predictor;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Assumes that the items we're tracking implement either {@link java.util.concurrent.Callable} or {@link Runnable},
  * and tracks their execution by wrapping them in a wrapper Callable or Runnable that notifies this class when they are
  * complete.
  *
+ * Interested parties can register a {@link TaskCompletionListener} to be told when a wrapped task finishes, or a
+ * {@link TimedTaskCompletionListener} to also be told how long it ran for.
+ *
  */
-public class CallableTaskTracker implements TaskTracker {
+public class CallableTaskTracker implements NotifyingTaskTracker {
+    private static final Logger log = LoggerFactory.getLogger(CallableTaskTracker.class);
+
     final ConcurrentMap<Object, Object> tasks = new ConcurrentHashMap<Object, Object>();
+    final List<TaskCompletionListener> listeners = new CopyOnWriteArrayList<TaskCompletionListener>();
 
     @Override
     public Collection<Object> currentTasks() {
@@ -42,7 +53,46 @@ public class CallableTaskTracker implements TaskTracker {
     }
 
     protected void removeTask(Object id) {
-        tasks.remove(id);
+        removeTask(id, -1L);
+    }
+
+    /**
+     * @param runTimeNanos how long the task ran for, or a negative number if we don't know.
+     */
+    protected void removeTask(Object id, long runTimeNanos) {
+        Object task = tasks.remove(id);
+        if (task != null) {
+            notifyListeners(task, runTimeNanos);
+        }
+    }
+
+    protected void notifyListeners(Object task) {
+        notifyListeners(task, -1L);
+    }
+
+    protected void notifyListeners(Object task, long runTimeNanos) {
+        for (TaskCompletionListener listener : listeners) {
+            try {
+                if (runTimeNanos >= 0 && listener instanceof TimedTaskCompletionListener) {
+                    ((TimedTaskCompletionListener) listener).taskCompleted(task, runTimeNanos);
+                } else {
+                    listener.taskCompleted(task);
+                }
+            } catch (RuntimeException e) {
+                // one misbehaving listener shouldn't keep the others from hearing about it, or blow up the task itself.
+                log.error("Error notifying " + listener + " that " + task + " completed", e);
+            }
+        }
+    }
+
+    @Override
+    public void addTaskCompletionListener(TaskCompletionListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeTaskCompletionListener(TaskCompletionListener listener) {
+        listeners.remove(listener);
     }
 
     protected Runnable wrapRunnable(final Runnable nextItem, final Object id) {
@@ -50,10 +100,11 @@ public class CallableTaskTracker implements TaskTracker {
 
             @Override
             public void run() {
+                long start = System.nanoTime();
                 try {
                     nextItem.run();
                 } finally {
-                    removeTask(id);
+                    removeTask(id, System.nanoTime() - start);
                 }
             }
         };
@@ -64,10 +115,11 @@ public class CallableTaskTracker implements TaskTracker {
         return new Callable() {
             @Override
             public Object call() throws Exception {
+                long start = System.nanoTime();
                 try {
                     return c.call();
                 } finally {
-                    removeTask(id);
+                    removeTask(id, System.nanoTime() - start);
                 }
             }
         };
@@ -1,5 +1,7 @@
 package com.quantumretail.rcq.predictor;
 
+import com.quantumretail.resourcemon.ResourceVector;
+
 import java.util.Collections;
 import java.util.Map;
 
@@ -7,13 +9,15 @@ import java.util.Map;
  * Braindead load "predictor" that doesn't predict anything. But might be helpful in some simple cases.
  *
  */
-public class ConstantLoadPredictor extends ScalingLoadPredictor {
+public class ConstantLoadPredictor extends ScalingLoadPredictor implements VectorLoadPredictor {
 
     Map<String, Double> load;
+    private final ResourceVector loadVector;
 
     public ConstantLoadPredictor(Map<String, Double> load, Map<String, Double> scalingFactor) {
         super(scalingFactor);
         this.load = Collections.unmodifiableMap(load);
+        this.loadVector = ResourceVector.fromMap(load);
     }
 
     @Override
@@ -21,5 +25,11 @@ public class ConstantLoadPredictor extends ScalingLoadPredictor {
         return applyScalingFactor(load);
     }
 
+    @Override
+    public void predictLoad(Object o, ResourceVector into) {
+        into.copyFrom(loadVector);
+        applyScalingFactor(into);
+    }
+
 
 }
@@ -1,5 +1,6 @@
 package com.quantumretail.rcq.predictor;
 
+import com.quantumretail.resourcemon.ResourceVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,4 +31,14 @@ public class LoadAwareLoadPredictor extends ConstantLoadPredictor {
         }
         return m;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void predictLoad(Object o, ResourceVector into) {
+        if (o instanceof LoadAware) {
+            into.copyFrom(((LoadAware) o).load());
+            applyScalingFactor(into);
+        } else {
+            super.predictLoad(o, into);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.quantumretail.rcq.predictor;
+
+/**
+ * A TaskTracker that can tell interested parties when a task it is tracking completes. This lets consumers react to
+ * resources being freed up rather than having to poll for it.
+ */
+public interface NotifyingTaskTracker<T> extends TaskTracker<T> {
+
+    void addTaskCompletionListener(TaskCompletionListener listener);
+
+    void removeTaskCompletionListener(TaskCompletionListener listener);
+
+}
@@ -1,9 +1,13 @@
 package com.quantumretail.rcq.predictor;
 
+import com.quantumretail.resourcemon.ResourceKey;
+import com.quantumretail.resourcemon.ResourceVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,9 +34,11 @@ public abstract class ScalingLoadPredictor implements AdjustableLoadPredictor {
     protected static final double MAX_BOUND = 0.99999;
 
     private Map<String, Double> scalingFactor;
+    // the same scaling factors, ready for use on a ResourceVector.
+    private volatile VectorScaling vectorScaling;
 
     public ScalingLoadPredictor(Map<String, Double> scalingFactor) {
-        this.scalingFactor = scalingFactor;
+        setScalingFactor(scalingFactor);
     }
 
     /**
@@ -55,12 +61,28 @@ public abstract class ScalingLoadPredictor implements AdjustableLoadPredictor {
         return returnMap;
     }
 
+    /**
+     * The ResourceVector version of {@link #applyScalingFactor(java.util.Map)}; scales v in place.
+     * Note that this only sees changes to the scaling factors made through {@link #setScalingFactor(java.util.Map)}.
+     */
+    protected void applyScalingFactor(ResourceVector v) {
+        VectorScaling scaling = vectorScaling;
+        ResourceKey[] keys = scaling.keys;
+        double[] factors = scaling.factors;
+        for (int i = 0; i < keys.length; i++) {
+            double value = v.get(keys[i]);
+            if (!Double.isNaN(value)) {
+                v.set(keys[i], bound(value / factors[i]));
+            }
+        }
+    }
+
     /**
      * Bound the new value so that 0.00001 <= v <= 0.99999
      * @param v
      * @return
      */
-    protected Double bound(double v) {
+    protected double bound(double v) {
         if (v < MIN_BOUND) {
             return MIN_BOUND;
         } else if (v > MAX_BOUND) {
@@ -75,5 +97,34 @@ public abstract class ScalingLoadPredictor implements AdjustableLoadPredictor {
 
     public void setScalingFactor(Map<String, Double> scalingFactor) {
         this.scalingFactor = scalingFactor;
+        this.vectorScaling = new VectorScaling(scalingFactor);
+    }
+
+    /**
+     * Only the scaling factors that actually change something, as parallel arrays.
+     */
+    private static final class VectorScaling {
+        final ResourceKey[] keys;
+        final double[] factors;
+
+        VectorScaling(Map<String, Double> scalingFactor) {
+            List<ResourceKey> keys = new ArrayList<ResourceKey>();
+            List<Double> factors = new ArrayList<Double>();
+            if (scalingFactor != null) {
+                for (Map.Entry<String, Double> e : scalingFactor.entrySet()) {
+                    Double sf = e.getValue();
+                    if (sf != null && sf != 0 && sf != 1) {  // same rules as applyScalingFactor(Map)
+                        keys.add(ResourceKey.of(e.getKey()));
+                        factors.add(sf);
+                    }
+                }
+            }
+            double[] f = new double[factors.size()];
+            for (int i = 0; i < f.length; i++) {
+                f[i] = factors.get(i);
+            }
+            this.keys = keys.toArray(new ResourceKey[keys.size()]);
+            this.factors = f;
+        }
     }
 }
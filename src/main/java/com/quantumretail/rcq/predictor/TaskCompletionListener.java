@@ -0,0 +1,15 @@
+package com.quantumretail.rcq.predictor;
+
+/**
+ * Notified by a {@link NotifyingTaskTracker} when a task that it is tracking has finished executing (successfully or
+ * not). Implementations are called on the thread that ran the task, so they should return quickly.
+ */
+public interface TaskCompletionListener {
+
+    /**
+     * @param task the item as it was originally registered with the TaskTracker (not the wrapper that was returned
+     *             from {@link TaskTracker#register(Object)}).
+     */
+    void taskCompleted(Object task);
+
+}
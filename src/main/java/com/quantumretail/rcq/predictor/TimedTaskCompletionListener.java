@@ -0,0 +1,16 @@
+package com.quantumretail.rcq.predictor;
+
+/**
+ * A {@link TaskCompletionListener} that also wants to know how long each task took to run. A
+ * {@link CallableTaskTracker} will call {@link #taskCompleted(Object, long)} instead of
+ * {@link #taskCompleted(Object)} for listeners that implement this.
+ */
+public interface TimedTaskCompletionListener extends TaskCompletionListener {
+
+    /**
+     * @param task          the item as it was originally registered with the TaskTracker.
+     * @param runTimeNanos  how long the task took to run, from when the wrapper started running it to when it finished.
+     */
+    void taskCompleted(Object task, long runTimeNanos);
+
+}
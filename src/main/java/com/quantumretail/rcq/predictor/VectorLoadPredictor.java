@@ -0,0 +1,17 @@
+package com.quantumretail.rcq.predictor;
+
+import com.quantumretail.resourcemon.ResourceVector;
+
+/**
+ * A LoadPredictor that can also make its prediction into a {@link ResourceVector}, without allocating a map.
+ *
+ * @see com.quantumretail.resourcemon.ResourceVectors#predictLoad(LoadPredictor, Object, ResourceVector)
+ */
+public interface VectorLoadPredictor extends LoadPredictor {
+
+    /**
+     * Replace the contents of into with the predicted load for o.
+     */
+    void predictLoad(Object o, ResourceVector into);
+
+}
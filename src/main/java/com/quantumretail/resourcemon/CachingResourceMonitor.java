@@ -7,14 +7,17 @@ import java.util.Map;
  * Wraps an existing ResourceMonitor in a friendly memoizing shell. Keeps you from pounding on the wrapped ResourceMonitor so hard.
  *
  * This class avoids locking, so it doesn't *guarantee* that we won't call the ResourceMonitor more often than updateFrequencyMs.
- * But in general use, it will.
+ * But in general use, it will. If you'd rather never call the wrapped ResourceMonitor on the caller's thread at all, see
+ * {@link SampledResourceMonitor}.
  *
  */
-public class CachingResourceMonitor implements ResourceMonitor {
+public class CachingResourceMonitor implements VectorResourceMonitor {
 
-    long lastUpdatedMs = 0;
+    volatile long lastUpdatedMs = 0;
     final long updateFrequencyMs;
-    private Map<String, Double> currentMetrics = null;
+    private volatile Map<String, Double> currentMetrics = null;
+    // the same metrics, for getLoad(ResourceVector). Never modified once it's been published.
+    private volatile ResourceVector currentVector = null;
 
     final ResourceMonitor delegate;
 
@@ -40,8 +43,19 @@ public class CachingResourceMonitor implements ResourceMonitor {
         return currentMetrics;
     }
 
+    @Override
+    public void getLoad(ResourceVector into) {
+        if (lastUpdatedMs + updateFrequencyMs < System.currentTimeMillis()) {
+            reloadMetrics();
+        }
+        into.copyFrom(currentVector);
+    }
+
     private void reloadMetrics() {
         // replace current metrics
-        currentMetrics = delegate.getLoad();
+        Map<String, Double> metrics = delegate.getLoad();
+        currentVector = ResourceVector.fromMap(metrics);
+        currentMetrics = metrics;
+        lastUpdatedMs = System.currentTimeMillis();
     }
 }
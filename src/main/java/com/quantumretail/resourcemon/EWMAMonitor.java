@@ -17,7 +17,7 @@ import java.util.concurrent.TimeUnit;
  * One advantage of the EWMA approach is that we only need to keep the most recent value, instead of all previous entries.
  *
  */
-public class EWMAMonitor implements ResourceMonitor {
+public class EWMAMonitor implements VectorResourceMonitor {
     private static final Logger log = LoggerFactory.getLogger(EWMAMonitor.class);
 
     final ResourceMonitor resourceMonitor;
@@ -61,5 +61,13 @@ public class EWMAMonitor implements ResourceMonitor {
         return ewma.calculate(values);
     }
 
+    /**
+     * Shares its average with {@link #getLoad()}, so callers of either see the same history.
+     */
+    @Override
+    public void getLoad(ResourceVector into) {
+        ewma.calculate(ResourceVectors.getLoad(resourceMonitor, into));
+    }
+
 
 }
\ No newline at end of file
@@ -32,9 +32,10 @@ import java.util.*;
  *
  *
  */
-public class HighestValueAggregateResourceMonitor implements ResourceMonitor {
+public class HighestValueAggregateResourceMonitor implements VectorResourceMonitor {
 
     List<ResourceMonitor> monitors = new ArrayList<ResourceMonitor>();
+    private final ThreadLocal<ResourceVector> scratch = ResourceVectors.scratch();
 
     /**
      * @param monitors later monitors trump earlier ones if they happen to use the same keys.
@@ -51,6 +52,15 @@ public class HighestValueAggregateResourceMonitor implements ResourceMonitor {
         return aggregate(monitors);
     }
 
+    @Override
+    public void getLoad(ResourceVector into) {
+        into.clear();
+        ResourceVector l = scratch.get();
+        for (ResourceMonitor monitor : monitors) {
+            into.max(ResourceVectors.getLoad(monitor, l));
+        }
+    }
+
     private Map<String, Double> aggregate(List<ResourceMonitor> monitors) {
         Map<String, Double> load = new HashMap<String, Double>();
         for (ResourceMonitor monitor : monitors) {
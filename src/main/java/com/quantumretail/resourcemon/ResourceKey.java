@@ -0,0 +1,92 @@
+package com.quantumretail.resourcemon;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An interned resource name, like {@link ResourceMonitor#CPU}. Each distinct name gets exactly one ResourceKey, with
+ * its own small index, so that loads can be kept in a {@link ResourceVector} (an array) instead of a map.
+ * <p/>
+ *
+ * Keys are never forgotten, so don't make them up on the fly from unbounded input.
+ */
+public final class ResourceKey {
+
+    private static final ConcurrentMap<String, ResourceKey> keys = new ConcurrentHashMap<String, ResourceKey>();
+    private static final Object registrationLock = new Object();
+    private static volatile ResourceKey[] byIndex = new ResourceKey[0];
+
+    public static final ResourceKey CPU = of(ResourceMonitor.CPU);
+    public static final ResourceKey HEAP_MEM = of(ResourceMonitor.HEAP_MEM);
+    public static final ResourceKey LOAD_AVERAGE = of(ResourceMonitor.LOAD_AVERAGE);
+
+    private final String name;
+    private final int index;
+
+    private ResourceKey(String name, int index) {
+        this.name = name;
+        this.index = index;
+    }
+
+    /**
+     * @return the one and only key with this name.
+     */
+    public static ResourceKey of(String name) {
+        ResourceKey key = keys.get(name);
+        if (key != null) {
+            return key;
+        }
+        if (name == null) {
+            throw new NullPointerException();
+        }
+        // indexes have to be dense, so registration is serialized; it only happens once per name.
+        synchronized (registrationLock) {
+            key = keys.get(name);
+            if (key == null) {
+                ResourceKey[] old = byIndex;
+                key = new ResourceKey(name, old.length);
+                ResourceKey[] updated = new ResourceKey[old.length + 1];
+                System.arraycopy(old, 0, updated, 0, old.length);
+                updated[old.length] = key;
+                byIndex = updated;
+                keys.put(name, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * @return the key with this name, or null if there isn't one yet. Unlike {@link #of(String)}, this never creates a key.
+     */
+    public static ResourceKey lookup(String name) {
+        return keys.get(name);
+    }
+
+    /**
+     * @return the number of keys so far; every key's index is less than this.
+     */
+    public static int count() {
+        return byIndex.length;
+    }
+
+    /**
+     * @return the key with this index, or null if there isn't one.
+     */
+    public static ResourceKey forIndex(int index) {
+        ResourceKey[] all = byIndex;
+        return (index >= 0 && index < all.length) ? all[index] : null;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
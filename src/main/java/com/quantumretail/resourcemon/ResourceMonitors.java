@@ -4,6 +4,8 @@ import com.quantumretail.rcq.predictor.LoadPredictor;
 import com.quantumretail.rcq.predictor.LoadPredictors;
 import com.quantumretail.rcq.predictor.TaskTracker;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  *Helper factory methods for ResourceMonitors.
  *
@@ -20,6 +22,18 @@ public class ResourceMonitors {
         return new CachingResourceMonitor(new AggregateResourceMonitor(), updateFrequencyMS);
     }
 
+    /**
+     * Measures load on a background thread of its own every updateFrequencyMS, rather than on the caller's thread.
+     * Remember to shut it down when you're done with it.
+     */
+    public static SampledResourceMonitor defaultSampledResourceMonitor(long updateFrequencyMS) {
+        return new SampledResourceMonitor(new AggregateResourceMonitor(), updateFrequencyMS, TimeUnit.MILLISECONDS);
+    }
+
+    public static SampledResourceMonitor defaultSampledResourceMonitor() {
+        return defaultSampledResourceMonitor(DEFAULT_UPDATE_FREQ);
+    }
+
     public static ResourceMonitor defaultPredictiveResourceMonitor(TaskTracker taskTracker) {
         return defaultPredictiveResourceMonitor(taskTracker, LoadPredictors.defaultLoadPredictor());
     }
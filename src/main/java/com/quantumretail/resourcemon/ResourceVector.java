@@ -0,0 +1,247 @@
+package com.quantumretail.resourcemon;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A load (or threshold, or scaling factor...) for each resource, kept in a double[] indexed by
+ * {@link ResourceKey#index()}. Resources we don't have a value for are NaN.
+ * <p/>
+ *
+ * This is the allocation-free counterpart of the Map&lt;String, Double&gt; that ResourceMonitors and LoadPredictors
+ * return: all of the arithmetic happens in place, so a caller can keep a vector around and reuse it for every
+ * decision. That also means a ResourceVector is <em>not</em> thread-safe; don't share one between threads without
+ * copying it.
+ *
+ * @see VectorResourceMonitor
+ * @see com.quantumretail.rcq.predictor.VectorLoadPredictor
+ * @see ResourceVectors
+ */
+public final class ResourceVector {
+
+    private double[] values;
+
+    public ResourceVector() {
+        values = new double[Math.max(ResourceKey.count(), 4)];
+        Arrays.fill(values, Double.NaN);
+    }
+
+    public static ResourceVector fromMap(Map<String, Double> map) {
+        return new ResourceVector().copyFrom(map);
+    }
+
+    /**
+     * @return the value for this resource, or NaN if we don't have one.
+     */
+    public double get(ResourceKey key) {
+        int i = key.index();
+        return (i < values.length) ? values[i] : Double.NaN;
+    }
+
+    public boolean has(ResourceKey key) {
+        return !Double.isNaN(get(key));
+    }
+
+    /**
+     * Set the value for this resource; NaN removes it.
+     */
+    public ResourceVector set(ResourceKey key, double value) {
+        ensureCapacity(key.index() + 1);
+        values[key.index()] = value;
+        return this;
+    }
+
+    public ResourceVector remove(ResourceKey key) {
+        if (key.index() < values.length) {
+            values[key.index()] = Double.NaN;
+        }
+        return this;
+    }
+
+    public ResourceVector clear() {
+        Arrays.fill(values, Double.NaN);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        for (double v : values) {
+            if (!Double.isNaN(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace our contents with other's.
+     */
+    public ResourceVector copyFrom(ResourceVector other) {
+        ensureCapacity(other.values.length);
+        System.arraycopy(other.values, 0, values, 0, other.values.length);
+        if (values.length > other.values.length) {
+            Arrays.fill(values, other.values.length, values.length, Double.NaN);
+        }
+        return this;
+    }
+
+    /**
+     * Replace our contents with the map's. Null values are ignored.
+     */
+    public ResourceVector copyFrom(Map<String, Double> map) {
+        clear();
+        if (map != null) {
+            for (Map.Entry<String, Double> e : map.entrySet()) {
+                if (e.getValue() != null) {
+                    set(ResourceKey.of(e.getKey()), e.getValue());
+                }
+            }
+        }
+        return this;
+    }
+
+    public ResourceVector copy() {
+        return new ResourceVector().copyFrom(this);
+    }
+
+    /**
+     * Add other to this, resource by resource. A resource that only one of us has keeps that value.
+     */
+    public ResourceVector add(ResourceVector other) {
+        ensureCapacity(other.values.length);
+        double[] o = other.values;
+        for (int i = 0; i < o.length; i++) {
+            if (!Double.isNaN(o[i])) {
+                values[i] = Double.isNaN(values[i]) ? o[i] : values[i] + o[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Keep the higher of our value and other's, resource by resource. A resource that only one of us has keeps that
+     * value.
+     */
+    public ResourceVector max(ResourceVector other) {
+        ensureCapacity(other.values.length);
+        double[] o = other.values;
+        for (int i = 0; i < o.length; i++) {
+            if (!Double.isNaN(o[i]) && (Double.isNaN(values[i]) || o[i] > values[i])) {
+                values[i] = o[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Multiply every value by factor.
+     */
+    public ResourceVector scale(double factor) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= factor;
+        }
+        return this;
+    }
+
+    /**
+     * Multiply each of our values by the factor for the same resource. Resources without a factor are unchanged.
+     */
+    public ResourceVector scale(ResourceVector factors) {
+        double[] f = factors.values;
+        int n = Math.min(f.length, values.length);
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(f[i])) {
+                values[i] *= f[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return true if, for any resource we both have, our value is higher than the threshold's.
+     */
+    public boolean exceeds(ResourceVector thresholds) {
+        double[] t = thresholds.values;
+        int n = Math.min(t.length, values.length);
+        for (int i = 0; i < n; i++) {
+            // NaN compares false, so resources that either of us lacks never count.
+            if (values[i] > t[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the sum, over the resources we both have, of our value times other's.
+     */
+    public double dot(ResourceVector other) {
+        double[] o = other.values;
+        int n = Math.min(o.length, values.length);
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(values[i]) && !Double.isNaN(o[i])) {
+                sum += values[i] * o[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return a new map with a value for each resource we have.
+     */
+    public Map<String, Double> toMap() {
+        Map<String, Double> m = new HashMap<String, Double>();
+        for (int i = 0; i < values.length; i++) {
+            if (!Double.isNaN(values[i])) {
+                m.put(ResourceKey.forIndex(i).name(), values[i]);
+            }
+        }
+        return m;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > values.length) {
+            int old = values.length;
+            values = Arrays.copyOf(values, Math.max(n, ResourceKey.count()));
+            Arrays.fill(values, old, values.length, Double.NaN);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ResourceVector)) {
+            return false;
+        }
+        double[] a = values;
+        double[] b = ((ResourceVector) o).values;
+        for (int i = 0; i < Math.max(a.length, b.length); i++) {
+            double x = (i < a.length) ? a[i] : Double.NaN;
+            double y = (i < b.length) ? b[i] : Double.NaN;
+            if (Double.compare(x, y) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < values.length; i++) {
+            if (!Double.isNaN(values[i])) {
+                long bits = Double.doubleToLongBits(values[i]);
+                h = 31 * h + (i ^ (int) (bits ^ (bits >>> 32)));
+            }
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,49 @@
+package com.quantumretail.resourcemon;
+
+import com.quantumretail.rcq.predictor.LoadPredictor;
+import com.quantumretail.rcq.predictor.VectorLoadPredictor;
+
+/**
+ * Adapters between the Map-based ResourceMonitor and LoadPredictor APIs and the {@link ResourceVector} fast path.
+ * These use the fast path when the component supports it, and fall back on converting the map when it doesn't, so
+ * callers needn't care which they've got.
+ */
+public class ResourceVectors {
+
+    /**
+     * Replace the contents of into with the monitor's current load.
+     */
+    public static ResourceVector getLoad(ResourceMonitor monitor, ResourceVector into) {
+        if (monitor instanceof VectorResourceMonitor) {
+            ((VectorResourceMonitor) monitor).getLoad(into);
+        } else {
+            into.copyFrom(monitor.getLoad());
+        }
+        return into;
+    }
+
+    /**
+     * Replace the contents of into with the predictor's predicted load for o.
+     */
+    public static ResourceVector predictLoad(LoadPredictor predictor, Object o, ResourceVector into) {
+        if (predictor instanceof VectorLoadPredictor) {
+            ((VectorLoadPredictor) predictor).predictLoad(o, into);
+        } else {
+            into.copyFrom(predictor.predictLoad(o));
+        }
+        return into;
+    }
+
+    /**
+     * A ThreadLocal holding a ResourceVector per thread, for callers that need scratch space but can't keep their own
+     * (because they're shared between threads).
+     */
+    public static ThreadLocal<ResourceVector> scratch() {
+        return new ThreadLocal<ResourceVector>() {
+            @Override
+            protected ResourceVector initialValue() {
+                return new ResourceVector();
+            }
+        };
+    }
+}
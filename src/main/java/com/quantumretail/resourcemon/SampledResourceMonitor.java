@@ -0,0 +1,167 @@
+package com.quantumretail.resourcemon;
+
+import com.quantumretail.MetricsAware;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Samples another ResourceMonitor in the background, at a fixed rate, and hands out the latest sample.
+ * <p/>
+ *
+ * Unlike {@link CachingResourceMonitor}, the (potentially expensive) delegate is never called on the caller's thread:
+ * a sampler thread takes each sample and publishes it as an immutable {@link Snapshot}, so {@link #getLoad()} is just a
+ * volatile read. The price is that the load can be up to one period old -- or older, if the delegate is slow or
+ * failing. Use {@link #getAge(java.util.concurrent.TimeUnit)} if you need to know.
+ * <p/>
+ *
+ * By default, each SampledResourceMonitor has its own daemon thread; if you have several, you can pass in a shared
+ * ScheduledExecutorService instead. Call {@link #shutdown()} when you're done with it.
+ */
+public class SampledResourceMonitor implements VectorResourceMonitor, MetricsAware {
+    private static final Logger log = LoggerFactory.getLogger(SampledResourceMonitor.class);
+    private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    private final ResourceMonitor delegate;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final ScheduledFuture<?> sampler;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Sample delegate every period, on a daemon thread of our own.
+     */
+    public SampledResourceMonitor(ResourceMonitor delegate, long period, TimeUnit unit) {
+        this(delegate, period, unit, Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "resource-sampler-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        }), true);
+    }
+
+    /**
+     * Sample delegate every period, using the given scheduler. We won't shut the scheduler down.
+     */
+    public SampledResourceMonitor(ResourceMonitor delegate, long period, TimeUnit unit, ScheduledExecutorService scheduler) {
+        this(delegate, period, unit, scheduler, false);
+    }
+
+    private SampledResourceMonitor(ResourceMonitor delegate, long period, TimeUnit unit, ScheduledExecutorService scheduler, boolean ownScheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+        // take the first sample right away, so that there's always a snapshot to hand out.
+        this.snapshot = new Snapshot(delegate.getLoad());
+        this.sampler = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, period, period, unit);
+    }
+
+    void sample() {
+        try {
+            snapshot = new Snapshot(delegate.getLoad());
+        } catch (RuntimeException e) {
+            // if we let this escape, the scheduler would never run us again. Keep the old snapshot; it'll just get older.
+            log.warn("Error sampling " + delegate + "; keeping the previous sample", e);
+        }
+    }
+
+    @Override
+    public Map<String, Double> getLoad() {
+        return snapshot.getLoad();
+    }
+
+    @Override
+    public void getLoad(ResourceVector into) {
+        into.copyFrom(snapshot.vector);
+    }
+
+    /**
+     * @return the latest sample, and when it was taken.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return how long ago the latest sample was taken.
+     */
+    public long getAge(TimeUnit unit) {
+        return snapshot.getAge(unit);
+    }
+
+    /**
+     * Stop sampling. getLoad() will keep returning the last sample.
+     */
+    public void shutdown() {
+        sampler.cancel(false);
+        if (ownScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metrics, String name) {
+        metrics.newGauge(new MetricName(SampledResourceMonitor.class, name, "sample-age-ms"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return getAge(TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * One sample of the delegate's load. Immutable.
+     */
+    public static final class Snapshot {
+        private final Map<String, Double> load;
+        private final ResourceVector vector;
+        private final long timestampNanos;
+        private final long timestampMs;
+
+        Snapshot(Map<String, Double> load) {
+            this.load = Collections.unmodifiableMap(load);
+            this.vector = ResourceVector.fromMap(load);
+            this.timestampNanos = System.nanoTime();
+            this.timestampMs = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the load, as returned by the delegate. Unmodifiable.
+         */
+        public Map<String, Double> getLoad() {
+            return load;
+        }
+
+        /**
+         * @return a copy of the load as a ResourceVector.
+         */
+        public ResourceVector getLoadVector() {
+            return vector.copy();
+        }
+
+        /**
+         * @return when this sample was taken, in System.currentTimeMillis() terms.
+         */
+        public long getTimestampMs() {
+            return timestampMs;
+        }
+
+        public long getAge(TimeUnit unit) {
+            return unit.convert(System.nanoTime() - timestampNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -19,10 +19,11 @@ import java.util.Map;
  * HighestValueAggregateResourceMonitor; that way, you'll be able to react to the predicted load OR real load,
  * whichever is higher.
  */
-public class SimplePredictiveResourceMonitor implements ResourceMonitor {
+public class SimplePredictiveResourceMonitor implements VectorResourceMonitor {
     private static final Logger log = LoggerFactory.getLogger(SimplePredictiveResourceMonitor.class);
     private final TaskTracker taskTracker;
     private final LoadPredictor loadPredictor;
+    private final ThreadLocal<ResourceVector> scratch = ResourceVectors.scratch();
 
 
     public SimplePredictiveResourceMonitor(TaskTracker taskTracker, LoadPredictor loadPredictor) {
@@ -38,6 +39,18 @@ public class SimplePredictiveResourceMonitor implements ResourceMonitor {
         return predictLoadForTasks(tasks);
     }
 
+    /**
+     * The same sum as {@link #getLoad()}, but without the informational ".predicted" and ".tasks" entries.
+     */
+    @Override
+    public void getLoad(ResourceVector into) {
+        into.clear();
+        ResourceVector taskLoad = scratch.get();
+        for (Object task : (Collection<?>) taskTracker.currentTasks()) {
+            into.add(ResourceVectors.predictLoad(loadPredictor, task, taskLoad));
+        }
+    }
+
     private Map<String, Double> predictLoadForTasks(Collection<Object> tasks) {
         Collection<Map<String, Double>> taskLoads = new ArrayList<Map<String, Double>>(tasks.size());
         for (Object task : tasks) {
@@ -0,0 +1,101 @@
+package com.quantumretail.resourcemon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A threshold on one resource, with hysteresis: it goes "above" when the load goes over the high watermark, and only
+ * goes back "below" when the load drops under the low watermark. Thresholds are created and evaluated by a
+ * {@link ThresholdWatcher}; anyone can ask whether one is currently above (a single volatile read) or listen for
+ * crossings.
+ */
+public class Threshold {
+    private static final Logger log = LoggerFactory.getLogger(Threshold.class);
+
+    private final String resource;
+    private final double high;
+    private final double low;
+    private final List<ThresholdListener> listeners = new CopyOnWriteArrayList<ThresholdListener>();
+    private volatile boolean above = false;
+    private volatile boolean cancelled = false;
+
+    Threshold(String resource, double high, double low) {
+        if (low > high) {
+            throw new IllegalArgumentException("low watermark (" + low + ") must not be above high watermark (" + high + ") for " + resource);
+        }
+        this.resource = resource;
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Called by the ThresholdWatcher with each new value.
+     */
+    void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (!above && value > high) {
+            above = true;
+            for (ThresholdListener l : listeners) {
+                try {
+                    l.crossedAbove(this, value);
+                } catch (RuntimeException e) {
+                    log.error("Error notifying " + l + " that " + this + " was crossed", e);
+                }
+            }
+        } else if (above && value < low) {
+            above = false;
+            for (ThresholdListener l : listeners) {
+                try {
+                    l.crossedBelow(this, value);
+                } catch (RuntimeException e) {
+                    log.error("Error notifying " + l + " that " + this + " was crossed", e);
+                }
+            }
+        }
+    }
+
+    public boolean isAbove() {
+        return above;
+    }
+
+    public void addListener(ThresholdListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ThresholdListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stop watching this threshold. It stays in whatever state it was in.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public double getHigh() {
+        return high;
+    }
+
+    public double getLow() {
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        return "Threshold{" + resource + ": " + low + " / " + high + (above ? ", above" : ", below") + "}";
+    }
+}
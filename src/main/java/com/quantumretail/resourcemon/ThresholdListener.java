@@ -0,0 +1,19 @@
+package com.quantumretail.resourcemon;
+
+/**
+ * Told when a resource's load crosses a {@link Threshold}. Called on the {@link ThresholdWatcher}'s thread, so it
+ * shouldn't take long.
+ */
+public interface ThresholdListener {
+
+    /**
+     * The load went above the threshold's high watermark.
+     */
+    void crossedAbove(Threshold threshold, double value);
+
+    /**
+     * The load went back below the threshold's low watermark.
+     */
+    void crossedBelow(Threshold threshold, double value);
+
+}
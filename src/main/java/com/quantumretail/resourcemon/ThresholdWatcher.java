@@ -0,0 +1,78 @@
+package com.quantumretail.resourcemon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A Runnable, intended to run periodically in a separate thread (via a ScheduledExecutorService, most likely) which
+ * reads a ResourceMonitor and checks it against a set of {@link Threshold}s, telling their listeners when they're
+ * crossed. This turns "pull the load and compare it to the thresholds on every decision" into "get told when
+ * something changes": whoever cares can just check {@link Threshold#isAbove()}, or listen.
+ * <p/>
+ *
+ * Since this reads the monitor on its own thread, it's fine to give it an expensive, uncached monitor.
+ */
+public class ThresholdWatcher implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(ThresholdWatcher.class);
+
+    private final ResourceMonitor resourceMonitor;
+    private final List<Threshold> thresholds = new CopyOnWriteArrayList<Threshold>();
+    private final ResourceVector load = new ResourceVector();
+
+    public ThresholdWatcher(ResourceMonitor resourceMonitor) {
+        this.resourceMonitor = resourceMonitor;
+    }
+
+    /**
+     * Start watching a resource. The threshold starts out "below".
+     *
+     * @param high the threshold goes "above" when load goes over this
+     * @param low  and goes back "below" when load goes under this. Use the same value as high for no hysteresis.
+     */
+    public Threshold watch(String resource, double high, double low) {
+        Threshold t = new Threshold(resource, high, low);
+        thresholds.add(t);
+        return t;
+    }
+
+    public Threshold watch(String resource, double high, double low, ThresholdListener listener) {
+        Threshold t = new Threshold(resource, high, low);
+        t.addListener(listener);
+        thresholds.add(t);
+        return t;
+    }
+
+    /**
+     * Read the monitor and check every threshold.
+     */
+    @Override
+    public void run() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            // if we let this escape, a ScheduledExecutorService would never run us again.
+            log.error("Error checking thresholds", e);
+        }
+    }
+
+    /**
+     * Read the monitor and check every threshold. Not meant to be called from more than one thread at a time.
+     */
+    public void check() {
+        ResourceVectors.getLoad(resourceMonitor, load);
+        for (Threshold t : thresholds) {
+            if (t.isCancelled()) {
+                thresholds.remove(t);
+            } else {
+                t.update(load.get(ResourceKey.of(t.getResource())));
+            }
+        }
+    }
+
+    public List<Threshold> getThresholds() {
+        return thresholds;
+    }
+}
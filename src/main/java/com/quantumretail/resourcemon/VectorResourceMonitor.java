@@ -0,0 +1,17 @@
+package com.quantumretail.resourcemon;
+
+/**
+ * A ResourceMonitor that can also report its load into a {@link ResourceVector}, without allocating a map.
+ * Implementations should give the same answer either way (except, perhaps, for purely informational entries in the
+ * map).
+ *
+ * @see ResourceVectors#getLoad(ResourceMonitor, ResourceVector)
+ */
+public interface VectorResourceMonitor extends ResourceMonitor {
+
+    /**
+     * Replace the contents of into with the current load.
+     */
+    void getLoad(ResourceVector into);
+
+}
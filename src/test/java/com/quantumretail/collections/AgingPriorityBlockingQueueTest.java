@@ -0,0 +1,96 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.resourcemon.EWMAMonitorTest;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AgingPriorityBlockingQueueTest {
+
+    private static final PriorityExtractor<Job> BY_PRIORITY = new PriorityExtractor<Job>() {
+        @Override
+        public int priorityOf(Job item) {
+            return item.priority;
+        }
+    };
+
+    @Test
+    public void test_priority_order_without_aging() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        AgingPriorityBlockingQueue<Job> q = new AgingPriorityBlockingQueue<Job>(BY_PRIORITY, 4, 1, TimeUnit.SECONDS, clock);
+        Job low = new Job(3);
+        Job mid = new Job(1);
+        Job high1 = new Job(0);
+        Job high2 = new Job(0);
+        q.addAll(Arrays.asList(low, mid, high1, high2));
+        assertEquals(Arrays.asList(high1, high2, mid, low), new ArrayList<Job>(q));
+        assertSame(high1, q.poll());
+        assertSame(high2, q.poll());
+        assertSame(mid, q.poll());
+        assertSame(low, q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void test_low_priority_is_not_starved() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        AgingPriorityBlockingQueue<Job> q = new AgingPriorityBlockingQueue<Job>(BY_PRIORITY, 4, 1, TimeUnit.SECONDS, clock);
+        MetricsRegistry registry = new MetricsRegistry();
+        q.registerMetrics(registry, "test");
+        Job background = new Job(3);
+        q.offer(background);
+
+        // a steady stream of urgent work, one every 100ms.
+        int polls = 0;
+        Job j;
+        do {
+            clock.value += TimeUnit.MILLISECONDS.toNanos(100);
+            q.offer(new Job(0));
+            j = q.poll();
+            polls++;
+        } while (j != background && polls < 1000);
+
+        assertSame(background, j);
+        // three levels to climb, at one a second.
+        assertEquals(30, polls, 1);
+        Meter aged = (Meter) registry.allMetrics().get(new MetricName(AgingPriorityBlockingQueue.class, "test", "aged"));
+        assertEquals(1, aged.count());
+        Histogram waits = (Histogram) registry.allMetrics().get(new MetricName(AgingPriorityBlockingQueue.class, "test", "wait-ms"));
+        assertEquals(3000.0, waits.max(), 100.0);
+    }
+
+    @Test
+    public void test_oldest_wait_and_remove() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        AgingPriorityBlockingQueue<Job> q = new AgingPriorityBlockingQueue<Job>(BY_PRIORITY, 2, 1, TimeUnit.SECONDS, clock);
+        Job a = new Job(1);
+        Job b = new Job(7); // clamped to 1
+        q.offer(a);
+        clock.value += TimeUnit.SECONDS.toNanos(2);
+        q.offer(b);
+        assertEquals(2, q.size(1));
+        assertEquals(2000, q.getOldestWait(1, TimeUnit.MILLISECONDS));
+        assertEquals(0, q.getOldestWait(0, TimeUnit.MILLISECONDS));
+
+        assertNull(q.pollIf(b));
+        assertTrue(q.remove(a));
+        assertSame(b, q.pollIf(b));
+        assertTrue(q.isEmpty());
+    }
+
+    private static class Job {
+        final int priority;
+
+        Job(int priority) {
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.constraint.ConstraintStrategy;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ChunkedBlockingQueueTest {
+
+    @Test
+    public void test_fifo_across_chunks_and_reuses_them() throws Exception {
+        ChunkedBlockingQueue<Integer> q = new ChunkedBlockingQueue<Integer>(4, 4);
+        assertNull(q.peek());
+        assertNull(q.poll());
+        long allocated = 0;
+        for (int lap = 0; lap < 10; lap++) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(q.offer(i));
+            }
+            assertEquals(10, q.size());
+            // 10 items, plus however far into its chunk the previous lap finished.
+            assertTrue(q.getChunkCount() <= 4);
+            for (int i = 0; i < 10; i++) {
+                assertEquals((Integer) i, q.peek());
+                assertEquals((Integer) i, q.poll());
+            }
+            assertTrue(q.isEmpty());
+            if (lap == 3) {
+                allocated = q.getAllocatedChunkCount();
+            }
+        }
+        // once the pool has filled up, the chunks all come out of it.
+        assertEquals(allocated, q.getAllocatedChunkCount());
+    }
+
+    @Test
+    public void test_pollIf() throws Exception {
+        ChunkedBlockingQueue<String> q = new ChunkedBlockingQueue<String>(2, 1);
+        String a = new String("a");
+        String b = new String("b");
+        String c = new String("c");
+        q.offer(a);
+        q.offer(b);
+        q.offer(c);
+
+        assertNull(q.pollIf(b));
+        // equal, but not the same instance; pollIf is an identity check.
+        assertNull(q.pollIf(new String("a")));
+        assertSame(a, q.pollIf(a));
+        assertNull(q.pollIf(a));
+        assertSame(b, q.pollIf(b));
+        // c is in the next chunk
+        assertSame(c, q.peek());
+        assertSame(c, q.pollIf(c));
+        assertNull(q.peek());
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void test_claimIfPresent() throws Exception {
+        ChunkedBlockingQueue<String> q = new ChunkedBlockingQueue<String>(2, 1);
+        String a1 = new String("a");
+        String a2 = new String("a");
+        String b = new String("b");
+        q.offer(a1);
+        q.offer(a2);
+        q.offer(b);
+
+        // only the instance itself, wherever it is; not the first item equal to it.
+        assertFalse(q.claimIfPresent(new String("a")));
+        assertTrue(q.claimIfPresent(a2));
+        assertFalse(q.claimIfPresent(a2));
+        assertEquals(2, q.size());
+        assertSame(a1, q.poll());
+        assertSame(b, q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void test_remove_from_middle() throws Exception {
+        ChunkedBlockingQueue<Integer> q = new ChunkedBlockingQueue<Integer>(2, 1);
+        q.addAll(Arrays.asList(1, 2, 3, 4, 5));
+        assertTrue(q.remove((Object) 2));
+        assertFalse(q.remove((Object) 2));
+        assertEquals(4, q.size());
+
+        Iterator<Integer> it = q.iterator();
+        assertEquals((Integer) 1, it.next());
+        assertEquals((Integer) 3, it.next());
+        it.remove();
+        assertEquals((Integer) 4, it.next());
+        assertEquals((Integer) 5, it.next());
+        assertFalse(it.hasNext());
+        assertEquals(Arrays.asList(1, 4, 5), new ArrayList<Integer>(q));
+
+        assertTrue(q.remove((Object) 1));
+        // the removed items at the head are skipped over.
+        assertEquals((Integer) 4, q.peek());
+        assertEquals((Integer) 4, q.poll());
+        assertEquals((Integer) 5, q.poll());
+        assertNull(q.poll());
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void test_iterator_survives_consumers_passing_it() throws Exception {
+        ChunkedBlockingQueue<Integer> q = new ChunkedBlockingQueue<Integer>(2, 4);
+        q.addAll(Arrays.asList(0, 1, 2, 3, 4, 5));
+        Iterator<Integer> it = q.iterator();
+        assertEquals((Integer) 0, it.next());
+        // take everything up to 4, recycle those chunks, and fill them with something else.
+        for (int i = 0; i < 4; i++) {
+            q.poll();
+        }
+        q.addAll(Arrays.asList(6, 7, 8));
+        List<Integer> rest = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            rest.add(it.next());
+        }
+        // 1 was already lined up when we took it; after that, we pick up from the head.
+        assertEquals(Arrays.asList(1, 4, 5, 6, 7, 8), rest);
+    }
+
+    @Test
+    public void test_iterator_after_its_chunk_is_recycled() throws Exception {
+        ChunkedBlockingQueue<Integer> q = new ChunkedBlockingQueue<Integer>(2, 4);
+        q.offer(1);
+        q.offer(2);
+        Iterator<Integer> it = q.iterator();
+        assertEquals((Integer) 1, it.next());
+        q.offer(3);
+        q.poll();
+        q.poll();
+        // moves the head on to 3's chunk, and recycles the one the iterator was at the end of.
+        assertEquals((Integer) 3, q.peek());
+        assertEquals((Integer) 2, it.next());
+        assertEquals((Integer) 3, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    @Test(timeout = 30000)
+    public void test_concurrent_producers_and_consumers() throws Exception {
+        final ChunkedBlockingQueue<Integer> q = new ChunkedBlockingQueue<Integer>(64, 4);
+        final int producers = 4;
+        final int consumers = 4;
+        final int perProducer = 50000;
+        final ConcurrentMap<Integer, Boolean> seen = new ConcurrentHashMap<Integer, Boolean>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger consumed = new AtomicInteger();
+        ExecutorService ex = Executors.newFixedThreadPool(producers + consumers);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            futures.add(ex.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < perProducer; i++) {
+                        q.put(base + i);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            final boolean conditional = (c % 2 == 0);
+            futures.add(ex.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    while (consumed.get() < producers * perProducer) {
+                        Integer item;
+                        if (conditional) {
+                            // peek-then-claim, the way ResourceConstrainingQueue does it.
+                            Integer head = q.peek();
+                            item = (head == null) ? null : q.pollIf(head);
+                        } else {
+                            item = q.poll(10, TimeUnit.MILLISECONDS);
+                        }
+                        if (item != null) {
+                            if (seen.putIfAbsent(item, Boolean.TRUE) != null) {
+                                duplicates.incrementAndGet();
+                            }
+                            consumed.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        ex.shutdown();
+        assertEquals(0, duplicates.get());
+        assertEquals(producers * perProducer, seen.size());
+        assertTrue(q.isEmpty());
+        assertEquals(1, q.getChunkCount());
+    }
+
+    @Test(timeout = 10000)
+    public void test_as_rcq_delegate_with_lookahead() throws Exception {
+        ChunkedBlockingQueue<Integer> delegate = new ChunkedBlockingQueue<Integer>(2, 1);
+        ResourceConstrainingQueue<Integer> rcq = ResourceConstrainingQueue.<Integer>builder()
+                .withBlockingQueue(delegate)
+                .withConstraintStrategy(new ConstraintStrategy<Integer>() {
+                    @Override
+                    public boolean shouldReturn(Integer nextItem) {
+                        return nextItem % 2 == 0;
+                    }
+                })
+                .withLookahead(4, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .build();
+        rcq.addAll(Arrays.asList(1, 2, 3, 4));
+        // the odd ones can't go, so we reach past them.
+        assertEquals((Integer) 2, rcq.poll());
+        assertEquals((Integer) 4, rcq.poll());
+        assertNull(rcq.poll());
+        assertEquals(Arrays.asList(1, 3), new ArrayList<Integer>(delegate));
+    }
+}
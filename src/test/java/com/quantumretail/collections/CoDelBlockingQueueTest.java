@@ -0,0 +1,144 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.resourcemon.EWMAMonitorTest;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class CoDelBlockingQueueTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void test_no_drops_below_target() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        clock.value = 1000 * MS;
+        CoDelBlockingQueue<Integer> q = new CoDelBlockingQueue<Integer>(Integer.MAX_VALUE, 5, 100, TimeUnit.MILLISECONDS, null, clock);
+        for (int i = 0; i < 1000; i++) {
+            q.offer(i);
+            clock.value += 4 * MS;
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        assertEquals(0, q.getDroppedCount());
+        assertFalse(q.isDropping());
+    }
+
+    @Test
+    public void test_short_burst_is_not_dropped() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        clock.value = 1000 * MS;
+        CoDelBlockingQueue<Integer> q = new CoDelBlockingQueue<Integer>(Integer.MAX_VALUE, 5, 100, TimeUnit.MILLISECONDS, null, clock);
+        // a burst of 10 items, drained at 1 per 5ms: the queue is above target for well under an interval.
+        for (int i = 0; i < 10; i++) {
+            q.offer(i);
+        }
+        for (int i = 0; i < 10; i++) {
+            clock.value += 5 * MS;
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        assertEquals(0, q.getDroppedCount());
+    }
+
+    @Test
+    public void test_standing_queue_is_dropped_until_sojourn_is_back_under_target() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        clock.value = 1000 * MS;
+        final List<Integer> dropped = new ArrayList<Integer>();
+        CoDelBlockingQueue<Integer> q = new CoDelBlockingQueue<Integer>(Integer.MAX_VALUE, 5, 100, TimeUnit.MILLISECONDS, new DroppedItemHandler<Integer>() {
+            @Override
+            public void itemDropped(Integer item) {
+                dropped.add(item);
+            }
+        }, clock);
+        MetricsRegistry registry = new MetricsRegistry();
+        q.registerMetrics(registry, "test");
+
+        // 10% overload: 11 items arrive every 10ms, but we only get through 10.
+        int next = 0;
+        int served = 0;
+        long maxSojournWhileDropping = 0;
+        for (int tick = 0; tick < 5000; tick++) {
+            q.offer(next++);
+            if (tick % 10 == 0) {
+                q.offer(next++);
+            }
+            clock.value += MS;
+            if (q.poll() != null) {
+                served++;
+            }
+            if (tick > 4000) {
+                maxSojournWhileDropping = Math.max(maxSojournWhileDropping, q.getHeadSojourn(TimeUnit.MILLISECONDS));
+            }
+        }
+        assertTrue(q.getDroppedCount() > 0);
+        assertEquals(q.getDroppedCount(), dropped.size());
+        // without CoDel, we'd have a backlog of 500 items, half a second deep. With it, the backlog stays small.
+        assertTrue("size was " + q.size(), q.size() < 100);
+        assertTrue("sojourn was " + maxSojournWhileDropping, maxSojournWhileDropping < 100);
+        assertEquals(next, served + q.getDroppedCount() + q.size());
+        assertEquals(q.getDroppedCount(), ((Meter) registry.allMetrics().get(new MetricName(CoDelBlockingQueue.class, "test", "dropped"))).count());
+        assertEquals(served, ((Histogram) registry.allMetrics().get(new MetricName(CoDelBlockingQueue.class, "test", "sojourn-ms"))).count());
+
+        // once the overload stops, the backlog drains and we stop dropping.
+        long droppedBefore = q.getDroppedCount();
+        while (!q.isEmpty()) {
+            clock.value += 1 * MS;
+            q.poll();
+        }
+        for (int i = 0; i < 10; i++) {
+            q.offer(i);
+            clock.value += 1 * MS;
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        assertFalse(q.isDropping());
+        assertTrue(q.getDroppedCount() - droppedBefore < 10);
+    }
+
+    @Test
+    public void test_capacity() throws Exception {
+        CoDelBlockingQueue<Integer> q = new CoDelBlockingQueue<Integer>(2, 5, 100, TimeUnit.MILLISECONDS, null);
+        assertTrue(q.offer(1));
+        assertTrue(q.offer(2));
+        assertFalse(q.offer(3));
+        assertEquals(0, q.remainingCapacity());
+        assertTrue(q.remove(1));
+        assertEquals(1, q.remainingCapacity());
+    }
+
+    @Test(timeout = 5000)
+    public void test_drops_while_peeking_wake_producers() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        clock.value = 1000 * MS;
+        final CoDelBlockingQueue<Integer> q = new CoDelBlockingQueue<Integer>(2, 5, 100, TimeUnit.MILLISECONDS, null, clock);
+        q.put(1);
+        q.put(2);
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> put = ex.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    q.put(3);
+                    return null;
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(put.isDone());
+            // nobody takes anything (as when the RCQ won't admit the head); the drops alone have to make room.
+            while (q.getDroppedCount() == 0) {
+                clock.value += 200 * MS;
+                q.peek();
+            }
+            put.get(2, TimeUnit.SECONDS);
+        } finally {
+            ex.shutdownNow();
+        }
+    }
+}
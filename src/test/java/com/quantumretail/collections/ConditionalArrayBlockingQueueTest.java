@@ -0,0 +1,98 @@
+package com.quantumretail.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ConditionalArrayBlockingQueueTest {
+
+    @Test
+    public void test_wraps_around_and_respects_capacity() throws Exception {
+        ConditionalArrayBlockingQueue<Integer> q = new ConditionalArrayBlockingQueue<Integer>(3);
+        for (int round = 0; round < 5; round++) {
+            assertTrue(q.offer(1));
+            assertTrue(q.offer(2));
+            assertTrue(q.offer(3));
+            assertFalse(q.offer(4));
+            assertEquals(0, q.remainingCapacity());
+            assertEquals((Integer) 1, q.poll());
+            assertTrue(q.offer(4));
+            assertEquals(Arrays.asList(2, 3, 4), new ArrayList<Integer>(q));
+            q.clear();
+            assertEquals(3, q.remainingCapacity());
+        }
+    }
+
+    @Test
+    public void test_remove_from_middle_of_wrapped_queue() throws Exception {
+        ConditionalArrayBlockingQueue<Integer> q = new ConditionalArrayBlockingQueue<Integer>(4);
+        q.addAll(Arrays.asList(0, 0, 1, 2));
+        q.poll();
+        q.poll();
+        q.offer(3);
+        q.offer(4);
+        // the queue is now [1, 2, 3, 4], wrapping around the end of the array.
+        assertTrue(q.remove((Object) 2));
+        assertEquals(Arrays.asList(1, 3, 4), new ArrayList<Integer>(q));
+        assertTrue(q.offer(5));
+        assertEquals(Arrays.asList(1, 3, 4, 5), new ArrayList<Integer>(q));
+        assertTrue(q.remove((Object) 1));
+        assertEquals(Arrays.asList(3, 4, 5), new ArrayList<Integer>(q));
+    }
+
+    @Test
+    public void test_pollIf() throws Exception {
+        ConditionalArrayBlockingQueue<String> q = new ConditionalArrayBlockingQueue<String>(10);
+        String a = new String("a");
+        q.offer(a);
+        q.offer("b");
+        assertNull(q.pollIf(new String("a")));
+        assertSame(a, q.pollIf(a));
+        assertEquals("b", q.peek());
+    }
+
+    @Test
+    public void test_claimIfPresent() throws Exception {
+        ConditionalArrayBlockingQueue<String> q = new ConditionalArrayBlockingQueue<String>(10);
+        String a1 = new String("a");
+        String a2 = new String("a");
+        String b = new String("b");
+        q.offer(a1);
+        q.offer(a2);
+        q.offer(b);
+
+        // only the instance itself, wherever it is; not the first item equal to it.
+        assertFalse(q.claimIfPresent(new String("a")));
+        assertTrue(q.claimIfPresent(a2));
+        assertFalse(q.claimIfPresent(a2));
+        assertEquals(2, q.size());
+        assertSame(a1, q.poll());
+        assertSame(b, q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test(timeout = 5000)
+    public void test_put_blocks_until_room() throws Exception {
+        final ConditionalArrayBlockingQueue<Integer> q = new ConditionalArrayBlockingQueue<Integer>(1);
+        q.put(1);
+        assertFalse(q.offer(2, 10, TimeUnit.MILLISECONDS));
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        Future<?> put = ex.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                q.put(2);
+                return null;
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(put.isDone());
+        assertEquals((Integer) 1, q.take());
+        put.get(2, TimeUnit.SECONDS);
+        assertEquals((Integer) 2, q.take());
+        ex.shutdown();
+    }
+}
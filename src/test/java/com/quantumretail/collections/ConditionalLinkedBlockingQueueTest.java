@@ -0,0 +1,161 @@
+package com.quantumretail.collections;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConditionalLinkedBlockingQueueTest {
+
+    @Test
+    public void test_fifo() throws Exception {
+        ConditionalLinkedBlockingQueue<Integer> q = new ConditionalLinkedBlockingQueue<Integer>();
+        assertNull(q.peek());
+        assertNull(q.poll());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertEquals(10, q.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals((Integer) i, q.peek());
+            assertEquals((Integer) i, q.poll());
+        }
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void test_pollIf() throws Exception {
+        ConditionalLinkedBlockingQueue<String> q = new ConditionalLinkedBlockingQueue<String>();
+        String a = new String("a");
+        String b = new String("b");
+        q.offer(a);
+        q.offer(b);
+
+        assertNull(q.pollIf(b));
+        // equal, but not the same instance; pollIf is an identity check.
+        assertNull(q.pollIf(new String("a")));
+        assertSame(a, q.pollIf(a));
+        assertNull(q.pollIf(a));
+        assertSame(b, q.peek());
+        assertEquals(1, q.size());
+    }
+
+    @Test
+    public void test_claimIfPresent() throws Exception {
+        ConditionalLinkedBlockingQueue<String> q = new ConditionalLinkedBlockingQueue<String>();
+        String a1 = new String("a");
+        String a2 = new String("a");
+        String b = new String("b");
+        q.offer(a1);
+        q.offer(a2);
+        q.offer(b);
+
+        // only the instance itself, wherever it is; not the first item equal to it.
+        assertFalse(q.claimIfPresent(new String("a")));
+        assertTrue(q.claimIfPresent(a2));
+        assertFalse(q.claimIfPresent(a2));
+        assertEquals(2, q.size());
+        assertSame(a1, q.poll());
+        assertSame(b, q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void test_remove_from_middle() throws Exception {
+        ConditionalLinkedBlockingQueue<Integer> q = new ConditionalLinkedBlockingQueue<Integer>();
+        q.addAll(Arrays.asList(1, 2, 3, 4));
+        assertTrue(q.remove((Object) 2));
+        assertFalse(q.remove((Object) 2));
+        assertEquals(3, q.size());
+
+        Iterator<Integer> it = q.iterator();
+        assertEquals((Integer) 1, it.next());
+        assertEquals((Integer) 3, it.next());
+        it.remove();
+        assertEquals((Integer) 4, it.next());
+        assertFalse(it.hasNext());
+
+        assertEquals(Arrays.asList(1, 4), new ArrayList<Integer>(q));
+        assertEquals((Integer) 1, q.poll());
+        assertEquals((Integer) 4, q.poll());
+        assertNull(q.poll());
+        assertEquals(0, q.size());
+    }
+
+    @Test(timeout = 5000)
+    public void test_take_waits_for_offer() throws Exception {
+        final ConditionalLinkedBlockingQueue<Integer> q = new ConditionalLinkedBlockingQueue<Integer>();
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        Future<Integer> taken = ex.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return q.take();
+            }
+        });
+        Thread.sleep(50);
+        q.offer(42);
+        assertEquals((Integer) 42, taken.get(2, TimeUnit.SECONDS));
+        assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+        ex.shutdown();
+    }
+
+    /**
+     * Several producers and several consumers (some polling, some using pollIf); every item should come out exactly once.
+     */
+    @Test(timeout = 30000)
+    public void test_concurrent_producers_and_consumers() throws Exception {
+        final ConditionalLinkedBlockingQueue<Integer> q = new ConditionalLinkedBlockingQueue<Integer>();
+        final int producers = 4;
+        final int perProducer = 20000;
+        final int consumers = 4;
+        final Set<Integer> seen = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers * perProducer);
+        ExecutorService ex = Executors.newFixedThreadPool(producers + consumers);
+
+        for (int c = 0; c < consumers; c++) {
+            final boolean conditional = (c % 2 == 0);
+            ex.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while (done.getCount() > 0) {
+                        Integer item;
+                        if (conditional) {
+                            Integer head = q.peek();
+                            item = (head == null) ? null : q.pollIf(head);
+                        } else {
+                            item = q.poll(10, TimeUnit.MILLISECONDS);
+                        }
+                        if (item != null) {
+                            if (!seen.add(item)) {
+                                duplicates.incrementAndGet();
+                            }
+                            done.countDown();
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            ex.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < perProducer; i++) {
+                        q.put(base + i);
+                    }
+                    return null;
+                }
+            });
+        }
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        ex.shutdownNow();
+        assertEquals(0, duplicates.get());
+        assertEquals(producers * perProducer, seen.size());
+        assertTrue(q.isEmpty());
+    }
+}
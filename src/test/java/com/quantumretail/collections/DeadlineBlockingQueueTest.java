@@ -0,0 +1,135 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.constraint.ConstraintStrategy;
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.quantumretail.rcq.predictor.TaskTrackers;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeadlineBlockingQueueTest {
+
+    @Test
+    public void test_earliest_deadline_first() throws Exception {
+        TestDeadlineQueue q = new TestDeadlineQueue(null, true);
+        Job late = new Job(3000);
+        Job soon = new Job(1000);
+        Job soonToo = new Job(1000);
+        Job whenever = new Job(Long.MAX_VALUE);
+        Object noDeadline = "no deadline";
+        q.addAll(Arrays.asList(noDeadline, late, soon, whenever, soonToo));
+        assertEquals(Arrays.asList(soon, soonToo, late, noDeadline, whenever), new ArrayList<Object>(q));
+        assertSame(soon, q.poll());
+        assertSame(soonToo, q.poll());
+        assertSame(late, q.poll());
+        assertSame(noDeadline, q.poll());
+        assertSame(whenever, q.poll());
+    }
+
+    @Test
+    public void test_sheds_expired_items() throws Exception {
+        final List<Object> dropped = new ArrayList<Object>();
+        TestDeadlineQueue q = new TestDeadlineQueue(new DroppedItemHandler<Object>() {
+            @Override
+            public void itemDropped(Object item) {
+                dropped.add(item);
+            }
+        }, true);
+        MetricsRegistry registry = new MetricsRegistry();
+        q.registerMetrics(registry, "test");
+        Job a = new Job(1000);
+        Job b = new Job(2000);
+        Job c = new Job(3000);
+        q.addAll(Arrays.asList(a, b, c));
+
+        q.now = 2500;
+        assertSame(c, q.peek());
+        assertEquals(Arrays.asList(a, b), dropped);
+        assertEquals(1, q.size());
+        assertEquals(2, q.getShedCount());
+        assertEquals(0, q.getLateCount());
+        assertEquals(2, ((Meter) registry.allMetrics().get(new MetricName(DeadlineBlockingQueue.class, "test", "shed"))).count());
+    }
+
+    @Test
+    public void test_counts_late_items_when_not_shedding() throws Exception {
+        TestDeadlineQueue q = new TestDeadlineQueue(null, false);
+        Job a = new Job(1000);
+        Job b = new Job(3000);
+        q.addAll(Arrays.asList(a, b));
+        q.now = 2000;
+        assertSame(a, q.poll());
+        assertSame(b, q.poll());
+        assertEquals(1, q.getLateCount());
+        assertEquals(0, q.getShedCount());
+    }
+
+    @Test
+    public void test_item_waiting_for_resources_is_shed_at_admission() throws Exception {
+        final List<Object> dropped = new ArrayList<Object>();
+        TestDeadlineQueue delegate = new TestDeadlineQueue(new DroppedItemHandler<Object>() {
+            @Override
+            public void itemDropped(Object item) {
+                dropped.add(item);
+            }
+        }, true);
+        final boolean[] allow = {false};
+        TaskTracker<Object> taskTracker = TaskTrackers.defaultTaskTracker();
+        ResourceConstrainingQueue<Object> q = ResourceConstrainingQueue.<Object>builder()
+                .withBlockingQueue(delegate)
+                .withTaskTracker(taskTracker)
+                .withConstraintStrategy(new ConstraintStrategy<Object>() {
+                    @Override
+                    public boolean shouldReturn(Object nextItem) {
+                        return allow[0];
+                    }
+                })
+                .build();
+        // something's in flight, so we'll respect the strategy.
+        taskTracker.register(new Thread());
+
+        Job a = new Job(1000);
+        Job b = new Job(5000);
+        q.offer(a);
+        q.offer(b);
+        assertNull(q.poll());
+
+        delegate.now = 2000;
+        allow[0] = true;
+        assertSame(b, q.poll());
+        assertEquals(Arrays.<Object>asList(a), dropped);
+    }
+
+    private static class TestDeadlineQueue extends DeadlineBlockingQueue<Object> {
+        volatile long now = 0;
+
+        TestDeadlineQueue(DroppedItemHandler<Object> droppedItemHandler, boolean shedExpired) {
+            super(droppedItemHandler, shedExpired);
+        }
+
+        @Override
+        protected long now() {
+            return now;
+        }
+    }
+
+    private static class Job implements DeadlineAware {
+        final long deadline;
+
+        Job(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.quantumretail.collections;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.quantumretail.constraint.ConstraintStrategy;
+import com.quantumretail.rcq.predictor.TaskTrackers;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Compares delegates under ResourceConstrainingQueue admission: several producers put() into a strict RCQ while
+ * several consumers take() from it, with a ConstraintStrategy that always says yes, so that what we're measuring is the
+ * peek-then-remove on the delegate. The RCQ has a task tracker, as strict ones in production do, so for delegates
+ * that aren't ConditionallyRemovableQueues it takes its own lock around that.
+ */
+@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 3)
+public class DelegateQueueMicrobenchmarks extends AbstractBenchmark {
+
+    public static final int COUNT = 200000;
+    public static final int CAPACITY = 1024;
+    public static final int PRODUCERS = 4;
+    public static final int CONSUMERS = 4;
+
+    @Test
+    public void testLinkedBlockingQueue() throws Exception {
+        admit(new LinkedBlockingQueue<Integer>(CAPACITY));
+    }
+
+    @Test
+    public void testArrayBlockingQueue() throws Exception {
+        admit(new ArrayBlockingQueue<Integer>(CAPACITY));
+    }
+
+    @Test
+    public void testConditionalArrayBlockingQueue() throws Exception {
+        admit(new ConditionalArrayBlockingQueue<Integer>(CAPACITY));
+    }
+
+    @Test
+    public void testMpmcArrayBlockingQueue() throws Exception {
+        admit(new MpmcArrayBlockingQueue<Integer>(CAPACITY));
+    }
+
+    // the unbounded ones; compare these with each other, rather than with the bounded ones above.
+
+    @Test
+    public void testUnboundedLinkedBlockingQueue() throws Exception {
+        admit(new LinkedBlockingQueue<Integer>());
+    }
+
+    @Test
+    public void testChunkedBlockingQueue() throws Exception {
+        admit(new ChunkedBlockingQueue<Integer>());
+    }
+
+    private void admit(BlockingQueue<Integer> delegate) throws Exception {
+        final ResourceConstrainingQueue<Integer> q = ResourceConstrainingQueue.<Integer>builder()
+                .withBlockingQueue(delegate)
+                .withTaskTracker(TaskTrackers.<Integer>defaultTaskTracker())
+                .withConstraintStrategy(new ConstraintStrategy<Integer>() {
+                    @Override
+                    public boolean shouldReturn(Integer nextItem) {
+                        return true;
+                    }
+                })
+                // otherwise consumers that find the queue empty sleep for the retry interval, and that's all we'd measure.
+                .signalling(true)
+                .build();
+        ExecutorService ex = Executors.newFixedThreadPool(PRODUCERS + CONSUMERS);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            futures.add(ex.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < COUNT / PRODUCERS; i++) {
+                        q.put(i);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            futures.add(ex.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < COUNT / CONSUMERS; i++) {
+                        q.take();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        ex.shutdown();
+    }
+}
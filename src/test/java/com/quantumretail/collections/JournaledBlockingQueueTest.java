@@ -0,0 +1,203 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.constraint.ConstraintStrategy;
+import com.quantumretail.rcq.predictor.CallableTaskTracker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JournaledBlockingQueueTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("journal", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private JournaledBlockingQueue<String> open(int segmentSize) throws IOException {
+        return new JournaledBlockingQueue<String>(new JavaItemSerializer<String>(), dir, segmentSize, 0, JournaledBlockingQueue.DEFAULT_COMPACTION_RATIO);
+    }
+
+    @Test
+    public void test_replays_unacknowledged_items_in_order() throws Exception {
+        JournaledBlockingQueue<String> q = open(4096);
+        q.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+        String a = q.poll();
+        String b = q.poll();
+        assertEquals("a", a);
+        assertEquals(2, q.getUnacknowledgedCount());
+        assertTrue(q.acknowledge(a));
+        assertFalse(q.acknowledge(a));
+        assertTrue(q.remove("d"));
+        q.close();
+
+        // "b" was taken but never acknowledged, so it comes back.
+        JournaledBlockingQueue<String> replayed = open(4096);
+        assertEquals(Arrays.asList("b", "c", "e"), new ArrayList<String>(replayed));
+        replayed.add("f");
+        replayed.acknowledge(replayed.poll());
+        replayed.close();
+
+        assertEquals(Arrays.asList("c", "e", "f"), new ArrayList<String>(open(4096)));
+    }
+
+    @Test
+    public void test_items_taken_by_lookahead_are_replayed() throws Exception {
+        JournaledBlockingQueue<String> q = open(4096);
+        // no task tracker, since with nothing in progress it would let "a" through anyway.
+        ResourceConstrainingQueue<String> rcq = ResourceConstrainingQueue.<String>builder()
+                .withBlockingQueue(q)
+                .withConstraintStrategy(new ConstraintStrategy<String>() {
+                    @Override
+                    public boolean shouldReturn(String nextItem) {
+                        return !nextItem.equals("a");
+                    }
+                })
+                .strict(true)
+                .withLookahead(4, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .build();
+        rcq.addAll(Arrays.asList("a", "b"));
+        assertEquals("b", rcq.poll());
+        // "b" was taken to run, not cancelled, so it's waiting to be acknowledged.
+        assertEquals(1, q.getUnacknowledgedCount());
+        q.close();
+
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(open(4096)));
+    }
+
+    @Test
+    public void test_acknowledged_by_task_tracker_on_completion() throws Exception {
+        JournaledBlockingQueue<Task> q = new JournaledBlockingQueue<Task>(new JavaItemSerializer<Task>(), dir);
+        CallableTaskTracker tracker = new CallableTaskTracker();
+        tracker.addTaskCompletionListener(q);
+        q.add(new Task("one"));
+        q.add(new Task("two"));
+
+        Runnable wrapped = (Runnable) tracker.register(q.poll());
+        // taken, but not finished yet
+        assertEquals(1, q.getUnacknowledgedCount());
+        wrapped.run();
+        assertEquals(0, q.getUnacknowledgedCount());
+        q.close();
+
+        JournaledBlockingQueue<Task> replayed = new JournaledBlockingQueue<Task>(new JavaItemSerializer<Task>(), dir);
+        assertEquals(Arrays.asList(new Task("two")), new ArrayList<Task>(replayed));
+    }
+
+    @Test
+    public void test_stops_replaying_at_a_torn_record() throws Exception {
+        JournaledBlockingQueue<String> q = open(4096);
+        q.addAll(Arrays.asList("a", "b", "c"));
+        q.close();
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+
+        // scribble on the middle of the last record, as if the crash happened while it was being written.
+        RandomAccessFile raf = new RandomAccessFile(files[0], "rw");
+        byte[] contents = new byte[4096];
+        raf.readFully(contents);
+        int end = contents.length;
+        while (contents[end - 1] == 0) {
+            end--;
+        }
+        raf.seek(end - 3);
+        raf.write(new byte[]{1, 2, 3});
+        raf.close();
+
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(open(4096)));
+    }
+
+    @Test
+    public void test_deletes_and_compacts_segments() throws Exception {
+        JournaledBlockingQueue<String> q = open(256);
+        List<String> slow = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            q.add("item " + i);
+        }
+        int before = q.getSegmentCount();
+        assertTrue(before > 5);
+        // everything finishes, apart from every 50th item.
+        for (int i = 0; i < 200; i++) {
+            String item = q.poll();
+            if (i % 50 == 0) {
+                slow.add(item);
+            } else {
+                q.acknowledge(item);
+            }
+        }
+        // the slow items keep their segments around
+        assertTrue(q.getSegmentCount() > 1);
+        q.compact();
+        // ...until they're copied forward.
+        assertEquals(1, q.getSegmentCount());
+        assertEquals(q.getSegmentCount(), dir.listFiles().length);
+        q.close();
+
+        assertEquals(slow, new ArrayList<String>(open(256)));
+    }
+
+    @Test
+    public void test_cleared_items_are_not_replayed() throws Exception {
+        JournaledBlockingQueue<String> q = open(256);
+        for (int i = 0; i < 50; i++) {
+            q.add("item " + i);
+        }
+        assertTrue(q.getSegmentCount() > 1);
+        q.clear();
+        assertTrue(q.isEmpty());
+        assertEquals(0, q.getUnacknowledgedCount());
+        // nothing is live, so the old segments can go.
+        assertEquals(1, q.getSegmentCount());
+        q.close();
+
+        assertTrue(open(256).isEmpty());
+    }
+
+    static class Task implements Runnable, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+
+        Task(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Task && ((Task) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+}
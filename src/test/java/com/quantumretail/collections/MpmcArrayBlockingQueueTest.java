@@ -0,0 +1,202 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.constraint.ConstraintStrategy;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MpmcArrayBlockingQueueTest {
+
+    @Test
+    public void test_fifo_and_capacity() throws Exception {
+        // rounded up to 8
+        MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<Integer>(5);
+        assertNull(q.peek());
+        assertNull(q.poll());
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 8; i++) {
+                assertTrue(q.offer(i));
+            }
+            assertFalse(q.offer(8));
+            assertEquals(8, q.size());
+            assertEquals(0, q.remainingCapacity());
+            for (int i = 0; i < 8; i++) {
+                assertEquals((Integer) i, q.peek());
+                assertEquals((Integer) i, q.poll());
+            }
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    public void test_pollIf() throws Exception {
+        MpmcArrayBlockingQueue<String> q = new MpmcArrayBlockingQueue<String>(4);
+        String a = new String("a");
+        String b = new String("b");
+        q.offer(a);
+        q.offer(b);
+
+        assertNull(q.pollIf(b));
+        // equal, but not the same instance; pollIf is an identity check.
+        assertNull(q.pollIf(new String("a")));
+        assertSame(a, q.pollIf(a));
+        assertNull(q.pollIf(a));
+        assertSame(b, q.peek());
+        assertEquals(1, q.size());
+    }
+
+    @Test
+    public void test_claimIfPresent() throws Exception {
+        MpmcArrayBlockingQueue<String> q = new MpmcArrayBlockingQueue<String>(4);
+        String a1 = new String("a");
+        String a2 = new String("a");
+        String b = new String("b");
+        q.offer(a1);
+        q.offer(a2);
+        q.offer(b);
+
+        // only the instance itself, wherever it is; not the first item equal to it.
+        assertFalse(q.claimIfPresent(new String("a")));
+        assertTrue(q.claimIfPresent(a2));
+        assertFalse(q.claimIfPresent(a2));
+        assertEquals(2, q.size());
+        assertSame(a1, q.poll());
+        assertSame(b, q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void test_remove_from_middle() throws Exception {
+        MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<Integer>(4);
+        q.addAll(Arrays.asList(1, 2, 3, 4));
+        assertTrue(q.remove((Object) 2));
+        assertFalse(q.remove((Object) 2));
+        assertEquals(3, q.size());
+
+        Iterator<Integer> it = q.iterator();
+        assertEquals((Integer) 1, it.next());
+        assertEquals((Integer) 3, it.next());
+        it.remove();
+        assertEquals((Integer) 4, it.next());
+        assertFalse(it.hasNext());
+        assertEquals(Arrays.asList(1, 4), new ArrayList<Integer>(q));
+
+        // removed items still take up their slots until the consumers get to them.
+        assertFalse(q.offer(5));
+        assertTrue(q.remove((Object) 1));
+        // the head is removed; peek and pollIf skip over it.
+        assertEquals((Integer) 4, q.peek());
+        Integer four = q.peek();
+        assertSame(four, q.pollIf(four));
+        assertNull(q.poll());
+        assertEquals(0, q.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(q.offer(i));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void test_put_waits_for_room() throws Exception {
+        // rounded up to 2
+        final MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<Integer>(1);
+        q.put(0);
+        q.put(1);
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        Future<?> put = ex.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                q.put(2);
+                return null;
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(put.isDone());
+        assertEquals((Integer) 0, q.take());
+        put.get(2, TimeUnit.SECONDS);
+        assertEquals((Integer) 1, q.take());
+        assertEquals((Integer) 2, q.take());
+        ex.shutdown();
+    }
+
+    @Test(timeout = 30000)
+    public void test_concurrent_producers_and_consumers() throws Exception {
+        final MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<Integer>(64);
+        final int producers = 4;
+        final int consumers = 4;
+        final int perProducer = 50000;
+        final ConcurrentMap<Integer, Boolean> seen = new ConcurrentHashMap<Integer, Boolean>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger consumed = new AtomicInteger();
+        ExecutorService ex = Executors.newFixedThreadPool(producers + consumers);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            futures.add(ex.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < perProducer; i++) {
+                        q.put(base + i);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            final boolean conditional = (c % 2 == 0);
+            futures.add(ex.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    while (consumed.get() < producers * perProducer) {
+                        Integer item;
+                        if (conditional) {
+                            // peek-then-claim, the way ResourceConstrainingQueue does it.
+                            Integer head = q.peek();
+                            item = (head == null) ? null : q.pollIf(head);
+                        } else {
+                            item = q.poll(10, TimeUnit.MILLISECONDS);
+                        }
+                        if (item != null) {
+                            if (seen.putIfAbsent(item, Boolean.TRUE) != null) {
+                                duplicates.incrementAndGet();
+                            }
+                            consumed.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        ex.shutdown();
+        assertEquals(0, duplicates.get());
+        assertEquals(producers * perProducer, seen.size());
+        assertTrue(q.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void test_as_rcq_delegate_with_lookahead() throws Exception {
+        MpmcArrayBlockingQueue<Integer> delegate = new MpmcArrayBlockingQueue<Integer>(16);
+        ResourceConstrainingQueue<Integer> rcq = ResourceConstrainingQueue.<Integer>builder()
+                .withBlockingQueue(delegate)
+                .withConstraintStrategy(new ConstraintStrategy<Integer>() {
+                    @Override
+                    public boolean shouldReturn(Integer nextItem) {
+                        return nextItem % 2 == 0;
+                    }
+                })
+                .withLookahead(4, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .build();
+        rcq.addAll(Arrays.asList(1, 2, 3, 4));
+        // the odd ones can't go, so we reach past them.
+        assertEquals((Integer) 2, rcq.poll());
+        assertEquals((Integer) 4, rcq.poll());
+        assertNull(rcq.poll());
+        assertEquals(Arrays.asList(1, 3), new ArrayList<Integer>(delegate));
+    }
+}
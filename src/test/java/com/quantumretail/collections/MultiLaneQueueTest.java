@@ -0,0 +1,153 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.constraint.ConstraintStrategy;
+import com.quantumretail.rcq.predictor.LoadAware;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class MultiLaneQueueTest {
+
+    @Test
+    public void test_routes_by_dominant_resource() throws Exception {
+        MultiLaneQueue<Job> q = new MultiLaneQueue<Job>(null, ResourceMonitor.CPU, ResourceMonitor.HEAP_MEM);
+        assertEquals(Arrays.asList(ResourceMonitor.CPU, ResourceMonitor.HEAP_MEM, MultiLaneQueue.DEFAULT_LANE), q.getLaneNames());
+
+        Job cpu = new Job("cpu", 0.5, 0.1);
+        Job mem = new Job("mem", 0.1, 0.5);
+        Job none = new Job("none", 0.0, 0.0);
+        assertEquals(ResourceMonitor.CPU, q.laneFor(cpu));
+        assertEquals(ResourceMonitor.HEAP_MEM, q.laneFor(mem));
+        assertEquals(MultiLaneQueue.DEFAULT_LANE, q.laneFor(none));
+
+        q.offer(cpu);
+        q.offer(mem);
+        q.offer(none);
+        assertEquals(3, q.size());
+        assertSame(cpu, q.getLane(ResourceMonitor.CPU).peek());
+        assertSame(mem, q.getLane(ResourceMonitor.HEAP_MEM).peek());
+        assertSame(none, q.getLane(MultiLaneQueue.DEFAULT_LANE).peek());
+    }
+
+    @Test
+    public void test_takes_from_lanes_in_turn() throws Exception {
+        MultiLaneQueue<Job> q = new MultiLaneQueue<Job>(null, ResourceMonitor.CPU, ResourceMonitor.HEAP_MEM);
+        Job c1 = new Job("c1", 0.5, 0.0);
+        Job c2 = new Job("c2", 0.5, 0.0);
+        Job c3 = new Job("c3", 0.5, 0.0);
+        Job m1 = new Job("m1", 0.0, 0.5);
+        Job m2 = new Job("m2", 0.0, 0.5);
+        q.addAll(Arrays.asList(c1, c2, c3, m1, m2));
+
+        // the iterator interleaves the lanes in the same order we'd take from them.
+        assertEquals(Arrays.asList(c1, m1, c2, m2, c3), new ArrayList<Job>(q));
+
+        assertSame(c1, q.poll());
+        assertSame(m1, q.peek());
+        // m1 is no longer at the head of the queue, but it's still at the head of its lane.
+        assertSame(m1, q.pollIf(m1));
+        assertNull(q.pollIf(c3));
+        assertSame(c2, q.poll());
+        assertTrue(q.remove(c3));
+        assertSame(m2, q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void test_offer_to_lane_wakes_consumers() throws Exception {
+        final MultiLaneQueue<Job> q = new MultiLaneQueue<Job>(null, ResourceMonitor.CPU);
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        Future<Job> taken = ex.submit(new Callable<Job>() {
+            @Override
+            public Job call() throws Exception {
+                return q.take();
+            }
+        });
+        Thread.sleep(50);
+        Job j = new Job("j", 0.5, 0.0);
+        q.getLane(ResourceMonitor.CPU).offer(j);
+        assertSame(j, taken.get(2, TimeUnit.SECONDS));
+        ex.shutdown();
+    }
+
+    @Test
+    public void test_rcq_packs_complementary_lanes() throws Exception {
+        Map<String, Double> thresholds = new HashMap<String, Double>();
+        thresholds.put(ResourceMonitor.CPU, 1.0);
+        thresholds.put(ResourceMonitor.HEAP_MEM, 1.0);
+        ResourceConstrainingQueue<Job> q = ResourceConstrainingQueues.multiLaneQueue(thresholds);
+        assertTrue(q.delegate instanceof MultiLaneQueue);
+        assertEquals(3, q.getLookaheadWindow());
+        assertEquals(ResourceConstrainingQueue.LookaheadMode.BEST_FIT, q.getLookaheadMode());
+    }
+
+    @Test
+    public void test_blocked_lane_does_not_stall_the_others() throws Exception {
+        MultiLaneQueue<Job> lanes = new MultiLaneQueue<Job>(null, ResourceMonitor.CPU, ResourceMonitor.HEAP_MEM);
+        ResourceConstrainingQueue<Job> q = ResourceConstrainingQueue.<Job>builder()
+                .withBlockingQueue(lanes)
+                .withConstraintStrategy(new ConstraintStrategy<Job>() {
+                    @Override
+                    public boolean shouldReturn(Job nextItem) {
+                        // there's never enough CPU for a big CPU job.
+                        return nextItem.load.get(ResourceMonitor.CPU) < 0.3;
+                    }
+                })
+                .withLookahead(3, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .withMaxHeadBypasses(1)
+                .build();
+        Job big = new Job("big", 0.5, 0.0);
+        Job c1 = new Job("c1", 0.2, 0.0);
+        Job c2 = new Job("c2", 0.2, 0.0);
+        q.addAll(Arrays.asList(big, c1, c2));
+        List<Job> mem = new ArrayList<Job>();
+        for (int i = 0; i < 5; i++) {
+            mem.add(new Job("m" + i, 0.0, 0.5));
+        }
+        q.addAll(mem);
+
+        // more than maxHeadBypasses of them, but they're the heads of another lane.
+        for (Job m : mem) {
+            assertSame(m, q.poll());
+        }
+        // c1 jumps the queue in big's own lane, which does count...
+        assertSame(c1, q.poll());
+        assertNull(q.poll());
+        // ...but even now it's big's turn in the CPU lane, the memory lane carries on.
+        Job m5 = new Job("m5", 0.0, 0.5);
+        q.offer(m5);
+        assertSame(m5, q.poll());
+        assertNull(q.poll());
+        assertEquals(Arrays.asList(big, c2), new ArrayList<Job>(lanes));
+    }
+
+    static class Job implements LoadAware, Runnable {
+        final String name;
+        final Map<String, Double> load = new HashMap<String, Double>();
+
+        Job(String name, double cpu, double mem) {
+            this.name = name;
+            load.put(ResourceMonitor.CPU, cpu);
+            load.put(ResourceMonitor.HEAP_MEM, mem);
+        }
+
+        @Override
+        public Map<String, Double> load() {
+            return load;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
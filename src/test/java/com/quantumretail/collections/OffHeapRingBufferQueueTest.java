@@ -0,0 +1,209 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.constraint.ConstraintStrategy;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class OffHeapRingBufferQueueTest {
+
+    @Test
+    public void test_fifo_with_wraparound() throws Exception {
+        CountingCodec codec = new CountingCodec();
+        OffHeapRingBufferQueue<Descriptor> q = new OffHeapRingBufferQueue<Descriptor>(codec, 4);
+        long next = 0;
+        long expected = 0;
+        for (int round = 0; round < 10; round++) {
+            while (q.offer(new Descriptor(next, (int) next % 3))) {
+                next++;
+            }
+            assertEquals(4, q.size());
+            assertEquals(0, q.remainingCapacity());
+            for (int i = 0; i < 3; i++) {
+                Descriptor d = q.poll();
+                assertEquals(expected, d.id);
+                assertEquals((int) expected % 3, d.kind);
+                expected++;
+            }
+        }
+        assertEquals(1, q.size());
+    }
+
+    @Test
+    public void test_head_is_decoded_once() throws Exception {
+        CountingCodec codec = new CountingCodec();
+        OffHeapRingBufferQueue<Descriptor> q = new OffHeapRingBufferQueue<Descriptor>(codec, 4);
+        q.add(new Descriptor(1, 1));
+        q.add(new Descriptor(2, 2));
+        assertEquals(0, codec.decoded);
+        Descriptor head = q.peek();
+        assertSame(head, q.peek());
+        assertSame(head, q.poll());
+        assertEquals(1, codec.decoded);
+        assertEquals(2, q.poll().id);
+        assertEquals(2, codec.decoded);
+    }
+
+    @Test
+    public void test_remove_from_the_middle() throws Exception {
+        OffHeapRingBufferQueue<Descriptor> q = new OffHeapRingBufferQueue<Descriptor>(new CountingCodec(), 4);
+        // start part way round the ring, so that the contents wrap.
+        q.add(new Descriptor(0, 0));
+        q.add(new Descriptor(0, 0));
+        q.poll();
+        q.poll();
+        for (int i = 1; i <= 4; i++) {
+            q.add(new Descriptor(i, 0));
+        }
+        assertTrue(q.remove(new Descriptor(2, 0)));
+        assertFalse(q.remove(new Descriptor(2, 0)));
+        assertEquals(Arrays.asList(new Descriptor(1, 0), new Descriptor(3, 0), new Descriptor(4, 0)), new ArrayList<Descriptor>(q));
+        assertTrue(q.remove(new Descriptor(1, 0)));
+        assertEquals(3, q.poll().id);
+        assertTrue(q.offer(new Descriptor(5, 0)));
+        assertEquals(4, q.poll().id);
+        assertEquals(5, q.poll().id);
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void test_codec_cannot_write_past_its_slot() throws Exception {
+        OffHeapRingBufferQueue<Descriptor> q = new OffHeapRingBufferQueue<Descriptor>(new CountingCodec() {
+            @Override
+            public void encode(Descriptor item, ByteBuffer slot) {
+                super.encode(item, slot);
+                slot.putInt(-1);
+            }
+        }, 4);
+        try {
+            q.add(new Descriptor(1, 1));
+            fail("expected the codec to run out of room");
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void test_metrics() throws Exception {
+        OffHeapRingBufferQueue<Descriptor> q = new OffHeapRingBufferQueue<Descriptor>(new CountingCodec(), 4);
+        MetricsRegistry registry = new MetricsRegistry();
+        q.registerMetrics(registry, "test");
+        q.add(new Descriptor(1, 1));
+        q.add(new Descriptor(2, 1));
+        q.poll();
+        assertEquals(0.25, (Double) ((Gauge) registry.allMetrics().get(new MetricName(OffHeapRingBufferQueue.class, "test", "occupancy"))).value(), 0.0);
+        assertEquals(2, ((Histogram) registry.allMetrics().get(new MetricName(OffHeapRingBufferQueue.class, "test", "encode-ns"))).count());
+        assertEquals(1, ((Histogram) registry.allMetrics().get(new MetricName(OffHeapRingBufferQueue.class, "test", "decode-ns"))).count());
+    }
+
+    @Test
+    public void test_lookahead_claims_the_instance_it_decoded() throws Exception {
+        OffHeapRingBufferQueue<Job> delegate = new OffHeapRingBufferQueue<Job>(new JobCodec(), 4);
+        ResourceConstrainingQueue<Job> rcq = ResourceConstrainingQueue.<Job>builder()
+                .withBlockingQueue(delegate)
+                .withConstraintStrategy(new ConstraintStrategy<Job>() {
+                    @Override
+                    public boolean shouldReturn(Job nextItem) {
+                        return nextItem.id % 2 == 0;
+                    }
+                })
+                .withLookahead(4, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .build();
+        // start part way round the ring, so that claiming shifts slots across the wrap.
+        rcq.add(new Job(0));
+        rcq.poll();
+        for (int i = 1; i <= 4; i++) {
+            rcq.add(new Job(i));
+        }
+        // Jobs have no equals(), so every decoded copy is a different item; we still get the odd ones past the head.
+        assertEquals(2, rcq.poll().id);
+        assertEquals(4, rcq.poll().id);
+        assertNull(rcq.poll());
+        assertEquals(2, delegate.size());
+        Job head = delegate.peek();
+        assertEquals(1, head.id);
+        assertSame(head, delegate.poll());
+        assertEquals(3, delegate.poll().id);
+        assertNull(delegate.poll());
+    }
+
+    static class Job {
+        final long id;
+
+        Job(long id) {
+            this.id = id;
+        }
+    }
+
+    static class JobCodec implements SlotCodec<Job> {
+        @Override
+        public int slotSize() {
+            return 8;
+        }
+
+        @Override
+        public void encode(Job item, ByteBuffer slot) {
+            slot.putLong(item.id);
+        }
+
+        @Override
+        public Job decode(ByteBuffer slot) {
+            return new Job(slot.getLong());
+        }
+    }
+
+    static class Descriptor {
+        final long id;
+        final int kind;
+
+        Descriptor(long id, int kind) {
+            this.id = id;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Descriptor && ((Descriptor) o).id == id && ((Descriptor) o).kind == kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) id * 31 + kind;
+        }
+
+        @Override
+        public String toString() {
+            return id + "/" + kind;
+        }
+    }
+
+    static class CountingCodec implements SlotCodec<Descriptor> {
+        int decoded = 0;
+
+        @Override
+        public int slotSize() {
+            return 12;
+        }
+
+        @Override
+        public void encode(Descriptor item, ByteBuffer slot) {
+            slot.putLong(item.id).putInt(item.kind);
+        }
+
+        @Override
+        public Descriptor decode(ByteBuffer slot) {
+            decoded++;
+            return new Descriptor(slot.getLong(), slot.getInt());
+        }
+    }
+}
@@ -3,10 +3,15 @@ package com.quantumretail.collections;
 import com.quantumretail.constraint.ConstraintStrategy;
 import com.quantumretail.constraint.SimplePredictiveConstraintStrategy;
 import com.quantumretail.constraint.SimpleReactiveConstraintStrategy;
+import com.quantumretail.constraint.ThresholdGatedConstraintStrategy;
 import com.quantumretail.rcq.predictor.*;
+import com.quantumretail.resourcemon.ConstantResourceMonitor;
 import com.quantumretail.resourcemon.HighestValueAggregateResourceMonitor;
 import com.quantumretail.resourcemon.ResourceMonitor;
 import com.quantumretail.resourcemon.ResourceMonitors;
+import com.quantumretail.resourcemon.Threshold;
+import com.quantumretail.resourcemon.ThresholdListener;
+import com.quantumretail.resourcemon.ThresholdWatcher;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Metric;
 import com.yammer.metrics.core.MetricName;
@@ -16,6 +21,8 @@ import org.junit.Test;
 
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -241,7 +248,394 @@ public class ResourceConstrainingQueueTest {
         assertSame(strategy, q.constraintStrategy);
         assertSame(deque, q.delegate);
         assertEquals(10000, q.retryFrequencyMS);
+        assertTrue(q.getWaitStrategy() instanceof SleepingWaitStrategy);
 
+        WaitStrategy ws = WaitStrategies.yielding();
+        q = ResourceConstrainingQueue.builder()
+                .withWaitStrategy(ws)
+                .build();
+        assertSame(ws, q.getWaitStrategy());
+
+    }
+
+    @Test(timeout = 5000)
+    public void test_signalling_wakes_on_offer() throws Exception {
+        final ResourceConstrainingQueue<Integer> q = ResourceConstrainingQueue.<Integer>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Integer>(true))
+                .withRetryFrequency(60000)
+                .signalling(true)
+                .build();
+
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> taken = ex.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return q.take();
+                }
+            });
+            Thread.sleep(50);
+            q.offer(7);
+            // without signalling, this would sleep for a whole minute.
+            assertEquals((Integer) 7, taken.get(2, TimeUnit.SECONDS));
+        } finally {
+            ex.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void test_signalling_wakes_on_task_completion() throws Exception {
+        TaskTracker<Runnable> taskTracker = TaskTrackers.defaultTaskTracker();
+        final ConstantConstraintStrategy<Runnable> strategy = new ConstantConstraintStrategy<Runnable>(false);
+        final ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueue.<Runnable>builder()
+                .withConstraintStrategy(strategy)
+                .withTaskTracker(taskTracker)
+                .withRetryFrequency(60000)
+                .signalling(true)
+                .build();
+        assertSame(taskTracker, q.taskTracker);
+
+        // something is in flight, so the queue won't hand out anything while the strategy says no.
+        Runnable inFlight = taskTracker.register(new NoOp());
+        q.offer(new NoOp());
+
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<Runnable> taken = ex.submit(new Callable<Runnable>() {
+                @Override
+                public Runnable call() throws Exception {
+                    return q.take();
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(taken.isDone());
+
+            strategy.value = true;
+            inFlight.run();
+            assertNotNull(taken.get(2, TimeUnit.SECONDS));
+        } finally {
+            ex.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void test_threshold_gate_wakes_consumers_when_load_drops() throws Exception {
+        Map<String, Double> load = new HashMap<String, Double>();
+        load.put(ResourceMonitor.CPU, 0.95);
+        ThresholdWatcher watcher = new ThresholdWatcher(new ConstantResourceMonitor(load));
+        TaskTracker<Runnable> taskTracker = TaskTrackers.defaultTaskTracker();
+        ThresholdGatedConstraintStrategy<Runnable> strategy = new ThresholdGatedConstraintStrategy<Runnable>(watcher,
+                Collections.singletonMap(ResourceMonitor.CPU, 0.9),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.7));
+        final ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueue.<Runnable>builder()
+                .withConstraintStrategy(strategy)
+                .withTaskTracker(taskTracker)
+                .withRetryFrequency(60000)
+                .signalling(true)
+                .build();
+        strategy.addListener(new ThresholdListener() {
+            @Override
+            public void crossedAbove(Threshold threshold, double value) {
+            }
+
+            @Override
+            public void crossedBelow(Threshold threshold, double value) {
+                q.signalConsumers();
+            }
+        });
+        watcher.check();
+        assertFalse(strategy.shouldReturn(null));
+
+        taskTracker.register(new NoOp());
+        q.offer(new NoOp());
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<Runnable> taken = ex.submit(new Callable<Runnable>() {
+                @Override
+                public Runnable call() throws Exception {
+                    return q.take();
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(taken.isDone());
+
+            // between the watermarks, the gate stays shut.
+            load.put(ResourceMonitor.CPU, 0.8);
+            watcher.check();
+            Thread.sleep(50);
+            assertFalse(taken.isDone());
+
+            load.put(ResourceMonitor.CPU, 0.5);
+            watcher.check();
+            assertNotNull(taken.get(2, TimeUnit.SECONDS));
+        } finally {
+            ex.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_threshold_gated_queue_is_strict() throws Exception {
+        ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueues.thresholdGatedQueue(
+                Collections.singletonMap(ResourceMonitor.CPU, 0.9),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.7),
+                1000);
+        // without a task tracker, strict would quietly mean nothing.
+        assertNotNull(q.taskTracker);
+        assertTrue(q.shouldLock());
+    }
+
+    @Test
+    public void test_poll_with_timeout_returns_available_item() throws Exception {
+        ResourceConstrainingQueue<Integer> q = ResourceConstrainingQueue.<Integer>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Integer>(true))
+                .build();
+        q.offer(3);
+        assertEquals((Integer) 3, q.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void test_poll_with_timeout_times_out_when_constrained() throws Exception {
+        TaskTracker<Runnable> taskTracker = TaskTrackers.defaultTaskTracker();
+        ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueue.<Runnable>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Runnable>(false))
+                .withTaskTracker(taskTracker)
+                .withRetryFrequency(10)
+                .build();
+        taskTracker.register(new NoOp());
+        q.offer(new NoOp());
+
+        long start = System.nanoTime();
+        assertNull(q.poll(100, TimeUnit.MILLISECONDS));
+        long elapsedMS = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("waited " + elapsedMS + " ms", elapsedMS >= 90 && elapsedMS < 2000);
+        assertEquals(1, q.size());
+    }
+
+    @Test(timeout = 5000)
+    public void test_poll_with_timeout_waits_for_offer() throws Exception {
+        final ResourceConstrainingQueue<Integer> q = ResourceConstrainingQueue.<Integer>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Integer>(true))
+                .signalling(true)
+                .build();
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> polled = ex.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return q.poll(3, TimeUnit.SECONDS);
+                }
+            });
+            Thread.sleep(50);
+            q.offer(9);
+            assertEquals((Integer) 9, polled.get(2, TimeUnit.SECONDS));
+        } finally {
+            ex.shutdownNow();
+        }
+    }
+
+    /**
+     * ThreadPoolExecutor workers that are allowed to time out use poll(timeout, unit) rather than take().
+     */
+    @Test(timeout = 10000)
+    public void test_executor_with_keep_alive() throws Exception {
+        ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueue.<Runnable>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Runnable>(true))
+                .withTaskTracker(TaskTrackers.<Runnable>defaultTaskTracker())
+                .withRetryFrequency(10)
+                .build();
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(2, 2, 50, TimeUnit.MILLISECONDS, q, new ResourceConstrainingQueues.NameableDaemonThreadFactory("keep-alive-test-"));
+        ex.allowCoreThreadTimeOut(true);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int i = 0; i < 20; i++) {
+            results.add(ex.submit(new SimpleCallable()));
+        }
+        for (Future<?> f : results) {
+            assertEquals("Done", f.get(5, TimeUnit.SECONDS));
+        }
+        ex.shutdown();
+    }
+
+    @Test
+    public void test_strict_without_lock_for_conditional_delegate() throws Exception {
+        ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueue.<Runnable>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Runnable>(true))
+                .withTaskTracker(TaskTrackers.<Runnable>defaultTaskTracker())
+                .withBlockingQueue(new ConditionalLinkedBlockingQueue<Runnable>())
+                .build();
+        assertFalse(q.shouldLock());
+
+        NoOp first = new NoOp();
+        q.offer(first);
+        q.offer(new NoOp());
+        assertNotNull(q.poll());
+        assertNotNull(q.take());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void test_drainAdmissible_uses_one_snapshot() throws Exception {
+        LoadPredictor halfCpu = new LoadPredictor() {
+            @Override
+            public Map<String, Double> predictLoad(Object o) {
+                return Collections.singletonMap(ResourceMonitor.CPU, 0.25);
+            }
+        };
+        ResourceConstrainingQueue<Integer> q = ResourceConstrainingQueue.<Integer>builder()
+                .withConstraintStrategy(new SimplePredictiveConstraintStrategy<Integer>(
+                        new ConstantResourceMonitor(Collections.singletonMap(ResourceMonitor.CPU, 0.5)),
+                        Collections.singletonMap(ResourceMonitor.CPU, 1.0),
+                        halfCpu))
+                .build();
+        for (int i = 0; i < 5; i++) {
+            q.offer(i);
+        }
+        List<Integer> batch = new ArrayList<Integer>();
+        assertEquals(2, q.drainAdmissible(batch, 100));
+        assertEquals(1, q.drainAdmissible(batch, 1));
+        assertEquals(0, q.drainAdmissible(batch, 0));
+        assertEquals(Arrays.asList(0, 1, 2), batch);
+        assertEquals(2, q.size());
+    }
+
+    @Test
+    public void test_drainAdmissible_falls_back_to_shouldReturn() throws Exception {
+        ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueue.<Runnable>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Runnable>(true))
+                .withTaskTracker(TaskTrackers.<Runnable>defaultTaskTracker())
+                .build();
+        for (int i = 0; i < 5; i++) {
+            q.offer(new NoOp());
+        }
+        List<Runnable> batch = new ArrayList<Runnable>();
+        assertEquals(3, q.drainAdmissible(batch, 3));
+        assertEquals(3, q.taskTracker.currentTasks().size());
+        assertEquals(2, q.drainAdmissible(batch, 100));
+        assertEquals(0, q.drainAdmissible(batch, 100));
+    }
+
+    @Test
+    public void test_drainAdmissible_lets_one_through_when_idle() throws Exception {
+        ResourceConstrainingQueue<Runnable> q = ResourceConstrainingQueue.<Runnable>builder()
+                .withConstraintStrategy(new ConstantConstraintStrategy<Runnable>(false))
+                .withTaskTracker(TaskTrackers.<Runnable>defaultTaskTracker())
+                .build();
+        q.offer(new NoOp());
+        q.offer(new NoOp());
+        List<Runnable> batch = new ArrayList<Runnable>();
+        assertEquals(1, q.drainAdmissible(batch, 100));
+        // now something's in progress, so we honor the strategy.
+        assertEquals(0, q.drainAdmissible(batch, 100));
+        batch.get(0).run();
+        assertEquals(1, q.drainAdmissible(batch, 100));
+    }
+
+    @Test
+    public void test_lookahead_first_fit() throws Exception {
+        ResourceConstrainingQueue<Integer> q = ResourceConstrainingQueue.<Integer>builder()
+                .withConstraintStrategy(new EvenOnlyConstraintStrategy())
+                .build();
+        q.addAll(Arrays.asList(1, 2, 3, 4, 5, 6));
+        // by default, the 1 at the head blocks everything.
+        assertNull(q.poll());
+
+        q.setLookahead(3, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT);
+        assertEquals((Integer) 2, q.poll());
+        assertEquals((Integer) 4, q.poll());
+        // 6 is outside the window of [1, 3, 5]
+        assertNull(q.poll());
+        assertEquals(Arrays.asList(1, 3, 5, 6), new ArrayList<Integer>(q));
+    }
+
+    @Test
+    public void test_lookahead_bypasses_are_bounded() throws Exception {
+        ResourceConstrainingQueue<Integer> q = ResourceConstrainingQueue.<Integer>builder()
+                .withConstraintStrategy(new EvenOnlyConstraintStrategy())
+                .withLookahead(10, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .withMaxHeadBypasses(2)
+                .build();
+        q.addAll(Arrays.asList(1, 2, 4, 6));
+        assertEquals((Integer) 2, q.poll());
+        assertEquals((Integer) 4, q.poll());
+        // 1 has been passed over twice; now it's its turn.
+        assertNull(q.poll());
+        assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void test_lookahead_best_fit() throws Exception {
+        final Map<String, Map<String, Double>> predictions = new HashMap<String, Map<String, Double>>();
+        predictions.put("big", load(0.5, 0.5));
+        predictions.put("cpu", load(0.1, 0.0));
+        predictions.put("mem", load(0.0, 0.5));
+        LoadPredictor predictor = new LoadPredictor() {
+            @Override
+            public Map<String, Double> predictLoad(Object o) {
+                return predictions.get(o);
+            }
+        };
+        Map<String, Double> thresholds = load(1.0, 1.0);
+        // short on CPU, plenty of memory.
+        SimplePredictiveConstraintStrategy<String> strategy = new SimplePredictiveConstraintStrategy<String>(
+                new ConstantResourceMonitor(load(0.8, 0.2)), thresholds, predictor);
+
+        ResourceConstrainingQueue<String> firstFit = ResourceConstrainingQueue.<String>builder()
+                .withConstraintStrategy(strategy)
+                .withLookahead(3, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .build();
+        firstFit.addAll(Arrays.asList("big", "cpu", "mem"));
+        assertEquals("cpu", firstFit.poll());
+
+        ResourceConstrainingQueue<String> bestFit = ResourceConstrainingQueue.<String>builder()
+                .withConstraintStrategy(strategy)
+                .withLookahead(3, ResourceConstrainingQueue.LookaheadMode.BEST_FIT)
+                .build();
+        bestFit.addAll(Arrays.asList("big", "cpu", "mem"));
+        assertEquals("mem", bestFit.poll());
+    }
+
+    @Test
+    public void test_lookahead_claims_the_item_it_chose() throws Exception {
+        final String head = new String("head");
+        final String first = new String("same");
+        final String second = new String("same");
+        ConditionalArrayBlockingQueue<String> delegate = new ConditionalArrayBlockingQueue<String>(10);
+        ResourceConstrainingQueue<String> q = ResourceConstrainingQueue.<String>builder()
+                .withBlockingQueue(delegate)
+                .withConstraintStrategy(new ConstraintStrategy<String>() {
+                    @Override
+                    public boolean shouldReturn(String nextItem) {
+                        return nextItem != head && nextItem != first;
+                    }
+                })
+                .withLookahead(3, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .build();
+        q.addAll(Arrays.asList(head, first, second));
+        // first and second are equal, but it's second that we have resources for, so second is what we take.
+        assertSame(second, q.poll());
+        assertEquals(2, delegate.size());
+        assertSame(head, delegate.poll());
+        assertSame(first, delegate.poll());
+    }
+
+    private static Map<String, Double> load(double cpu, double mem) {
+        Map<String, Double> m = new HashMap<String, Double>();
+        m.put(ResourceMonitor.CPU, cpu);
+        m.put(ResourceMonitor.HEAP_MEM, mem);
+        return m;
+    }
+
+    private static class EvenOnlyConstraintStrategy implements ConstraintStrategy<Integer> {
+        @Override
+        public boolean shouldReturn(Integer nextItem) {
+            return nextItem % 2 == 0;
+        }
+    }
+
+    private static class NoOp implements Runnable {
+        @Override
+        public void run() {
+        }
     }
 
     private class ThreadMonitor implements Runnable {
@@ -330,7 +724,7 @@ public class ResourceConstrainingQueueTest {
     }
 
     private class ConstantConstraintStrategy<T> implements ConstraintStrategy<T> {
-        boolean value;
+        volatile boolean value;
 
         private ConstantConstraintStrategy(boolean value) {
             this.value = value;
@@ -0,0 +1,133 @@
+package com.quantumretail.collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpillingBlockingQueueTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void test_spills_and_keeps_order() throws Exception {
+        // room for 10 items in memory, and segments of ~5 items each
+        SpillingBlockingQueue<Integer> q = new SpillingBlockingQueue<Integer>(new JavaItemSerializer<Integer>(), dir, 10, 400);
+        for (int i = 0; i < 1000; i++) {
+            q.put(i);
+        }
+        assertEquals(1000, q.size());
+        assertEquals(990, q.getSpilledCount());
+        assertTrue(q.getSegmentCount() > 1);
+        assertEquals(q.getSegmentCount(), dir.listFiles().length);
+
+        for (int i = 0; i < 500; i++) {
+            assertEquals(Integer.valueOf(i), q.take());
+        }
+        // items added while we're spilling go behind the spilled ones.
+        q.put(1000);
+        for (int i = 500; i <= 1000; i++) {
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        assertNull(q.poll());
+        assertEquals(0, q.getSpilledCount());
+        assertEquals(0, q.getSegmentCount());
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void test_remove_and_iterate_spilled_items() throws Exception {
+        SpillingBlockingQueue<String> q = new SpillingBlockingQueue<String>(new JavaItemSerializer<String>(), dir, 2, 1024);
+        q.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+        assertEquals(3, q.getSpilledCount());
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), new ArrayList<String>(q));
+
+        assertTrue(q.contains("d"));
+        assertTrue(q.remove("d"));
+        assertFalse(q.remove("d"));
+        assertTrue(q.remove("a"));
+        assertEquals(3, q.size());
+        assertEquals(Arrays.asList("b", "c", "e"), new ArrayList<String>(q));
+
+        List<String> drained = new ArrayList<String>();
+        q.drainTo(drained);
+        assertEquals(Arrays.asList("b", "c", "e"), drained);
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void test_items_bigger_than_a_segment() throws Exception {
+        SpillingBlockingQueue<String> q = new SpillingBlockingQueue<String>(new JavaItemSerializer<String>(), dir, 1, 16);
+        char[] big = new char[1000];
+        Arrays.fill(big, 'x');
+        String bigString = new String(big);
+        q.add("small");
+        q.add(bigString);
+        q.add("small again");
+        assertEquals("small", q.poll());
+        assertEquals(bigString, q.poll());
+        assertEquals("small again", q.poll());
+    }
+
+    @Test
+    public void test_close_deletes_segments() throws Exception {
+        SpillingBlockingQueue<Integer> q = new SpillingBlockingQueue<Integer>(new JavaItemSerializer<Integer>(), dir, 1, 1024);
+        for (int i = 0; i < 100; i++) {
+            q.add(i);
+        }
+        assertTrue(dir.listFiles().length > 0);
+        q.close();
+        assertEquals(0, dir.listFiles().length);
+        assertTrue(q.isEmpty());
+        q.add(1);
+        assertEquals(Integer.valueOf(1), q.poll());
+    }
+
+    @Test
+    public void test_claim_the_copy_iteration_returned() throws Exception {
+        SpillingBlockingQueue<String> q = new SpillingBlockingQueue<String>(new JavaItemSerializer<String>(), dir, 1, 1024);
+        q.addAll(Arrays.asList("a", "b", "c"));
+        assertEquals(2, q.getSpilledCount());
+        List<String> copies = new ArrayList<String>(q);
+        String b = copies.get(1);
+        String c = copies.get(2);
+
+        // an equal string isn't the item itself.
+        assertFalse(q.claimIfPresent(new String("c")));
+        assertTrue(q.claimIfPresent(c));
+        assertFalse(q.claimIfPresent(c));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(q));
+
+        // when b is unspilled, it's the copy we've already seen.
+        assertEquals("a", q.poll());
+        assertSame(b, q.peek());
+        assertTrue(q.claimIfPresent(b));
+        assertTrue(q.isEmpty());
+        assertEquals(0, dir.listFiles().length);
+    }
+}
@@ -0,0 +1,180 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.rcq.predictor.LoadAware;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TenantFairQueueTest {
+
+    private static final TenantKeyExtractor<Job> BY_TENANT = new TenantKeyExtractor<Job>() {
+        @Override
+        public Object tenantOf(Job item) {
+            return item.tenant;
+        }
+    };
+
+    @Test
+    public void test_backlog_does_not_starve_others() throws Exception {
+        TenantFairQueue<Job> q = new TenantFairQueue<Job>(BY_TENANT, null, 0.1);
+        for (int i = 0; i < 100; i++) {
+            q.offer(new Job("a", 0.1));
+        }
+        Job b = new Job("b", 0.1);
+        q.offer(b);
+        q.poll();
+        // with a FIFO, b would be 100th in line.
+        assertSame(b, q.poll());
+        assertEquals(99, q.size("a"));
+        assertEquals(0, q.size("b"));
+    }
+
+    @Test
+    public void test_shares_by_cost_not_count() throws Exception {
+        TenantFairQueue<Job> q = new TenantFairQueue<Job>(BY_TENANT, null, 0.1);
+        for (int i = 0; i < 100; i++) {
+            q.offer(new Job("cheap", 0.05));
+            q.offer(new Job("expensive", 0.2));
+        }
+        Map<String, Double> cost = new HashMap<String, Double>();
+        cost.put("cheap", 0.0);
+        cost.put("expensive", 0.0);
+        for (int i = 0; i < 60; i++) {
+            Job j = q.poll();
+            cost.put(j.tenant, cost.get(j.tenant) + j.cost);
+        }
+        // both should have had about the same amount of resources, so cheap gets about four times as many items.
+        assertEquals(cost.get("cheap"), cost.get("expensive"), 0.25);
+        assertTrue(q.size("cheap") < q.size("expensive"));
+    }
+
+    @Test
+    public void test_weights() throws Exception {
+        TenantFairQueue<Job> q = new TenantFairQueue<Job>(BY_TENANT, null, 0.1);
+        q.setWeight("gold", 3.0);
+        for (int i = 0; i < 100; i++) {
+            q.offer(new Job("gold", 0.1));
+            q.offer(new Job("tin", 0.1));
+        }
+        int gold = 0;
+        for (int i = 0; i < 40; i++) {
+            if (q.poll().tenant.equals("gold")) {
+                gold++;
+            }
+        }
+        assertEquals(30, gold);
+    }
+
+    @Test
+    public void test_items_costing_more_than_a_quantum() throws Exception {
+        TenantFairQueue<Job> q = new TenantFairQueue<Job>(BY_TENANT, null, 0.01);
+        for (int i = 0; i < 10; i++) {
+            q.offer(new Job("a", 0.5));
+            q.offer(new Job("b", 0.5));
+        }
+        List<String> order = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) {
+            order.add(q.poll().tenant);
+        }
+        assertEquals(Arrays.asList("a", "b", "a", "b", "a", "b"), order);
+    }
+
+    @Test
+    public void test_peek_and_poll_if_agree() throws Exception {
+        TenantFairQueue<Job> q = new TenantFairQueue<Job>(BY_TENANT, null, 0.1);
+        Job a1 = new Job("a", 0.1);
+        Job a2 = new Job("a", 0.1);
+        Job b1 = new Job("b", 0.1);
+        q.addAll(Arrays.asList(a1, a2, b1));
+        assertEquals(Arrays.asList(a1, b1, a2), new ArrayList<Job>(q));
+
+        assertSame(a1, q.peek());
+        assertSame(a1, q.peek());
+        assertNull(q.pollIf(b1));
+        assertSame(a1, q.pollIf(a1));
+        assertSame(b1, q.peek());
+        assertTrue(q.remove(b1));
+        assertSame(a2, q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void test_claims_are_charged_to_the_tenant() throws Exception {
+        TenantFairQueue<Job> q = new TenantFairQueue<Job>(BY_TENANT, null, 0.5);
+        MetricsRegistry registry = new MetricsRegistry();
+        q.registerMetrics(registry, "test");
+        for (int i = 0; i < 5; i++) {
+            q.offer(new Job("a", 0.5));
+        }
+        Job b1 = new Job("b", 0.5);
+        Job b2 = new Job("b", 0.5);
+        Job b3 = new Job("b", 0.5);
+        q.addAll(Arrays.asList(b1, b2, b3));
+
+        // taken out of turn (as lookahead would), and only the instance itself.
+        assertFalse(q.claimIfPresent(new Job("b", 0.5)));
+        assertTrue(q.claimIfPresent(b1));
+        assertTrue(q.claimIfPresent(b2));
+        Meter served = (Meter) registry.allMetrics().get(new MetricName(TenantFairQueue.class, "test", "tenant b served"));
+        assertEquals(2, served.count());
+
+        // b has had two turns' worth already, so a gets the next three.
+        List<String> order = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            order.add(q.poll().tenant);
+        }
+        assertEquals(Arrays.asList("a", "a", "a", "b"), order);
+    }
+
+    @Test
+    public void test_per_tenant_metrics() throws Exception {
+        TenantFairQueue<Job> q = new TenantFairQueue<Job>(BY_TENANT, null);
+        MetricsRegistry registry = new MetricsRegistry();
+        q.registerMetrics(registry, "test");
+        q.offer(new Job("a", 0.1));
+        q.offer(new Job("a", 0.1));
+        q.poll();
+        Meter served = (Meter) registry.allMetrics().get(new MetricName(TenantFairQueue.class, "test", "tenant a served"));
+        assertEquals(1, served.count());
+    }
+
+    @Test
+    public void test_as_rcq_delegate() throws Exception {
+        ResourceConstrainingQueue<Job> q = ResourceConstrainingQueues.tenantFairQueue(BY_TENANT, Collections.singletonMap(ResourceMonitor.CPU, 1.0));
+        for (int i = 0; i < 10; i++) {
+            q.offer(new Job("a", 0.1));
+        }
+        q.offer(new Job("b", 0.1));
+        q.poll();
+        assertEquals("b", q.poll().tenant);
+    }
+
+    private static class Job implements LoadAware {
+        final String tenant;
+        final double cost;
+
+        Job(String tenant, double cost) {
+            this.tenant = tenant;
+            this.cost = cost;
+        }
+
+        @Override
+        public Map<String, Double> load() {
+            Map<String, Double> m = new HashMap<String, Double>();
+            m.put(ResourceMonitor.CPU, cost);
+            return m;
+        }
+
+        @Override
+        public String toString() {
+            return tenant + ":" + cost;
+        }
+    }
+}
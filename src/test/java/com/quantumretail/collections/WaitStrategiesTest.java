@@ -0,0 +1,40 @@
+package com.quantumretail.collections;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WaitStrategiesTest {
+
+    @Test
+    public void test_parking_backoff_doubles_up_to_max() throws Exception {
+        ParkingBackoffWaitStrategy ws = new ParkingBackoffWaitStrategy(1, 100, TimeUnit.MILLISECONDS);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), ws.backoffNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), ws.backoffNanos(2));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(64), ws.backoffNanos(7));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), ws.backoffNanos(8));
+        // this would overflow if we weren't careful.
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), ws.backoffNanos(Integer.MAX_VALUE));
+    }
+
+    @Test(timeout = 5000)
+    public void test_blocking_does_not_miss_earlier_signal() throws Exception {
+        BlockingWaitStrategy ws = new BlockingWaitStrategy(60, TimeUnit.SECONDS);
+        long token = ws.prepareToWait();
+        // the signal arrives after we checked, but before we started waiting; we shouldn't wait for a minute.
+        ws.signal(false);
+        ws.await(token, 1, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void test_blocking_honors_max_wait() throws Exception {
+        BlockingWaitStrategy ws = new BlockingWaitStrategy(60, TimeUnit.SECONDS);
+        long start = System.nanoTime();
+        ws.await(ws.prepareToWait(), 1, TimeUnit.MILLISECONDS.toNanos(20));
+        long elapsedMS = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("waited " + elapsedMS + " ms", elapsedMS >= 15 && elapsedMS < 5000);
+    }
+}
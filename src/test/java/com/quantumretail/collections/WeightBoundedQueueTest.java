@@ -0,0 +1,121 @@
+package com.quantumretail.collections;
+
+import com.quantumretail.rcq.predictor.LoadPredictor;
+import com.quantumretail.resourcemon.ConstantResourceMonitor;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WeightBoundedQueueTest {
+
+    /**
+     * Items are their own predicted heap.
+     */
+    private static final LoadPredictor HEAP_IS_VALUE = new LoadPredictor() {
+        @Override
+        public Map<String, Double> predictLoad(Object o) {
+            return Collections.singletonMap(ResourceMonitor.HEAP_MEM, (Double) o);
+        }
+    };
+
+    @Test
+    public void test_bounded_by_weight() throws Exception {
+        WeightBoundedQueue<Double> q = new WeightBoundedQueue<Double>(HEAP_IS_VALUE, 0.5);
+        assertTrue(q.offer(0.2));
+        assertTrue(q.offer(0.2));
+        assertFalse(q.offer(0.2));
+        // a lighter one still fits
+        assertTrue(q.offer(0.1));
+        assertEquals(0.5, q.getWeight(), 0.0001);
+        assertEquals(0, q.remainingCapacity());
+        assertFalse(q.offer(0.05, 10, TimeUnit.MILLISECONDS));
+
+        assertEquals(0.2, q.poll(), 0.0);
+        assertTrue(q.offer(0.2));
+        assertTrue(q.remove(0.1));
+        assertEquals(0.4, q.getWeight(), 0.0001);
+    }
+
+    @Test
+    public void test_empty_queue_takes_anything() throws Exception {
+        WeightBoundedQueue<Double> q = new WeightBoundedQueue<Double>(HEAP_IS_VALUE, 0.5);
+        assertTrue(q.offer(0.8));
+        assertFalse(q.offer(0.01));
+        q.clear();
+        assertEquals(0.0, q.getWeight(), 0.0);
+        assertTrue(q.offer(0.01));
+    }
+
+    @Test
+    public void test_removal_wakes_a_producer_that_fits() throws Exception {
+        final WeightBoundedQueue<Double> q = new WeightBoundedQueue<Double>(HEAP_IS_VALUE, 0.5);
+        q.put(0.4);
+        q.put(0.1);
+
+        final CountDownLatch heavyDone = new CountDownLatch(1);
+        final CountDownLatch lightDone = new CountDownLatch(1);
+        Thread heavy = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    q.put(0.35);
+                    heavyDone.countDown();
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        });
+        heavy.start();
+        // make sure the heavy producer is the first one waiting.
+        while (heavy.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        Thread light = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    q.put(0.1);
+                    lightDone.countDown();
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        });
+        light.start();
+        while (light.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        // taking the 0.1 makes room for the light item, but not the heavy one.
+        assertTrue(q.remove(0.1));
+        assertTrue(lightDone.await(5, TimeUnit.SECONDS));
+        assertEquals(1, heavyDone.getCount());
+
+        // taking the 0.4 makes room for the heavy one.
+        assertEquals(0.4, q.poll(), 0.0);
+        assertTrue(heavyDone.await(5, TimeUnit.SECONDS));
+        assertEquals(0.45, q.getWeight(), 0.0001);
+        heavy.join();
+        light.join();
+    }
+
+    @Test
+    public void test_live_heap_check() throws Exception {
+        Map<String, Double> heap = new HashMap<String, Double>();
+        heap.put(ResourceMonitor.HEAP_MEM, 0.95);
+        ConstantResourceMonitor monitor = new ConstantResourceMonitor(heap);
+        WeightBoundedQueue<Double> q = new WeightBoundedQueue<Double>(HEAP_IS_VALUE, 0.5, monitor, 0.9);
+        // the first one always goes in
+        assertTrue(q.offer(0.1));
+        assertFalse(q.offer(0.1));
+        heap.put(ResourceMonitor.HEAP_MEM, 0.8);
+        assertTrue(q.offer(0.1));
+    }
+}
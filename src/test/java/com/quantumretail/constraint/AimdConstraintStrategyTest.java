@@ -0,0 +1,108 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.quantumretail.rcq.predictor.TaskTrackers;
+import com.quantumretail.resourcemon.EWMAMonitorTest;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AimdConstraintStrategyTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void test_additive_increase_while_latency_is_flat() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        AimdConstraintStrategy<Object> strategy = new AimdConstraintStrategy<Object>(TaskTrackers.defaultTaskTracker(), 1, 100, 10, 0.5, 2.0, clock);
+        // about one more per limit's worth of completions.
+        for (int i = 0; i < 10; i++) {
+            clock.value += MS;
+            strategy.onSample(10 * MS, 10);
+        }
+        assertEquals(11.0, strategy.getExactLimit(), 0.1);
+    }
+
+    @Test
+    public void test_no_increase_when_limit_is_not_used() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        AimdConstraintStrategy<Object> strategy = new AimdConstraintStrategy<Object>(TaskTrackers.defaultTaskTracker(), 1, 100, 10, 0.5, 2.0, clock);
+        for (int i = 0; i < 100; i++) {
+            clock.value += MS;
+            strategy.onSample(10 * MS, 0);
+        }
+        assertEquals(10, strategy.getLimit());
+    }
+
+    @Test
+    public void test_multiplicative_decrease_when_latency_inflates() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        AimdConstraintStrategy<Object> strategy = new AimdConstraintStrategy<Object>(TaskTrackers.defaultTaskTracker(), 1, 100, 20, 0.5, 2.0, clock);
+        for (int i = 0; i < 20; i++) {
+            clock.value += MS;
+            strategy.onSample(10 * MS, 20);
+        }
+        int before = strategy.getLimit();
+
+        // the bottleneck saturates: tasks take ten times as long.
+        while (strategy.getLimit() == before) {
+            clock.value += MS;
+            strategy.onSample(100 * MS, 20);
+        }
+        assertEquals(before / 2, strategy.getLimit());
+
+        // the completions right after a cut started before it, so they shouldn't cut it again.
+        clock.value += MS;
+        strategy.onSample(100 * MS, 20);
+        assertEquals(before / 2, strategy.getLimit());
+
+        // but once a task's worth of time has gone by, they should.
+        clock.value += 200 * MS;
+        strategy.onSample(100 * MS, 20);
+        assertEquals(before / 4, strategy.getLimit());
+    }
+
+    @Test
+    public void test_slow_at_minimum_limit_becomes_new_baseline() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        AimdConstraintStrategy<Object> strategy = new AimdConstraintStrategy<Object>(TaskTrackers.defaultTaskTracker(), 1, 100, 1, 0.5, 2.0, clock);
+        strategy.onSample(10 * MS, 1);
+        for (int i = 0; i < 20; i++) {
+            clock.value += 100 * MS;
+            strategy.onSample(100 * MS, 1);
+        }
+        assertTrue(strategy.getBaselineLatency(TimeUnit.MILLISECONDS) > 50.0);
+        assertTrue(strategy.getLimit() > 1);
+    }
+
+    @Test
+    public void test_hears_run_times_from_task_tracker() throws Exception {
+        TaskTracker<Runnable> taskTracker = TaskTrackers.defaultTaskTracker();
+        AimdConstraintStrategy<Runnable> strategy = ConstraintStrategies.aimdConstraintStrategy(taskTracker);
+        Runnable r = taskTracker.register(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(Double.isNaN(strategy.getLatency(TimeUnit.MILLISECONDS)));
+        r.run();
+        assertTrue(strategy.getLatency(TimeUnit.MILLISECONDS) >= 15.0);
+    }
+
+    @Test
+    public void test_admission_compares_in_flight_to_limit() throws Exception {
+        TaskTracker<Object> taskTracker = TaskTrackers.defaultTaskTracker();
+        AimdConstraintStrategy<Object> strategy = new AimdConstraintStrategy<Object>(taskTracker, 1, 100, 2);
+        taskTracker.register(new Thread());
+        assertTrue(strategy.shouldReturn(null));
+        taskTracker.register(new Thread());
+        assertFalse(strategy.shouldReturn(null));
+    }
+}
@@ -0,0 +1,165 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.collections.ConditionalArrayBlockingQueue;
+import com.quantumretail.collections.ResourceConstrainingQueue;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CreditPoolTest {
+
+    @Test
+    public void test_acquire_and_release() throws Exception {
+        CreditPool pool = new CreditPool(load(1.0, 1.0));
+        CreditPool.Lease a = pool.tryAcquire(load(0.5, 0.25));
+        assertNotNull(a);
+        assertEquals(0.5, pool.getAvailable(ResourceMonitor.CPU), 0.0);
+        assertEquals(0.75, pool.getAvailable(ResourceMonitor.HEAP_MEM), 0.0);
+
+        CreditPool.Lease b = pool.tryAcquire(load(0.5, 0.5));
+        assertNotNull(b);
+        // not enough CPU left, so we shouldn't take any memory either.
+        assertNull(pool.tryAcquire(load(0.25, 0.25)));
+        assertEquals(0.25, pool.getAvailable(ResourceMonitor.HEAP_MEM), 0.0);
+
+        a.release();
+        a.release();
+        assertTrue(a.isReleased());
+        assertEquals(0.5, pool.getAvailable(ResourceMonitor.CPU), 0.0);
+        assertEquals(0.5, pool.getAvailable(ResourceMonitor.HEAP_MEM), 0.0);
+        b.release();
+        assertEquals(load(1.0, 1.0), pool.getAvailable());
+
+        // resources we don't have a budget for don't matter.
+        assertNotNull(pool.tryAcquire(Collections.singletonMap("IO", 5.0)));
+        assertTrue(Double.isNaN(pool.getAvailable("IO")));
+    }
+
+    @Test(timeout = 30000)
+    public void test_never_overcommits() throws Exception {
+        final CreditPool pool = new CreditPool(Collections.singletonMap(ResourceMonitor.CPU, 1.0));
+        final Map<String, Double> demand = Collections.singletonMap(ResourceMonitor.CPU, 0.125);
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger maxOutstanding = new AtomicInteger();
+        ExecutorService ex = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(ex.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 20000; i++) {
+                        CreditPool.Lease lease = pool.tryAcquire(demand);
+                        if (lease != null) {
+                            int n = outstanding.incrementAndGet();
+                            if (n > maxOutstanding.get()) {
+                                maxOutstanding.set(n);
+                            }
+                            outstanding.decrementAndGet();
+                            lease.release();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        ex.shutdown();
+        assertTrue(maxOutstanding.get() <= 8);
+        assertEquals(1.0, pool.getAvailable(ResourceMonitor.CPU), 0.0);
+    }
+
+    @Test
+    public void test_strategy_holds_credit_until_completion() throws Exception {
+        CreditPoolConstraintStrategy<Object> s = new CreditPoolConstraintStrategy<Object>(load(1.0, 1.0), new com.quantumretail.rcq.predictor.LoadPredictor() {
+            @Override
+            public Map<String, Double> predictLoad(Object o) {
+                return load(0.5, 0.0);
+            }
+        });
+        Object a = new Object();
+        Object b = new Object();
+        Object c = new Object();
+        assertTrue(s.shouldReturn(a));
+        // asking again about an item we've already said yes to doesn't cost anything more.
+        assertTrue(s.shouldReturn(a));
+        assertTrue(s.shouldReturn(b));
+        assertFalse(s.shouldReturn(c));
+        assertEquals(2, s.getLeaseCount());
+
+        s.taskCompleted(a);
+        assertTrue(s.shouldReturn(c));
+        s.release(b);
+        s.taskCompleted(c);
+        assertEquals(0, s.getLeaseCount());
+        assertEquals(1.0, s.getPool().getAvailable(ResourceMonitor.CPU), 0.0);
+    }
+
+    @Test
+    public void test_equal_items_each_take_credit() throws Exception {
+        CreditPoolConstraintStrategy<String> s = new CreditPoolConstraintStrategy<String>(load(1.0, 1.0), new com.quantumretail.rcq.predictor.LoadPredictor() {
+            @Override
+            public Map<String, Double> predictLoad(Object o) {
+                return load(0.5, 0.0);
+            }
+        });
+        String a = new String("task");
+        String b = new String("task");
+        String c = new String("task");
+        assertTrue(s.shouldReturn(a));
+        assertTrue(s.shouldReturn(b));
+        assertEquals(2, s.getLeaseCount());
+        // equal to both, but there's no credit left for a third.
+        assertFalse(s.shouldReturn(c));
+
+        s.taskCompleted(new String("task"));
+        assertEquals(2, s.getLeaseCount());
+        s.taskCompleted(a);
+        assertTrue(s.shouldReturn(c));
+    }
+
+    @Test
+    public void test_lookahead_gives_back_credit_when_it_loses_the_claim() throws Exception {
+        CreditPoolConstraintStrategy<String> s = new CreditPoolConstraintStrategy<String>(load(1.0, 1.0), new com.quantumretail.rcq.predictor.LoadPredictor() {
+            @Override
+            public Map<String, Double> predictLoad(Object o) {
+                return o.equals("big") ? load(2.0, 0.0) : load(0.5, 0.0);
+            }
+        });
+        ConditionalArrayBlockingQueue<String> delegate = new ConditionalArrayBlockingQueue<String>(10) {
+            @Override
+            public boolean claimIfPresent(String item) {
+                // someone cancels it between our decision and our claim.
+                remove(item);
+                return false;
+            }
+        };
+        ResourceConstrainingQueue<String> q = ResourceConstrainingQueue.<String>builder()
+                .withBlockingQueue(delegate)
+                .withConstraintStrategy(s)
+                .withLookahead(2, ResourceConstrainingQueue.LookaheadMode.FIRST_FIT)
+                .build();
+        q.addAll(Arrays.asList("big", "small"));
+        assertNull(q.poll());
+        assertEquals(0, s.getLeaseCount());
+        assertEquals(1.0, s.getPool().getAvailable(ResourceMonitor.CPU), 0.0);
+    }
+
+    static Map<String, Double> load(double cpu, double mem) {
+        Map<String, Double> m = new HashMap<String, Double>();
+        m.put(ResourceMonitor.CPU, cpu);
+        m.put(ResourceMonitor.HEAP_MEM, mem);
+        return m;
+    }
+}
@@ -0,0 +1,110 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.quantumretail.resourcemon.EWMAMonitorTest;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GradientConstraintStrategyTest {
+
+    private static final long SERVICE_TIME_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int SERVERS = 10;
+
+    @Test
+    public void test_converges_down_from_too_high() throws Exception {
+        FixedTaskTracker tracker = new FixedTaskTracker();
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        // we start out saturated, so we have to probe a few times to find out the real service time.
+        GradientConstraintStrategy<Object> strategy = new GradientConstraintStrategy<Object>(tracker, 1, 1000, 200, 10, clock);
+        simulate(strategy, tracker, clock, 95);
+
+        assertTrue("limit was " + strategy.getLimit(), strategy.getLimit() >= SERVERS && strategy.getLimit() <= 2 * SERVERS);
+        assertEquals(SERVERS, strategy.getEstimatedCapacity(), 0.5);
+        assertEquals(10.0, strategy.getMinLatency(TimeUnit.MILLISECONDS), 1.0);
+    }
+
+    @Test
+    public void test_converges_up_from_too_low() throws Exception {
+        FixedTaskTracker tracker = new FixedTaskTracker();
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        GradientConstraintStrategy<Object> strategy = new GradientConstraintStrategy<Object>(tracker, 1, 1000, 1, 60, clock);
+        simulate(strategy, tracker, clock, 30);
+
+        assertTrue("limit was " + strategy.getLimit(), strategy.getLimit() >= SERVERS && strategy.getLimit() <= 2 * SERVERS);
+        assertEquals(SERVERS, strategy.getEstimatedCapacity(), 0.5);
+    }
+
+    @Test
+    public void test_no_growth_when_limit_is_not_used() throws Exception {
+        FixedTaskTracker tracker = new FixedTaskTracker();
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        GradientConstraintStrategy<Object> strategy = new GradientConstraintStrategy<Object>(tracker, 1, 1000, 10, 60, clock);
+        for (int i = 0; i < 10; i++) {
+            tracker.size = 1;
+            strategy.taskCompleted(null, SERVICE_TIME_NANOS);
+            clock.value += TimeUnit.SECONDS.toNanos(1);
+            strategy.run();
+        }
+        assertEquals(10, strategy.getLimit());
+    }
+
+    @Test
+    public void test_nothing_completed_changes_nothing() throws Exception {
+        FixedTaskTracker tracker = new FixedTaskTracker();
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        GradientConstraintStrategy<Object> strategy = new GradientConstraintStrategy<Object>(tracker, 1, 1000, 10, 60, clock);
+        clock.value += TimeUnit.SECONDS.toNanos(1);
+        strategy.run();
+        assertEquals(10, strategy.getLimit());
+        assertEquals(0.0, strategy.getEstimatedCapacity(), 0.0);
+    }
+
+    @Test
+    public void test_probe_halves_limit() throws Exception {
+        FixedTaskTracker tracker = new FixedTaskTracker();
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        GradientConstraintStrategy<Object> strategy = new GradientConstraintStrategy<Object>(tracker, 1, 1000, 20, 2, clock);
+        simulate(strategy, tracker, clock, 1);
+        int before = strategy.getLimit();
+        simulate(strategy, tracker, clock, 1);
+        assertEquals(before / 2, strategy.getLimit());
+        assertTrue(Double.isNaN(strategy.getMinLatency(TimeUnit.MILLISECONDS)));
+    }
+
+    /**
+     * A bottleneck with SERVERS servers: up to that many tasks each take SERVICE_TIME; beyond that, they queue up.
+     * We run it a second at a time.
+     */
+    private void simulate(GradientConstraintStrategy<Object> strategy, FixedTaskTracker tracker, EWMAMonitorTest.TestClock clock, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            int concurrency = strategy.getLimit();
+            tracker.size = concurrency;
+            long latency = SERVICE_TIME_NANOS * Math.max(1, concurrency) / Math.min(concurrency, SERVERS);
+            long completed = TimeUnit.SECONDS.toNanos(1) * Math.min(concurrency, SERVERS) / SERVICE_TIME_NANOS;
+            for (long j = 0; j < completed; j++) {
+                strategy.taskCompleted(null, latency);
+            }
+            clock.value += TimeUnit.SECONDS.toNanos(1);
+            strategy.run();
+        }
+    }
+
+    private static class FixedTaskTracker implements TaskTracker<Object> {
+        volatile int size = 0;
+
+        @Override
+        public Collection<Object> currentTasks() {
+            return Collections.nCopies(size, new Object());
+        }
+
+        @Override
+        public Object register(Object nextItem) {
+            return nextItem;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.resourcemon.ConstantResourceMonitor;
+import com.quantumretail.resourcemon.EWMAMonitorTest;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HysteresisConstraintStrategyTest {
+
+    @Test
+    public void test_closes_high_and_reopens_low() throws Exception {
+        Map<String, Double> load = new HashMap<String, Double>();
+        load.put(ResourceMonitor.CPU, 0.5);
+        HysteresisConstraintStrategy<Object> strategy = new HysteresisConstraintStrategy<Object>(new ConstantResourceMonitor(load),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.9),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.7));
+        MetricsRegistry registry = new MetricsRegistry();
+        strategy.registerMetrics(registry, "test");
+
+        assertTrue(strategy.shouldReturn(null));
+        load.put(ResourceMonitor.CPU, 0.8);
+        assertTrue(strategy.shouldReturn(null));
+        load.put(ResourceMonitor.CPU, 0.95);
+        assertFalse(strategy.shouldReturn(null));
+        assertTrue(strategy.isClosed(ResourceMonitor.CPU));
+
+        // a plain threshold would open again here.
+        load.put(ResourceMonitor.CPU, 0.8);
+        assertFalse(strategy.shouldReturn(null));
+
+        load.put(ResourceMonitor.CPU, 0.6);
+        assertTrue(strategy.shouldReturn(null));
+        assertFalse(strategy.isClosed(ResourceMonitor.CPU));
+
+        assertEquals(1, meter(registry, "closed CPU").count());
+        assertEquals(1, meter(registry, "opened CPU").count());
+    }
+
+    @Test
+    public void test_minimum_dwell_times() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        Map<String, Double> load = new HashMap<String, Double>();
+        load.put(ResourceMonitor.CPU, 0.95);
+        HysteresisConstraintStrategy<Object> strategy = new HysteresisConstraintStrategy<Object>(new ConstantResourceMonitor(load),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.9),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.7),
+                100, 1000, TimeUnit.MILLISECONDS, clock);
+
+        assertFalse(strategy.shouldReturn(null));
+
+        load.put(ResourceMonitor.CPU, 0.5);
+        clock.value += TimeUnit.MILLISECONDS.toNanos(500);
+        assertFalse("should stay closed for at least a second", strategy.shouldReturn(null));
+        clock.value += TimeUnit.MILLISECONDS.toNanos(500);
+        assertTrue(strategy.shouldReturn(null));
+
+        load.put(ResourceMonitor.CPU, 0.95);
+        clock.value += TimeUnit.MILLISECONDS.toNanos(50);
+        assertTrue("should stay open for at least 100 ms", strategy.shouldReturn(null));
+        clock.value += TimeUnit.MILLISECONDS.toNanos(50);
+        assertFalse(strategy.shouldReturn(null));
+    }
+
+    @Test
+    public void test_missing_low_watermark_uses_threshold() throws Exception {
+        Map<String, Double> load = new HashMap<String, Double>();
+        load.put(ResourceMonitor.HEAP_MEM, 0.95);
+        HysteresisConstraintStrategy<Object> strategy = new HysteresisConstraintStrategy<Object>(new ConstantResourceMonitor(load),
+                Collections.singletonMap(ResourceMonitor.HEAP_MEM, 0.9),
+                Collections.<String, Double>emptyMap());
+        assertFalse(strategy.shouldReturn(null));
+        load.put(ResourceMonitor.HEAP_MEM, 0.85);
+        assertTrue(strategy.shouldReturn(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_low_watermark_above_threshold() throws Exception {
+        new HysteresisConstraintStrategy<Object>(new ConstantResourceMonitor(new HashMap<String, Double>()),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.7),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.9));
+    }
+
+    private Meter meter(MetricsRegistry registry, String name) {
+        return (Meter) registry.allMetrics().get(new MetricName(HysteresisConstraintStrategy.class, "test", name));
+    }
+}
@@ -0,0 +1,107 @@
+package com.quantumretail.constraint;
+
+import com.quantumretail.rcq.predictor.TaskTracker;
+import com.quantumretail.rcq.predictor.TaskTrackers;
+import com.quantumretail.resourcemon.ConstantResourceMonitor;
+import com.quantumretail.resourcemon.EWMAMonitorTest;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PidConstraintStrategyTest {
+
+    @Test
+    public void test_controller_converges_on_setpoint() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        PidController controller = new PidController(2.0, 1.0, 0.0, 1, 100, 1, clock);
+        // each unit of output adds 10% load.
+        double output = controller.getOutput();
+        for (int i = 0; i < 200; i++) {
+            clock.value += TimeUnit.SECONDS.toNanos(1);
+            output = controller.update(0.85 - output * 0.1);
+        }
+        assertEquals(8.5, output, 0.01);
+        assertEquals(0.0, controller.getLastError(), 0.001);
+    }
+
+    @Test
+    public void test_anti_windup() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        PidController controller = new PidController(2.0, 1.0, 0.0, 1, 10, 1, clock);
+        for (int i = 0; i < 20; i++) {
+            clock.value += TimeUnit.SECONDS.toNanos(1);
+            controller.update(0.5);
+        }
+        // pinned at the maximum for a long time: the integral shouldn't keep growing.
+        for (int i = 0; i < 1000; i++) {
+            clock.value += TimeUnit.SECONDS.toNanos(1);
+            assertEquals(10.0, controller.update(0.5), 0.0001);
+        }
+        // the proportional term alone is 1.0, so the integral only needs to be 9 to keep us there.
+        assertTrue("integral wound up to " + controller.getIntegral(), controller.getIntegral() <= 9.5);
+
+        // so as soon as we're over, the output comes down.
+        clock.value += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(controller.update(-0.5) < 10.0);
+    }
+
+    @Test
+    public void test_strategy_limits_in_flight_tasks() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        Map<String, Double> load = new HashMap<String, Double>();
+        load.put(ResourceMonitor.CPU, 0.5);
+        load.put(ResourceMonitor.HEAP_MEM, 0.95);
+        TaskTracker<Object> taskTracker = TaskTrackers.defaultTaskTracker();
+        PidConstraintStrategy<Object> strategy = new PidConstraintStrategy<Object>(new ConstantResourceMonitor(load),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.85), taskTracker,
+                new PidController(10.0, 5.0, 0.0, 1, 4, 2, clock), 1, 4);
+
+        assertEquals(2, strategy.getLimit());
+        Runnable first = (Runnable) taskTracker.register(new NoOp());
+        assertTrue(strategy.shouldReturn(null));
+        Runnable second = (Runnable) taskTracker.register(new NoOp());
+        assertFalse(strategy.shouldReturn(null));
+
+        // we're under the CPU setpoint, so the limit should go up.
+        clock.value += TimeUnit.SECONDS.toNanos(1);
+        strategy.run();
+        assertEquals(4, strategy.getLimit());
+        assertTrue(strategy.shouldReturn(null));
+
+        // we don't have a HEAP_MEM setpoint, so heap usage doesn't matter. Over on CPU, it should come down.
+        load.put(ResourceMonitor.CPU, 1.0);
+        for (int i = 0; i < 5; i++) {
+            clock.value += TimeUnit.SECONDS.toNanos(1);
+            strategy.run();
+        }
+        assertEquals(1, strategy.getLimit());
+        assertFalse(strategy.shouldReturn(null));
+        first.run();
+        assertFalse(strategy.shouldReturn(null));
+        second.run();
+        assertTrue(strategy.shouldReturn(null));
+    }
+
+    @Test
+    public void test_no_reading_leaves_limit_alone() throws Exception {
+        EWMAMonitorTest.TestClock clock = new EWMAMonitorTest.TestClock();
+        PidConstraintStrategy<Object> strategy = new PidConstraintStrategy<Object>(new ConstantResourceMonitor(new HashMap<String, Double>()),
+                Collections.singletonMap(ResourceMonitor.CPU, 0.85), TaskTrackers.defaultTaskTracker(),
+                new PidController(10.0, 5.0, 0.0, 1, 4, 2, clock), 1, 4);
+        clock.value += TimeUnit.SECONDS.toNanos(1);
+        strategy.run();
+        assertEquals(2, strategy.getLimit());
+    }
+
+    private static class NoOp implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
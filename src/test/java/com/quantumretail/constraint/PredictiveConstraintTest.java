@@ -1,8 +1,53 @@
 package com.quantumretail.constraint;
 
-/**
- * TODO: document me.
- *
- */
+import com.quantumretail.rcq.predictor.LoadPredictor;
+import com.quantumretail.resourcemon.ConstantResourceMonitor;
+import com.quantumretail.resourcemon.ResourceMonitor;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
 public class PredictiveConstraintTest {
+
+    @Test
+    public void test_shouldReturn() throws Exception {
+        SimplePredictiveConstraintStrategy<Object> s = strategy(0.5, 0.25);
+        // every single item fits on top of the current load...
+        assertTrue(s.shouldReturn(new Object()));
+        assertTrue(s.shouldReturn(new Object()));
+        assertTrue(s.shouldReturn(new Object()));
+
+        assertFalse(strategy(0.9, 0.25).shouldReturn(new Object()));
+    }
+
+    @Test
+    public void test_batch_counts_earlier_items() throws Exception {
+        SimplePredictiveConstraintStrategy<Object> s = strategy(0.5, 0.25);
+        BatchAdmission<Object> batch = s.beginBatch();
+        // ...but in a batch, only two of them do.
+        assertTrue(batch.tryAdmit(new Object()));
+        assertTrue(batch.tryAdmit(new Object()));
+        assertFalse(batch.tryAdmit(new Object()));
+        assertFalse(batch.tryAdmit(new Object()));
+
+        // a new batch starts again from the current load.
+        assertTrue(s.beginBatch().tryAdmit(new Object()));
+    }
+
+    static SimplePredictiveConstraintStrategy<Object> strategy(double currentCpu, final double perItemCpu) {
+        Map<String, Double> load = new HashMap<String, Double>();
+        load.put(ResourceMonitor.CPU, currentCpu);
+        LoadPredictor predictor = new LoadPredictor() {
+            @Override
+            public Map<String, Double> predictLoad(Object o) {
+                return Collections.singletonMap(ResourceMonitor.CPU, perItemCpu);
+            }
+        };
+        return new SimplePredictiveConstraintStrategy<Object>(new ConstantResourceMonitor(load),
+                Collections.singletonMap(ResourceMonitor.CPU, 1.0), predictor);
+    }
 }
@@ -187,8 +187,33 @@ public class EWMAMonitorTest {
         assertEquals(3, load.get("MEM"), DELTA);
     }
 
+    @Test
+    public void test_map_and_vector_share_history() throws Exception {
+        final ConstantResourceMonitor rm = ConstantResourceMonitor.build(ResourceMonitor.CPU, 1000.0, "EWMAMonitorTest.other", 500.0);
+        TestClock clock = new TestClock();
+        EWMAMonitor monitor = new EWMAMonitor(rm, new EWMA(2, TimeUnit.MILLISECONDS, clock));
+        ResourceVector v = new ResourceVector();
+
+        monitor.getLoad();
+        rm.map.put(ResourceMonitor.CPU, 10.0);
+        rm.map.put("EWMAMonitorTest.other", 10.0);
+
+        // a half-life later, through the vector
+        clock.value += TimeUnit.MILLISECONDS.toNanos(2);
+        monitor.getLoad(v);
+        assertEquals(505.0, v.get(ResourceKey.CPU), DELTA);
+        // this one only got a ResourceKey just now, but it still picks up the history the map kept for it.
+        assertEquals(255.0, v.get(ResourceKey.lookup("EWMAMonitorTest.other")), DELTA);
+
+        // ...and another, through the map, which carries on from where the vector left off.
+        clock.value += TimeUnit.MILLISECONDS.toNanos(2);
+        Map<String, Double> load = monitor.getLoad();
+        assertEquals(257.5, load.get(ResourceMonitor.CPU), DELTA);
+        assertEquals(132.5, load.get("EWMAMonitorTest.other"), DELTA);
+    }
+
     public static class TestClock implements EWMA.Clock {
-        long value = 0;
+        public long value = 0;
 
         @Override
         public long nanoTime() {
@@ -0,0 +1,96 @@
+package com.quantumretail.resourcemon;
+
+import com.quantumretail.rcq.predictor.LoadAware;
+import com.quantumretail.rcq.predictor.LoadAwareLoadPredictor;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResourceVectorTest {
+
+    @Test
+    public void test_keys_are_interned() throws Exception {
+        assertSame(ResourceKey.CPU, ResourceKey.of(ResourceMonitor.CPU));
+        assertSame(ResourceKey.of("ResourceVectorTest.a"), ResourceKey.of(new String("ResourceVectorTest.a")));
+        assertNull(ResourceKey.lookup("ResourceVectorTest.never-registered"));
+        ResourceKey k = ResourceKey.of("ResourceVectorTest.b");
+        assertSame(k, ResourceKey.forIndex(k.index()));
+        assertTrue(k.index() < ResourceKey.count());
+    }
+
+    @Test
+    public void test_arithmetic() throws Exception {
+        ResourceVector a = new ResourceVector().set(ResourceKey.CPU, 0.5).set(ResourceKey.HEAP_MEM, 0.25);
+        ResourceVector b = new ResourceVector().set(ResourceKey.CPU, 0.25).set(ResourceKey.LOAD_AVERAGE, 1.0);
+
+        ResourceVector sum = a.copy().add(b);
+        assertEquals(0.75, sum.get(ResourceKey.CPU), 0.0);
+        assertEquals(0.25, sum.get(ResourceKey.HEAP_MEM), 0.0);
+        assertEquals(1.0, sum.get(ResourceKey.LOAD_AVERAGE), 0.0);
+
+        ResourceVector max = a.copy().max(b);
+        assertEquals(0.5, max.get(ResourceKey.CPU), 0.0);
+        assertEquals(0.25, max.get(ResourceKey.HEAP_MEM), 0.0);
+        assertEquals(1.0, max.get(ResourceKey.LOAD_AVERAGE), 0.0);
+
+        ResourceVector scaled = a.copy().scale(new ResourceVector().set(ResourceKey.CPU, 2.0));
+        assertEquals(1.0, scaled.get(ResourceKey.CPU), 0.0);
+        assertEquals(0.25, scaled.get(ResourceKey.HEAP_MEM), 0.0);
+        assertEquals(0.5, a.copy().scale(2.0).get(ResourceKey.HEAP_MEM), 0.0);
+
+        ResourceVector thresholds = new ResourceVector().set(ResourceKey.CPU, 0.6);
+        assertFalse(a.exceeds(thresholds));
+        assertTrue(sum.exceeds(thresholds));
+        // LOAD_AVERAGE has no threshold, so it can't exceed it.
+        assertFalse(b.exceeds(thresholds));
+
+        assertEquals(0.5 * 0.25, a.dot(b), 0.0);
+        assertFalse(a.has(ResourceKey.LOAD_AVERAGE));
+        assertTrue(new ResourceVector().isEmpty());
+    }
+
+    @Test
+    public void test_map_round_trip() throws Exception {
+        Map<String, Double> m = new HashMap<String, Double>();
+        m.put(ResourceMonitor.CPU, 0.5);
+        m.put("ResourceVectorTest.new-key", 0.125);
+        m.put("ResourceVectorTest.null", null);
+        ResourceVector v = ResourceVector.fromMap(m);
+        assertEquals(0.125, v.get(ResourceKey.of("ResourceVectorTest.new-key")), 0.0);
+        m.remove("ResourceVectorTest.null");
+        assertEquals(m, v.toMap());
+        assertEquals(v, ResourceVector.fromMap(m));
+        assertEquals(v.hashCode(), ResourceVector.fromMap(m).hashCode());
+    }
+
+    @Test
+    public void test_vector_paths_match_maps() throws Exception {
+        Map<String, Double> defaultLoad = new HashMap<String, Double>();
+        defaultLoad.put(ResourceMonitor.CPU, 0.1);
+        defaultLoad.put(ResourceMonitor.HEAP_MEM, 0.2);
+        Map<String, Double> scaling = new HashMap<String, Double>();
+        scaling.put(ResourceMonitor.CPU, 2.0);
+        LoadAwareLoadPredictor predictor = new LoadAwareLoadPredictor(defaultLoad, scaling);
+
+        LoadAware task = new LoadAware() {
+            @Override
+            public Map<String, Double> load() {
+                Map<String, Double> l = new HashMap<String, Double>();
+                l.put(ResourceMonitor.CPU, 0.8);
+                return l;
+            }
+        };
+        ResourceVector v = new ResourceVector();
+        for (Object o : new Object[]{new Object(), task}) {
+            assertEquals(predictor.predictLoad(o), ResourceVectors.predictLoad(predictor, o, v).toMap());
+        }
+
+        HighestValueAggregateResourceMonitor monitor = new HighestValueAggregateResourceMonitor(
+                ConstantResourceMonitor.build(ResourceMonitor.CPU, 0.5, ResourceMonitor.HEAP_MEM, 0.1),
+                ConstantResourceMonitor.build(ResourceMonitor.CPU, 0.3, ResourceMonitor.LOAD_AVERAGE, 0.9));
+        assertEquals(monitor.getLoad(), ResourceVectors.getLoad(monitor, v).toMap());
+    }
+}
@@ -0,0 +1,93 @@
+package com.quantumretail.resourcemon;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SampledResourceMonitorTest {
+
+    @Test
+    public void test_reads_do_not_call_delegate() throws Exception {
+        CountingResourceMonitor delegate = new CountingResourceMonitor();
+        // a long period, so that the sampler thread stays out of the way.
+        SampledResourceMonitor monitor = new SampledResourceMonitor(delegate, 1, TimeUnit.HOURS);
+        try {
+            assertEquals(1, delegate.calls.get());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(1.0, monitor.getLoad().get(ResourceMonitor.CPU), 0.0);
+            }
+            assertEquals(1, delegate.calls.get());
+
+            monitor.sample();
+            assertEquals(2, delegate.calls.get());
+            assertEquals(2.0, monitor.getLoad().get(ResourceMonitor.CPU), 0.0);
+            assertEquals(2.0, ResourceVectors.getLoad(monitor, new ResourceVector()).get(ResourceKey.CPU), 0.0);
+        } finally {
+            monitor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_samples_in_background() throws Exception {
+        CountingResourceMonitor delegate = new CountingResourceMonitor();
+        SampledResourceMonitor monitor = new SampledResourceMonitor(delegate, 10, TimeUnit.MILLISECONDS);
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (delegate.calls.get() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(delegate.calls.get() >= 3);
+            assertTrue(monitor.getAge(TimeUnit.MILLISECONDS) < 5000);
+        } finally {
+            monitor.shutdown();
+        }
+        int calls = delegate.calls.get();
+        Thread.sleep(50);
+        assertTrue(delegate.calls.get() <= calls + 1);
+    }
+
+    @Test
+    public void test_keeps_last_sample_on_failure() throws Exception {
+        CountingResourceMonitor delegate = new CountingResourceMonitor();
+        SampledResourceMonitor monitor = new SampledResourceMonitor(delegate, 1, TimeUnit.HOURS);
+        try {
+            SampledResourceMonitor.Snapshot first = monitor.getSnapshot();
+            delegate.fail = true;
+            monitor.sample();
+            assertSame(first, monitor.getSnapshot());
+            Thread.sleep(20);
+            assertTrue(monitor.getAge(TimeUnit.MILLISECONDS) >= 10);
+        } finally {
+            monitor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_caching_monitor_caches() throws Exception {
+        CountingResourceMonitor delegate = new CountingResourceMonitor();
+        CachingResourceMonitor monitor = new CachingResourceMonitor(delegate, 60 * 1000L);
+        for (int i = 0; i < 100; i++) {
+            monitor.getLoad();
+            monitor.getLoad(new ResourceVector());
+        }
+        assertEquals(1, delegate.calls.get());
+    }
+
+    static class CountingResourceMonitor implements ResourceMonitor {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile boolean fail = false;
+
+        @Override
+        public Map<String, Double> getLoad() {
+            if (fail) {
+                throw new IllegalStateException("failing on purpose");
+            }
+            return Collections.singletonMap(ResourceMonitor.CPU, (double) calls.incrementAndGet());
+        }
+    }
+}
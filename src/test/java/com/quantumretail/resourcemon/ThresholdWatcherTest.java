@@ -0,0 +1,110 @@
+package com.quantumretail.resourcemon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ThresholdWatcherTest {
+
+    @Test
+    public void test_hysteresis() throws Exception {
+        ConstantResourceMonitor monitor = ConstantResourceMonitor.build(ResourceMonitor.CPU, 0.5);
+        ThresholdWatcher watcher = new ThresholdWatcher(monitor);
+        RecordingListener listener = new RecordingListener();
+        Threshold t = watcher.watch(ResourceMonitor.CPU, 0.9, 0.7, listener);
+
+        watcher.check();
+        assertFalse(t.isAbove());
+        assertTrue(listener.events.isEmpty());
+
+        monitor.map.put(ResourceMonitor.CPU, 0.95);
+        watcher.check();
+        assertTrue(t.isAbove());
+
+        // between the watermarks: no change, in either direction.
+        monitor.map.put(ResourceMonitor.CPU, 0.8);
+        watcher.check();
+        assertTrue(t.isAbove());
+
+        monitor.map.put(ResourceMonitor.CPU, 0.6);
+        watcher.check();
+        assertFalse(t.isAbove());
+
+        monitor.map.put(ResourceMonitor.CPU, 0.8);
+        watcher.check();
+        assertFalse(t.isAbove());
+
+        assertEquals(2, listener.events.size());
+        assertEquals("above 0.95", listener.events.get(0));
+        assertEquals("below 0.6", listener.events.get(1));
+    }
+
+    @Test
+    public void test_missing_value_changes_nothing() throws Exception {
+        ConstantResourceMonitor monitor = ConstantResourceMonitor.build(ResourceMonitor.CPU, 0.95);
+        ThresholdWatcher watcher = new ThresholdWatcher(monitor);
+        Threshold t = watcher.watch(ResourceMonitor.CPU, 0.9, 0.7);
+        watcher.check();
+        assertTrue(t.isAbove());
+
+        monitor.map.remove(ResourceMonitor.CPU);
+        watcher.check();
+        assertTrue(t.isAbove());
+    }
+
+    @Test
+    public void test_failing_listener_does_not_stop_others() throws Exception {
+        ConstantResourceMonitor monitor = ConstantResourceMonitor.build(ResourceMonitor.CPU, 0.95);
+        ThresholdWatcher watcher = new ThresholdWatcher(monitor);
+        Threshold t = watcher.watch(ResourceMonitor.CPU, 0.9, 0.7);
+        t.addListener(new ThresholdListener() {
+            @Override
+            public void crossedAbove(Threshold threshold, double value) {
+                throw new RuntimeException("expected");
+            }
+
+            @Override
+            public void crossedBelow(Threshold threshold, double value) {
+            }
+        });
+        RecordingListener listener = new RecordingListener();
+        t.addListener(listener);
+
+        watcher.run();
+        assertTrue(t.isAbove());
+        assertEquals(1, listener.events.size());
+    }
+
+    @Test
+    public void test_cancel() throws Exception {
+        ConstantResourceMonitor monitor = ConstantResourceMonitor.build(ResourceMonitor.CPU, 0.95);
+        ThresholdWatcher watcher = new ThresholdWatcher(monitor);
+        Threshold t = watcher.watch(ResourceMonitor.CPU, 0.9, 0.7);
+        t.cancel();
+        watcher.check();
+        assertFalse(t.isAbove());
+        assertTrue(watcher.getThresholds().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_low_above_high() throws Exception {
+        new ThresholdWatcher(ConstantResourceMonitor.build()).watch(ResourceMonitor.CPU, 0.7, 0.9);
+    }
+
+    private static class RecordingListener implements ThresholdListener {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void crossedAbove(Threshold threshold, double value) {
+            events.add("above " + value);
+        }
+
+        @Override
+        public void crossedBelow(Threshold threshold, double value) {
+            events.add("below " + value);
+        }
+    }
+}